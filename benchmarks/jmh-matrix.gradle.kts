@@ -0,0 +1,108 @@
+/*
+ * Runs the benchmarks of a module under several JIT and VM configurations, and aggregates the
+ * results into a comparison report.
+ *
+ * The zero overhead of ConTesterBreakpoint relies on the JIT constant-folding a static final
+ * field, so the interpreter and C1 modes are included to show what happens when that is not the
+ * case. The Graal mode only runs if the "jmhGraalJavaHome" property points to a GraalVM JDK.
+ *
+ * Usage: ./gradlew :benchmarks:with-driver:jmhMatrix
+ */
+
+import groovy.json.JsonSlurper
+
+val jmhMatrixIncludes = extra["jmhMatrixIncludes"] as String
+
+val vmModes =
+    linkedMapOf(
+        "interpreter" to listOf("-Xint"),
+        "c1" to listOf("-XX:TieredStopAtLevel=1"),
+        "c2" to listOf("-XX:-TieredCompilation"),
+        "tiered" to listOf(),
+        "graal" to listOf("-XX:+UnlockExperimentalVMOptions", "-XX:+EnableJVMCI", "-XX:+UseJVMCICompiler")
+    )
+
+val graalJavaHome = providers.gradleProperty("jmhGraalJavaHome")
+val matrixResultsDirectory = layout.buildDirectory.dir("results/jmh-matrix")
+
+val modeTasks =
+    vmModes.map { (mode, jvmArgs) ->
+        tasks.register<JavaExec>("jmhMatrix${mode.replaceFirstChar { it.uppercase() }}") {
+            group = "benchmark"
+            description = "Runs the JMH benchmarks in $mode mode."
+
+            val resultFile = matrixResultsDirectory.map { it.file("$mode.json") }
+            outputs.file(resultFile)
+
+            classpath(tasks.named("jmhJar"))
+            mainClass = "org.openjdk.jmh.Main"
+
+            val jmhArgs = mutableListOf(jmhMatrixIncludes)
+            if (jvmArgs.isNotEmpty()) {
+                jmhArgs += listOf("-jvmArgsAppend", jvmArgs.joinToString(" "))
+            }
+            if (mode == "graal") {
+                onlyIf { graalJavaHome.isPresent }
+                jmhArgs += listOf("-jvm", graalJavaHome.map { "$it/bin/java" }.getOrElse(""))
+            }
+            jmhArgs += listOf("-rf", "json", "-rff", resultFile.get().asFile.absolutePath)
+            args(jmhArgs)
+
+            doFirst {
+                resultFile.get().asFile.parentFile.mkdirs()
+            }
+        }
+    }
+
+abstract class JmhMatrixReport : DefaultTask() {
+    @get:Input
+    abstract val modes: ListProperty<String>
+
+    @get:Internal
+    abstract val resultsDirectory: DirectoryProperty
+
+    @get:OutputFile
+    abstract val reportFile: RegularFileProperty
+
+    @TaskAction
+    fun report() {
+        val scores = sortedMapOf<String, MutableMap<String, String>>()
+        val reportedModes = modes.get().filter { resultsDirectory.file("$it.json").get().asFile.exists() }
+        for (mode in reportedModes) {
+            @Suppress("UNCHECKED_CAST")
+            val results = JsonSlurper().parse(resultsDirectory.file("$mode.json").get().asFile) as List<Map<String, Any>>
+            for (result in results) {
+                val benchmark = (result["benchmark"] as String).substringAfterLast('.', "")
+                val className = (result["benchmark"] as String).substringBeforeLast('.').substringAfterLast('.')
+                @Suppress("UNCHECKED_CAST")
+                val metric = result["primaryMetric"] as Map<String, Any>
+                val score = String.format(java.util.Locale.US, "%.3f %s", metric["score"] as Number, metric["scoreUnit"])
+                scores.getOrPut("$className.$benchmark") { mutableMapOf() }[mode] = score
+            }
+        }
+
+        val nameWidth = (scores.keys.map { it.length } + "Benchmark".length).maxOrNull() ?: 0
+        val columnWidth = (scores.values.flatMap { it.values }.map { it.length } + reportedModes.map { it.length }).maxOrNull() ?: 0
+        val report = StringBuilder()
+        report.append("Benchmark".padEnd(nameWidth))
+        reportedModes.forEach { report.append("  ").append(it.padStart(columnWidth)) }
+        report.append('\n')
+        scores.forEach { (benchmark, modeScores) ->
+            report.append(benchmark.padEnd(nameWidth))
+            reportedModes.forEach { report.append("  ").append((modeScores[it] ?: "-").padStart(columnWidth)) }
+            report.append('\n')
+        }
+
+        reportFile.get().asFile.writeText(report.toString())
+        logger.lifecycle(report.toString())
+    }
+}
+
+tasks.register<JmhMatrixReport>("jmhMatrix") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks under all JIT and VM modes, and reports a comparison."
+    dependsOn(modeTasks)
+    modes = vmModes.keys.toList()
+    resultsDirectory = matrixResultsDirectory
+    reportFile = layout.buildDirectory.file("reports/jmh-matrix/report.txt")
+}
@@ -12,3 +12,11 @@ dependencies {
     jmh("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
     jmh("org.openjdk.jmh:jmh-generator-bytecode:$jmhVersion")
 }
+
+/* The Flight Recorder benchmarks use the jdk.jfr API, which requires Java 11. */
+tasks.named<JavaCompile>("compileJmhJava").configure {
+    options.release = 11
+}
+
+extra["jmhMatrixIncludes"] = "WithDriverBenchmark"
+apply(from = "../jmh-matrix.gradle.kts")
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterStatistics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * JMH profiler that reports the breakpoint activity of each benchmark iteration.
+ *
+ * <p>Use it with {@code -prof
+ * io.github.davidburstrom.contester.benchmarks.withdriver.ConTesterProfiler}. It reports the
+ * number of visits per operation, both in total and per breakpoint ID, as well as the time spent in
+ * visiting breakpoints per operation.
+ */
+public class ConTesterProfiler implements InternalProfiler {
+
+  @Override
+  public String getDescription() {
+    return "ConTester breakpoint visits and the time spent visiting them";
+  }
+
+  @Override
+  public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+    ConTesterStatistics.reset();
+    ConTesterStatistics.enable();
+  }
+
+  @Override
+  public Collection<? extends Result> afterIteration(
+      BenchmarkParams benchmarkParams,
+      IterationParams iterationParams,
+      IterationResult iterationResult) {
+    ConTesterStatistics.disable();
+
+    final double ops = Math.max(1, iterationResult.getMetadata().getAllOps());
+    final Map<String, Long> visitCounts = ConTesterStatistics.getVisitCounts();
+    final long totalVisits = visitCounts.values().stream().mapToLong(Long::longValue).sum();
+
+    final List<Result> results = new ArrayList<>();
+    results.add(
+        new ScalarResult(
+            "contester.visits.norm", totalVisits / ops, "visits/op", AggregationPolicy.AVG));
+    results.add(
+        new ScalarResult(
+            "contester.time.norm",
+            ConTesterStatistics.getVisitNanos() / ops,
+            "ns/op",
+            AggregationPolicy.AVG));
+    visitCounts.forEach(
+        (id, count) ->
+            results.add(
+                new ScalarResult(
+                    "contester.visits.norm:" + id, count / ops, "visits/op", AggregationPolicy.AVG)));
+    return results;
+  }
+}
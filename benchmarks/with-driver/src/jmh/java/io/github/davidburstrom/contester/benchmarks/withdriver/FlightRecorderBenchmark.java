@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterBreakpoint;
+import io.github.davidburstrom.contester.ConTesterDriver;
+import java.util.concurrent.CountDownLatch;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of visiting a breakpoint from a registered thread, with the ConTester Flight
+ * Recorder events disabled and enabled.
+ */
+@State(Scope.Thread)
+public class FlightRecorderBenchmark {
+
+  private static final String[] EVENT_NAMES = {
+    "io.github.davidburstrom.contester.BreakpointVisit",
+    "io.github.davidburstrom.contester.BreakpointSuspend",
+    "io.github.davidburstrom.contester.BreakpointResume",
+    "io.github.davidburstrom.contester.WaitTimeout"
+  };
+
+  @Param({"false", "true"})
+  public boolean eventsEnabled;
+
+  private Recording recording;
+  private Thread driver;
+  private final CountDownLatch registered = new CountDownLatch(1);
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  @Setup(Level.Trial)
+  public void setUp() throws InterruptedException {
+    /*
+     * A thread cannot register itself, so a separate driver thread registers the benchmark thread
+     * and stays alive until the trial is over.
+     */
+    final Thread benchmarkThread = Thread.currentThread();
+    driver =
+        new Thread(
+            () -> {
+              ConTesterDriver.register(benchmarkThread);
+              registered.countDown();
+              try {
+                done.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              } finally {
+                ConTesterDriver.cleanUp();
+              }
+            });
+    driver.start();
+    registered.await();
+
+    recording = new Recording();
+    if (eventsEnabled) {
+      for (String eventName : EVENT_NAMES) {
+        recording.enable(eventName);
+      }
+    }
+    recording.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    recording.close();
+    done.countDown();
+    driver.join();
+  }
+
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 1)
+  @Fork(value = 1, warmups = 1)
+  @Benchmark
+  public void withBreakpoint(Blackhole blackhole) {
+    ConTesterBreakpoint.defineBreakpoint("id");
+    blackhole.consume(1);
+  }
+
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 1)
+  @Fork(value = 1, warmups = 1)
+  @Benchmark
+  public void withoutBreakpoint(Blackhole blackhole) {
+    blackhole.consume(1);
+  }
+}
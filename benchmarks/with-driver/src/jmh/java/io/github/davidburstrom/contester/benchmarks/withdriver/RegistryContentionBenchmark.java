@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterBreakpoint;
+import io.github.davidburstrom.contester.ConTesterDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the driver registry under contention, with every benchmark thread acting as a separate
+ * driver thread, like the test workers of a massively parallel JUnit execution.
+ */
+@State(Scope.Thread)
+@Threads(64)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RegistryContentionBenchmark {
+
+  private static final Runnable NO_OP = () -> {};
+
+  /** Keeps a registered thread per driver, so that the registry is never empty. */
+  private Thread registered;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    registered = ConTesterDriver.thread(NO_OP);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    ConTesterDriver.cleanUp();
+  }
+
+  /** Registers a new thread, and looks it up through the driver API. */
+  @Benchmark
+  public void registerThread(Blackhole blackhole) {
+    final Thread thread = ConTesterDriver.thread(NO_OP);
+    blackhole.consume(ConTesterDriver.getUncaughtThrowable(thread));
+  }
+
+  /** Looks up the registered thread through the driver API. */
+  @Benchmark
+  public void lookUpThread(Blackhole blackhole) {
+    blackhole.consume(ConTesterDriver.getUncaughtThrowable(registered));
+  }
+
+  /** Visits a breakpoint from an unregistered thread, which requires a registry lookup. */
+  @Benchmark
+  public void visitBreakpoint() {
+    ConTesterBreakpoint.defineBreakpoint("id");
+  }
+}
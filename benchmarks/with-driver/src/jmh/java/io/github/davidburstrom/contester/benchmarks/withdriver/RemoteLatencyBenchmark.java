@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterBreakpoint;
+import io.github.davidburstrom.contester.ConTesterRemoteAgent;
+import io.github.davidburstrom.contester.ConTesterRemoteDriver;
+import io.github.davidburstrom.contester.ConTesterSharedMemoryAgent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of resuming a remote thread suspended on a breakpoint, until it suspends
+ * on the breakpoint again, per transport. The agent runs in the benchmark JVM, which measures the
+ * same transport costs as an agent in another JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RemoteLatencyBenchmark {
+
+  private static final String THREAD_NAME = "Remote Latency Benchmark Thread";
+
+  @Param({"socket", "sharedMemory"})
+  public String transport;
+
+  private AutoCloseable agent;
+  private ConTesterRemoteDriver remote;
+  private Path file;
+  private Thread thread;
+  private volatile boolean stopped;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    thread =
+        new Thread(
+            () -> {
+              while (!stopped) {
+                ConTesterBreakpoint.defineBreakpoint("id");
+              }
+            },
+            THREAD_NAME);
+    if (transport.equals("socket")) {
+      final ConTesterRemoteAgent socketAgent = ConTesterRemoteAgent.listen(0);
+      agent = socketAgent;
+      remote = ConTesterRemoteDriver.connect(socketAgent.getPort(), socketAgent.getToken());
+      thread.start();
+    } else {
+      file = Files.createTempFile("contester", ".shm");
+      remote = ConTesterRemoteDriver.createSharedMemory(file);
+      agent = ConTesterSharedMemoryAgent.attach(file);
+    }
+    remote.enableBreakpoint(THREAD_NAME, "id");
+    if (!thread.isAlive()) {
+      thread.start();
+    }
+    remote.waitForBreakpoint(THREAD_NAME, "id");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    stopped = true;
+    remote.close();
+    thread.join();
+    agent.close();
+    if (file != null) {
+      Files.delete(file);
+    }
+  }
+
+  /** Resumes the thread and waits for it to suspend again, in a single batch. */
+  @Benchmark
+  public void resumeAndWait() {
+    remote.batch(
+        batch -> {
+          batch.resume(THREAD_NAME);
+          batch.waitForBreakpoint(THREAD_NAME, "id");
+        });
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterSession;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of setting up and tearing down a minimal scenario with two threads, with and
+ * without pooled threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScenarioSetupBenchmark {
+
+  private static final Runnable NO_OP = () -> {};
+
+  @Param({"false", "true"})
+  public boolean pooled;
+
+  /** Creates, starts and joins two threads in a new session. */
+  @Benchmark
+  public void scenario() {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread first = pooled ? session.pooledThread(NO_OP) : session.thread(NO_OP);
+      final Thread second = pooled ? session.pooledThread(NO_OP) : session.thread(NO_OP);
+      session.start(first);
+      session.start(second);
+      session.join(first);
+      session.join(second);
+    }
+  }
+}
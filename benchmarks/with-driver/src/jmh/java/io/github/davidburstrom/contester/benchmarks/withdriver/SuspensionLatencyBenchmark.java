@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterBreakpoint;
+import io.github.davidburstrom.contester.ConTesterSession;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of resuming a thread suspended on a breakpoint, until it suspends on the
+ * breakpoint again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SuspensionLatencyBenchmark {
+
+  private ConTesterSession session;
+  private Thread thread;
+  private volatile boolean stopped;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    session = new ConTesterSession();
+    thread =
+        session.thread(
+            () -> {
+              while (!stopped) {
+                ConTesterBreakpoint.defineBreakpoint("id");
+              }
+            });
+    session.runToBreakpoint(thread, "id");
+    session.enableBreakpoint(thread, "id");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    stopped = true;
+    session.close();
+  }
+
+  /** Resumes the thread and waits for it to suspend again. */
+  @Benchmark
+  public void resumeAndWait() {
+    session.resume(thread);
+    session.waitForBreakpoint(thread, "id");
+  }
+}
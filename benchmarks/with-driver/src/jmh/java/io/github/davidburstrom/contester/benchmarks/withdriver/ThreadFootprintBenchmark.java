@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester.benchmarks.withdriver;
+
+import io.github.davidburstrom.contester.ConTesterSession;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time and memory it takes to control a scenario with many threads, per thread.
+ *
+ * <p>Run it with {@code -prof gc}, where {@code gc.alloc.rate.norm} is the number of bytes
+ * allocated by the driver per registered thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThreadFootprintBenchmark {
+
+  private static final int THREADS = 10_000;
+
+  private final Thread[] threads = new Thread[THREADS];
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    for (int i = 0; i < THREADS; i++) {
+      threads[i] = new Thread(() -> {});
+    }
+  }
+
+  /** Registers all threads in a session. */
+  @Benchmark
+  @OperationsPerInvocation(THREADS)
+  public void register() {
+    try (ConTesterSession session = new ConTesterSession()) {
+      for (Thread thread : threads) {
+        session.register(thread);
+      }
+    }
+  }
+
+  /** Registers all threads in a session, and enables and disables a breakpoint for each. */
+  @Benchmark
+  @OperationsPerInvocation(THREADS)
+  public void registerAndToggleBreakpoints() {
+    try (ConTesterSession session = new ConTesterSession()) {
+      for (Thread thread : threads) {
+        session.register(thread);
+        session.enableBreakpoint(thread, "id");
+        session.enableBreakpoint(thread, "other");
+      }
+      for (Thread thread : threads) {
+        session.disableBreakpoint(thread, "id");
+      }
+    }
+  }
+}
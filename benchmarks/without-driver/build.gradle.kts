@@ -11,3 +11,6 @@ dependencies {
     jmh("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
     jmh("org.openjdk.jmh:jmh-generator-bytecode:$jmhVersion")
 }
+
+extra["jmhMatrixIncludes"] = "WithoutDriverBenchmark"
+apply(from = "../jmh-matrix.gradle.kts")
@@ -16,11 +16,19 @@
 package io.github.davidburstrom.contester.benchmarks.withoutdriver;
 
 import io.github.davidburstrom.contester.ConTesterBreakpoint;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 
@@ -77,4 +85,42 @@ public class WithoutDriverBenchmark {
   public void withoutBreakpointSingleShot(Blackhole blackhole) {
     blackhole.consume(1);
   }
+
+  /**
+   * Measures the static initialization of {@link ConTesterBreakpoint}, including the {@code
+   * Class.forName} probe for the driver, as it happens during application startup.
+   */
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 100)
+  @Fork(value = 5)
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public Class<?> breakpointClassInitialization(IsolatedClassLoader isolatedClassLoader)
+      throws ClassNotFoundException {
+    return Class.forName(ConTesterBreakpoint.class.getName(), true, isolatedClassLoader.loader);
+  }
+
+  /**
+   * Provides a class loader that can see the breakpoint class, but none of the already initialized
+   * classes in the benchmark class loader.
+   */
+  @State(Scope.Thread)
+  public static class IsolatedClassLoader {
+    URLClassLoader loader;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+      loader =
+          new URLClassLoader(
+              new URL[] {
+                ConTesterBreakpoint.class.getProtectionDomain().getCodeSource().getLocation()
+              },
+              null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+      loader.close();
+    }
+  }
 }
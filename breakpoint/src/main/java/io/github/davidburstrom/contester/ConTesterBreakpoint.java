@@ -15,6 +15,8 @@
  */
 package io.github.davidburstrom.contester;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.function.BooleanSupplier;
 
 /**
@@ -26,6 +28,9 @@ public class ConTesterBreakpoint {
 
   private static final boolean IS_DRIVER_PRESENT;
 
+  private static final CompletionStage<Void> COMPLETED_STAGE =
+      CompletableFuture.completedFuture(null);
+
   static {
     boolean isDriverPresent = false;
     try {
@@ -62,4 +67,23 @@ public class ConTesterBreakpoint {
       ConTesterDriver.visitBreakpoint(id, condition);
     }
   }
+
+  /**
+   * Defines an asynchronous breakpoint with a given ID, for code that must not block its thread,
+   * such as an event loop.
+   *
+   * <p>Instead of suspending the thread, the returned stage is held by the driver while the
+   * breakpoint is enabled, so continue the asynchronous work when it completes. Otherwise, the
+   * stage is already completed.
+   *
+   * @param id A breakpoint ID. It is recommended but not mandatory that the ID is unique, for
+   *     example based on the containing class or method.
+   * @return A stage that completes when the asynchronous work can continue.
+   */
+  public static CompletionStage<Void> defineAsyncBreakpoint(String id) {
+    if (IS_DRIVER_PRESENT) {
+      return ConTesterDriver.visitAsyncBreakpoint(id);
+    }
+    return COMPLETED_STAGE;
+  }
 }
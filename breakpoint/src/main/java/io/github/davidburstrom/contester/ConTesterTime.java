@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API to read time and sleep in production code, so that automated tests can replace real time
+ * with a virtual clock that the driver advances instantly, see {@link
+ * ConTesterDriver#enableVirtualClock}.
+ *
+ * <p>Unless a virtual clock is enabled for the calling thread, or if the driver isn't present, the
+ * methods fall back to {@link System#nanoTime}, the system clock and {@link TimeUnit#sleep}.
+ *
+ * <p>Unlike {@link ConTesterBreakpoint}, these methods must not be stripped from release builds.
+ */
+public final class ConTesterTime {
+
+  private static final boolean IS_DRIVER_PRESENT;
+
+  static {
+    boolean isDriverPresent = false;
+    try {
+      Class.forName("io.github.davidburstrom.contester.ConTesterDriver");
+      isDriverPresent = true;
+    } catch (ClassNotFoundException ignored) {
+      // the driver wasn't found
+    }
+    IS_DRIVER_PRESENT = isDriverPresent;
+  }
+
+  private ConTesterTime() {}
+
+  /**
+   * Reads the time, as a drop-in replacement for {@link System#nanoTime}.
+   *
+   * @return The virtual time of the calling thread, or else the real time, in nanoseconds.
+   */
+  public static long nanoTime() {
+    if (IS_DRIVER_PRESENT) {
+      return ConTesterDriver.nanoTime();
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Gets a clock in UTC, as a drop-in replacement for {@link Clock#systemUTC}. The clock can be
+   * kept, as every reading dispatches on the calling thread.
+   *
+   * @return A clock that reads the virtual time of the calling thread, or else the real time.
+   */
+  public static Clock clock() {
+    if (IS_DRIVER_PRESENT) {
+      return ConTesterDriver.clock();
+    }
+    return Clock.systemUTC();
+  }
+
+  /**
+   * Defines a breakpoint with a given ID, and then sleeps, as a drop-in replacement for {@link
+   * TimeUnit#sleep}. With a virtual clock, the calling thread sleeps until the driver has advanced
+   * the clock by the given duration.
+   *
+   * @param id A breakpoint ID, so that the driver can suspend the thread before the timed wait.
+   * @param duration The duration to sleep.
+   * @param timeUnit The time unit of the given duration.
+   * @throws InterruptedException If the thread is interrupted while sleeping.
+   */
+  public static void sleep(String id, long duration, TimeUnit timeUnit)
+      throws InterruptedException {
+    if (IS_DRIVER_PRESENT) {
+      ConTesterDriver.sleep(id, timeUnit.toNanos(duration));
+    } else {
+      timeUnit.sleep(duration);
+    }
+  }
+}
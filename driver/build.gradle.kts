@@ -6,6 +6,39 @@ plugins {
 
 ext.set("mutationThreshold", 79)
 
+/*
+ * Classes that require a newer JDK than the Java 8 baseline, e.g. JDK Flight Recorder events, are
+ * packaged in a multi-release jar layer.
+ */
+val java11: SourceSet by sourceSets.creating {
+    java.setSrcDirs(listOf("src/main/java11"))
+    compileClasspath += sourceSets.main.get().output
+}
+
+tasks.named<JavaCompile>("compileJava11Java").configure {
+    options.release = 11
+}
+
+/* The tests run against the newest layer, like a Java 11+ runtime would load the jar. */
+sourceSets.test {
+    runtimeClasspath = java11.output + runtimeClasspath
+}
+
+tasks.named<Jar>("jar").configure {
+    into("META-INF/versions/11") {
+        from(java11.output)
+    }
+    manifest {
+        attributes("Multi-Release" to "true")
+    }
+}
+
+tasks.named<Jar>("sourcesJar").configure {
+    into("META-INF/versions/11") {
+        from(java11.allJava)
+    }
+}
+
 dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter:6.0.3")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher:6.0.3")
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The breakpoints enabled for a thread or a task, and whether it's suspended on one. It is kept
+ * small, as a scenario can have tens of thousands of threads. Except for the handoff, {@link
+ * #mayBeEnabled} and {@link #getDelay}, it is guarded by the session lock.
+ */
+class BreakpointState {
+
+  final Handoff handoff = new Handoff();
+
+  /**
+   * The IDs of the enabled breakpoints, or null if there are none. An array is more compact than a
+   * set, and a thread typically has few breakpoints enabled at a time. It's copied on write, so
+   * that it can be read without the session lock.
+   */
+  private volatile String[] enabledIds;
+
+  /**
+   * The number of hits per suspension and the hits counted so far for each enabled breakpoint, or
+   * null if every breakpoint suspends on every hit.
+   */
+  private int[] periods;
+
+  private int[] hits;
+
+  /**
+   * The prefixes of the breakpoint patterns enabled with {@link #enablePattern}, such as {@code
+   * "cache."} for {@code "cache.*"}, or null if there are none. Only whether it's null is read
+   * without the session lock.
+   */
+  private volatile Set<String> enabledPrefixes;
+
+  /** Whether an ID is matched by an enabled pattern, memoized per ID until the patterns change. */
+  private Map<String, Boolean> matchedIds;
+
+  /**
+   * The injected delays, or null if there are none. It's copied on write, so that it can be read
+   * without the session lock, before a visit decides whether to suspend.
+   */
+  private volatile InjectedDelay[] delays;
+
+  String getSuspended() {
+    return handoff.getSuspended();
+  }
+
+  boolean isSuspended() {
+    return handoff.getSuspended() != null;
+  }
+
+  boolean isEnabled(String id) {
+    return indexOfEnabled(id) >= 0 || enabledPrefixes != null && matchesPattern(id);
+  }
+
+  /**
+   * Checks whether a breakpoint might be enabled. It can be called without the session lock, so
+   * that visits of breakpoints that can't be hit don't take it. Patterns are only matched under the
+   * lock, as the matches are memoized.
+   *
+   * @return False if the breakpoint is disabled, otherwise {@link #isEnabled} must be checked.
+   */
+  boolean mayBeEnabled(String id) {
+    return enabledPrefixes != null || indexOfEnabled(id) >= 0;
+  }
+
+  /**
+   * Enables all breakpoints matching a pattern.
+   *
+   * @param pattern {@code "*"} for all breakpoints, or a prefix followed by {@code ".*"}, such as
+   *     {@code "cache.*"} for {@code "cache.load"} and {@code "cache.evict.lru"}.
+   * @return Whether the pattern was enabled, i.e. not already enabled.
+   */
+  boolean enablePattern(String pattern) {
+    if (enabledPrefixes == null) {
+      enabledPrefixes = new HashSet<>();
+      matchedIds = new HashMap<>();
+    }
+    final boolean enabled = enabledPrefixes.add(prefixOf(pattern));
+    matchedIds.clear();
+    return enabled;
+  }
+
+  /**
+   * Disables a pattern enabled with {@link #enablePattern}.
+   *
+   * @return Whether the pattern was disabled, i.e. not already disabled.
+   */
+  boolean disablePattern(String pattern) {
+    final String prefix = prefixOf(pattern);
+    if (enabledPrefixes == null || !enabledPrefixes.remove(prefix)) {
+      return false;
+    }
+    if (enabledPrefixes.isEmpty()) {
+      enabledPrefixes = null;
+      matchedIds = null;
+    } else {
+      matchedIds.clear();
+    }
+    return true;
+  }
+
+  /** Returns whether the breakpoint was enabled, i.e. not already enabled. */
+  boolean enable(String id) {
+    return enable(id, 1);
+  }
+
+  /**
+   * Enables a breakpoint that suspends on every Nth hit.
+   *
+   * @return Whether the breakpoint was enabled, i.e. not already enabled.
+   */
+  boolean enable(String id, int period) {
+    if (indexOfEnabled(id) >= 0) {
+      return false;
+    }
+    final String[] current = enabledIds;
+    final String[] updated;
+    if (current == null) {
+      updated = new String[] {id};
+    } else {
+      updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = id;
+    }
+    if (periods != null) {
+      periods = Arrays.copyOf(periods, updated.length);
+      hits = Arrays.copyOf(hits, updated.length);
+    } else if (period != 1) {
+      periods = new int[updated.length];
+      Arrays.fill(periods, 1);
+      hits = new int[updated.length];
+    }
+    if (periods != null) {
+      periods[updated.length - 1] = period;
+    }
+    // Published last, as the periods are only read under the lock
+    enabledIds = updated;
+    return true;
+  }
+
+  /**
+   * Counts a hit of an enabled breakpoint.
+   *
+   * @return Whether to suspend on this hit.
+   */
+  boolean countHit(String id) {
+    if (periods == null) {
+      return true;
+    }
+    final int index = indexOfEnabled(id);
+    if (index < 0) {
+      // Only enabled by a pattern
+      return true;
+    }
+    if (++hits[index] < periods[index]) {
+      return false;
+    }
+    hits[index] = 0;
+    return true;
+  }
+
+  /** Returns whether the breakpoint was disabled, i.e. not already disabled. */
+  boolean disable(String id) {
+    final int index = indexOfEnabled(id);
+    if (index < 0) {
+      return false;
+    }
+    final String[] current = enabledIds;
+    if (current.length == 1) {
+      disableAll();
+    } else {
+      enabledIds = remove(current, index);
+      if (periods != null) {
+        periods = remove(periods, index);
+        hits = remove(hits, index);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the delay to impose when a breakpoint is visited. It can be called without the session
+   * lock.
+   *
+   * @return A delay, or null if there is none.
+   */
+  ConTesterDelay getDelay(String id) {
+    final InjectedDelay[] current = delays;
+    if (current != null) {
+      for (InjectedDelay injected : current) {
+        if (injected.id.equals(id)) {
+          return injected.delay;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Sets or replaces the delay of a breakpoint. */
+  void setDelay(String id, ConTesterDelay delay) {
+    final InjectedDelay[] current = delays;
+    final int index = indexOfDelay(id);
+    final InjectedDelay[] updated;
+    if (index >= 0) {
+      updated = current.clone();
+      updated[index] = new InjectedDelay(id, delay);
+    } else if (current == null) {
+      updated = new InjectedDelay[] {new InjectedDelay(id, delay)};
+    } else {
+      updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = new InjectedDelay(id, delay);
+    }
+    delays = updated;
+  }
+
+  /** Returns whether there was a delay to remove. */
+  boolean removeDelay(String id) {
+    final InjectedDelay[] current = delays;
+    final int index = indexOfDelay(id);
+    if (index < 0) {
+      return false;
+    }
+    if (current.length == 1) {
+      delays = null;
+    } else {
+      final InjectedDelay[] remaining = new InjectedDelay[current.length - 1];
+      System.arraycopy(current, 0, remaining, 0, index);
+      System.arraycopy(current, index + 1, remaining, index, remaining.length - index);
+      delays = remaining;
+    }
+    return true;
+  }
+
+  private int indexOfDelay(String id) {
+    final InjectedDelay[] current = delays;
+    if (current != null) {
+      for (int i = 0; i < current.length; i++) {
+        if (current[i].id.equals(id)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /** Disables all breakpoints. Injected delays are kept. */
+  void disableAll() {
+    enabledIds = null;
+    periods = null;
+    hits = null;
+    enabledPrefixes = null;
+    matchedIds = null;
+  }
+
+  /** Checks every prefix of an ID that ends with a '.', the first time the ID is seen. */
+  private boolean matchesPattern(String id) {
+    final Boolean memoized = matchedIds.get(id);
+    if (memoized != null) {
+      return memoized;
+    }
+    boolean matches = enabledPrefixes.contains("");
+    for (int end = id.indexOf('.'); !matches && end >= 0; end = id.indexOf('.', end + 1)) {
+      matches = enabledPrefixes.contains(id.substring(0, end + 1));
+    }
+    matchedIds.put(id, matches);
+    return matches;
+  }
+
+  private static String prefixOf(String pattern) {
+    final int star = pattern.indexOf('*');
+    if (star < 0 || star != pattern.length() - 1 || (star > 0 && pattern.charAt(star - 1) != '.')) {
+      throw new IllegalArgumentException(
+          "Pattern '" + pattern + "' must be '*' or end with '.*', without any other '*'");
+    }
+    return pattern.substring(0, star);
+  }
+
+  private static String[] remove(String[] array, int index) {
+    final String[] remaining = new String[array.length - 1];
+    System.arraycopy(array, 0, remaining, 0, index);
+    System.arraycopy(array, index + 1, remaining, index, remaining.length - index);
+    return remaining;
+  }
+
+  private static int[] remove(int[] array, int index) {
+    final int[] remaining = new int[array.length - 1];
+    System.arraycopy(array, 0, remaining, 0, index);
+    System.arraycopy(array, index + 1, remaining, index, remaining.length - index);
+    return remaining;
+  }
+
+  private int indexOfEnabled(String id) {
+    final String[] current = enabledIds;
+    if (current != null) {
+      for (int i = 0; i < current.length; i++) {
+        if (current[i].equals(id)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static final class InjectedDelay {
+
+    private final String id;
+    private final ConTesterDelay delay;
+
+    InjectedDelay(String id, ConTesterDelay delay) {
+      this.id = id;
+      this.delay = delay;
+    }
+  }
+}
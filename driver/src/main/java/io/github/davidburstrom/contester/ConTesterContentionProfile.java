@@ -0,0 +1,247 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How long, and how many times, the threads of a session were blocked or waiting between
+ * consecutive breakpoints, and on which locks, see {@link
+ * ConTesterSession#enableContentionProfiling}.
+ *
+ * <p>A segment runs from one breakpoint to the next one visited by the same thread, where the time
+ * suspended at a breakpoint is left out. A thread created by the session also has a segment from
+ * its start to its first breakpoint, and from its last breakpoint to its end, denoted by {@code
+ * "<start>"} and {@code "<end>"}. The times are measured by the JVM in milliseconds, whereas the
+ * locks are sampled every millisecond, so brief contention is only visible in the counts.
+ */
+public final class ConTesterContentionProfile {
+
+  private static final Comparator<Segment> MOST_CONTENDED_FIRST =
+      Comparator.comparingLong((Segment segment) -> segment.blockedMillis + segment.waitedMillis)
+          .thenComparingLong(segment -> segment.blockedCount + segment.waitedCount)
+          .reversed()
+          .thenComparing(segment -> segment.fromId)
+          .thenComparing(segment -> segment.toId);
+
+  private final Map<Thread, List<Segment>> threadSegments = new LinkedHashMap<>();
+  private final List<Segment> segments;
+
+  ConTesterContentionProfile(List<ThreadSegments> threads) {
+    final Map<List<String>, Segment> merged = new HashMap<>();
+    for (ThreadSegments thread : threads) {
+      final List<Segment> sorted = new ArrayList<>(thread.segments);
+      sorted.sort(MOST_CONTENDED_FIRST);
+      threadSegments.put(thread.thread, Collections.unmodifiableList(sorted));
+      for (Segment segment : sorted) {
+        merged.merge(Arrays.asList(segment.fromId, segment.toId), segment, Segment::plus);
+      }
+    }
+    final List<Segment> sorted = new ArrayList<>(merged.values());
+    sorted.sort(MOST_CONTENDED_FIRST);
+    this.segments = Collections.unmodifiableList(sorted);
+  }
+
+  /**
+   * Gets the segments of all threads, where the segments between the same breakpoints are merged.
+   *
+   * @return The segments, most contended first.
+   */
+  public List<Segment> getSegments() {
+    return segments;
+  }
+
+  /**
+   * Gets the segments of a thread.
+   *
+   * @param thread A thread registered in the session.
+   * @return The segments, most contended first, which are empty if the thread wasn't profiled.
+   */
+  public List<Segment> getSegments(Thread thread) {
+    return threadSegments.getOrDefault(thread, Collections.emptyList());
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (Segment segment : segments) {
+      builder.append(segment).append(System.lineSeparator());
+    }
+    return builder.toString();
+  }
+
+  /** The contention of one or more threads between two breakpoints. */
+  public static final class Segment {
+    private final String fromId;
+    private final String toId;
+    private final long passes;
+    private final long blockedCount;
+    private final long blockedMillis;
+    private final long waitedCount;
+    private final long waitedMillis;
+    private final Map<String, Long> lockSamples;
+
+    Segment(
+        String fromId,
+        String toId,
+        long passes,
+        long blockedCount,
+        long blockedMillis,
+        long waitedCount,
+        long waitedMillis,
+        Map<String, Long> lockSamples) {
+      this.fromId = fromId;
+      this.toId = toId;
+      this.passes = passes;
+      this.blockedCount = blockedCount;
+      this.blockedMillis = blockedMillis;
+      this.waitedCount = waitedCount;
+      this.waitedMillis = waitedMillis;
+      final List<Map.Entry<String, Long>> entries = new ArrayList<>(lockSamples.entrySet());
+      entries.sort(
+          Map.Entry.<String, Long>comparingByValue()
+              .reversed()
+              .thenComparing(Map.Entry.comparingByKey()));
+      final Map<String, Long> sorted = new LinkedHashMap<>();
+      for (Map.Entry<String, Long> entry : entries) {
+        sorted.put(entry.getKey(), entry.getValue());
+      }
+      this.lockSamples = Collections.unmodifiableMap(sorted);
+    }
+
+    private Segment plus(Segment other) {
+      final Map<String, Long> samples = new HashMap<>(lockSamples);
+      other.lockSamples.forEach((lockName, count) -> samples.merge(lockName, count, Long::sum));
+      return new Segment(
+          fromId,
+          toId,
+          passes + other.passes,
+          blockedCount + other.blockedCount,
+          blockedMillis + other.blockedMillis,
+          waitedCount + other.waitedCount,
+          waitedMillis + other.waitedMillis,
+          samples);
+    }
+
+    /**
+     * Gets the breakpoint the segment starts at.
+     *
+     * @return A breakpoint ID, or {@code "<start>"} for the start of a thread.
+     */
+    public String getFromId() {
+      return fromId;
+    }
+
+    /**
+     * Gets the breakpoint the segment ends at.
+     *
+     * @return A breakpoint ID, or {@code "<end>"} for the end of a thread.
+     */
+    public String getToId() {
+      return toId;
+    }
+
+    /**
+     * Gets the number of times the segment was run.
+     *
+     * @return A count.
+     */
+    public long getPasses() {
+      return passes;
+    }
+
+    /**
+     * Gets the number of times a thread was blocked entering or reentering a monitor.
+     *
+     * @return A count.
+     */
+    public long getBlockedCount() {
+      return blockedCount;
+    }
+
+    /**
+     * Gets the time the threads were blocked entering or reentering a monitor.
+     *
+     * @return A duration in milliseconds.
+     */
+    public long getBlockedMillis() {
+      return blockedMillis;
+    }
+
+    /**
+     * Gets the number of times a thread was waiting or parked, e.g. for a {@link
+     * java.util.concurrent.locks.Lock}.
+     *
+     * @return A count.
+     */
+    public long getWaitedCount() {
+      return waitedCount;
+    }
+
+    /**
+     * Gets the time the threads were waiting or parked.
+     *
+     * @return A duration in milliseconds.
+     */
+    public long getWaitedMillis() {
+      return waitedMillis;
+    }
+
+    /**
+     * Gets the locks the threads were sampled blocked or waiting on.
+     *
+     * @return The number of samples of each lock, by its class name and identity hash code, most
+     *     sampled first.
+     */
+    public Map<String, Long> getLockSamples() {
+      return lockSamples;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.ROOT,
+          "%s -> %s: %d passes, blocked %d times for %d ms, waited %d times for %d ms%s",
+          fromId,
+          toId,
+          passes,
+          blockedCount,
+          blockedMillis,
+          waitedCount,
+          waitedMillis,
+          lockSamples.isEmpty() ? "" : ", on " + lockSamples);
+    }
+  }
+
+  /** The segments of a thread, before sorting. */
+  static final class ThreadSegments {
+    private final Thread thread;
+    private final List<Segment> segments;
+
+    ThreadSegments(Thread thread, List<Segment> segments) {
+      this.thread = thread;
+      this.segments = segments;
+    }
+  }
+}
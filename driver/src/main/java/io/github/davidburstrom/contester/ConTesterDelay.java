@@ -0,0 +1,174 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * A delay to impose on a thread each time it visits a breakpoint, instead of suspending it, to
+ * model latency at a specific site. See {@link ConTesterSession#injectDelay}.
+ *
+ * <p>The delays are timed with {@link System#nanoTime}, by parking or busy-spinning the visiting
+ * thread, without any round trips to the driver thread. Parking can overshoot by the timer slack of
+ * the operating system, so the delays that were actually imposed are recorded, and can be read
+ * from the driver thread.
+ */
+public final class ConTesterDelay {
+
+  private final LongSupplier nanos;
+  private final boolean spin;
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  private ConTesterDelay(LongSupplier nanos, boolean spin) {
+    this.nanos = nanos;
+    this.spin = spin;
+  }
+
+  /**
+   * Creates a fixed delay, during which the thread is parked.
+   *
+   * @param duration The duration.
+   * @param timeUnit The time unit of the duration.
+   * @return A delay.
+   */
+  public static ConTesterDelay fixed(long duration, TimeUnit timeUnit) {
+    final long durationNanos = nonNegative(timeUnit.toNanos(duration));
+    return new ConTesterDelay(() -> durationNanos, false);
+  }
+
+  /**
+   * Creates a uniformly distributed delay, during which the thread is parked.
+   *
+   * @param min The minimum duration.
+   * @param max The maximum duration, inclusive.
+   * @param timeUnit The time unit of the durations.
+   * @return A delay.
+   */
+  public static ConTesterDelay uniform(long min, long max, TimeUnit timeUnit) {
+    final long minNanos = nonNegative(timeUnit.toNanos(min));
+    final long maxNanos = timeUnit.toNanos(max);
+    if (maxNanos < minNanos) {
+      throw new IllegalArgumentException("The maximum delay is less than the minimum");
+    }
+    return new ConTesterDelay(
+        () -> minNanos + ThreadLocalRandom.current().nextLong(maxNanos - minNanos + 1), false);
+  }
+
+  /**
+   * Creates an exponentially distributed delay, during which the thread is parked. This models the
+   * service time of, for example, a disk or a network round trip.
+   *
+   * @param mean The mean duration.
+   * @param timeUnit The time unit of the duration.
+   * @return A delay.
+   */
+  public static ConTesterDelay exponential(long mean, TimeUnit timeUnit) {
+    final double meanNanos = nonNegative(timeUnit.toNanos(mean));
+    return new ConTesterDelay(
+        () -> (long) (-meanNanos * Math.log(1 - ThreadLocalRandom.current().nextDouble())), false);
+  }
+
+  /**
+   * Creates a fixed delay, during which the thread busy-spins, which models CPU bound work and is
+   * more precise than parking for short delays.
+   *
+   * @param duration The duration.
+   * @param timeUnit The time unit of the duration.
+   * @return A delay.
+   */
+  public static ConTesterDelay spin(long duration, TimeUnit timeUnit) {
+    final long durationNanos = nonNegative(timeUnit.toNanos(duration));
+    return new ConTesterDelay(() -> durationNanos, true);
+  }
+
+  /**
+   * Creates a random micro-pause, which is either no delay at all or a busy-spin of a uniformly
+   * distributed duration, with equal probability. This perturbs the interleaving of threads that
+   * run in lockstep, as in {@link ConTesterStress}.
+   *
+   * @param max The maximum duration, inclusive.
+   * @param timeUnit The time unit of the duration.
+   * @return A delay.
+   */
+  public static ConTesterDelay jitter(long max, TimeUnit timeUnit) {
+    final long maxNanos = nonNegative(timeUnit.toNanos(max));
+    return new ConTesterDelay(
+        () -> {
+          final ThreadLocalRandom random = ThreadLocalRandom.current();
+          return random.nextBoolean() ? 0 : random.nextLong(maxNanos + 1);
+        },
+        true);
+  }
+
+  /**
+   * Gets the number of times the delay has been imposed.
+   *
+   * @return A count.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Gets the total delay that has actually been imposed.
+   *
+   * @return A duration in nanoseconds.
+   */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Gets the longest delay that has actually been imposed.
+   *
+   * @return A duration in nanoseconds.
+   */
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /** Delays the current thread. If it's interrupted, the delay ends early. */
+  void impose() {
+    final long start = System.nanoTime();
+    final long target = nanos.getAsLong();
+    long remaining = target;
+    while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+      if (!spin) {
+        LockSupport.parkNanos(this, remaining);
+      }
+      remaining = target - (System.nanoTime() - start);
+    }
+    final long imposed = System.nanoTime() - start;
+    count.increment();
+    totalNanos.add(imposed);
+    maxNanos.accumulateAndGet(imposed, Math::max);
+  }
+
+  private static long nonNegative(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("A delay cannot be negative");
+    }
+    return nanos;
+  }
+}
@@ -15,24 +15,14 @@
  */
 package io.github.davidburstrom.contester;
 
-import static java.util.Objects.requireNonNull;
-
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Objects;
+import java.time.Clock;
 import java.util.Optional;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BooleanSupplier;
-import java.util.stream.Collectors;
 
 /**
  * The ConTester driver utility.
@@ -60,19 +50,39 @@ import java.util.stream.Collectors;
  *   <li>If necessary, verify that the {@link Thread}s did or didn't throw any uncaught exception by
  *       using {@link #join} and {@link #getUncaughtThrowable}.
  * </ol>
+ *
+ * <h2>Sessions</h2>
+ *
+ * The static methods operate on a default {@link ConTesterSession} that belongs to the calling
+ * thread, i.e. the driver thread, which makes it possible to run tests in parallel. To drive a
+ * scenario from several threads, e.g. from a {@link java.util.concurrent.ForkJoinPool} or from
+ * virtual threads, use an explicit {@link ConTesterSession} instead.
  */
 public final class ConTesterDriver {
 
   /** Standard timeout, in milliseconds, for blocking APIs. */
   public static final long STANDARD_TIMEOUT_MS = 10_000;
 
-  private static final Map<Thread, DriverData> DRIVER_REGISTRY =
-      Collections.synchronizedMap(new WeakHashMap<>());
-  private static final ReentrantLock DRIVER_REGISTRY_LOCK = new ReentrantLock();
+  /** The default session of each driver thread, which requires no locking to look up. */
+  private static final ThreadLocal<ConTesterSession> DEFAULT_SESSION = new ThreadLocal<>();
 
   /** Prohibit instantiation */
   private ConTesterDriver() {}
 
+  /**
+   * Gets the default session of the current thread, which is used by all the static methods.
+   *
+   * @return The session, which is created if necessary.
+   */
+  public static ConTesterSession defaultSession() {
+    ConTesterSession session = DEFAULT_SESSION.get();
+    if (session == null) {
+      session = new ConTesterSession(Thread.currentThread().getName());
+      DEFAULT_SESSION.set(session);
+    }
+    return session;
+  }
+
   /**
    * Creates a convenient {@link Thread} that can be used to exercise a {@link Runnable}.
    *
@@ -80,15 +90,23 @@ public final class ConTesterDriver {
    * @return A {@link Thread} that has been registered in the driver, but not started.
    */
   public static Thread thread(final Runnable runnable) {
-    final DriverData driverData = getOrCreateDriverData();
-    final Thread thread =
-        new Thread(
-            runnable,
-            Thread.currentThread().getName()
-                + " / ConTester Thread "
-                + driverData.getNextThreadId());
-    register(thread);
-    return thread;
+    return defaultSession().thread(runnable);
+  }
+
+  /**
+   * Creates a {@link Thread} like {@link #thread}, but reuses an idle worker thread from a pool,
+   * which avoids the cost of creating a thread for every scenario.
+   *
+   * <p>The worker appears to be a new thread until it's started, and a terminated thread once the
+   * {@link Runnable} is done, but the underlying thread keeps running. Use the methods of the
+   * driver, rather than {@link Thread#join} or {@link Thread#getState}, to wait for it. It's
+   * returned to the pool by {@link #cleanUp}, as soon as the {@link Runnable} is done.
+   *
+   * @param runnable The {@link Runnable} to execute.
+   * @return A {@link Thread} that has been registered in the driver, but not started.
+   */
+  public static Thread pooledThread(final Runnable runnable) {
+    return defaultSession().pooledThread(runnable);
   }
 
   /**
@@ -103,7 +121,7 @@ public final class ConTesterDriver {
    * @param id A breakpoint ID.
    */
   public static void runToBreakpoint(Thread thread, String id) {
-    runToBreakpoint(thread, id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    defaultSession().runToBreakpoint(thread, id);
   }
 
   /**
@@ -119,20 +137,252 @@ public final class ConTesterDriver {
    * @param timeUnit The time unit of the given timeout.
    */
   public static void runToBreakpoint(Thread thread, String id, long timeout, TimeUnit timeUnit) {
-    Set<String> enabledBreakpoints = getEnabledBreakpoints(thread);
-    enabledBreakpoints.forEach(enabledId -> disableBreakpoint(thread, enabledId));
+    defaultSession().runToBreakpoint(thread, id, timeout, timeUnit);
+  }
+
+  /**
+   * Runs the given thread until it suspends on the given breakpoint ID for the given number of
+   * times, i.e. it passes the breakpoint {@code hitCount - 1} times first.
+   *
+   * <p>The hits are counted by the thread itself, without any round trips to the driver thread.
+   * Any other breakpoints enabled for the thread are ignored while this method executes.
+   *
+   * <p>If the timeout as specified by {@link #STANDARD_TIMEOUT_MS} occurs before the breakpoint is
+   * hit, an exception will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param hitCount The hit to suspend on, starting from 1.
+   */
+  public static void runToBreakpoint(Thread thread, String id, int hitCount) {
+    defaultSession().runToBreakpoint(thread, id, hitCount);
+  }
+
+  /**
+   * Runs the given thread until it suspends on the given breakpoint ID for the given number of
+   * times, i.e. it passes the breakpoint {@code hitCount - 1} times first.
+   *
+   * <p>The hits are counted by the thread itself, without any round trips to the driver thread.
+   * Any other breakpoints enabled for the thread are ignored while this method executes.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an exception will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param hitCount The hit to suspend on, starting from 1.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void runToBreakpoint(
+      Thread thread, String id, int hitCount, long timeout, TimeUnit timeUnit) {
+    defaultSession().runToBreakpoint(thread, id, hitCount, timeout, timeUnit);
+  }
 
-    enableBreakpoint(thread, id);
+  /**
+   * Runs any thread registered in the driver until it suspends on the given breakpoint ID, which is
+   * useful when a task is submitted to a pool and it's not known in advance which worker will pick
+   * it up.
+   *
+   * <p>The first thread to hit the breakpoint after this method is called is suspended, as if the
+   * breakpoint had been enabled for it. Suspended threads are not resumed. To submit the task
+   * afterwards, use {@link #runAnyToBreakpointAsync}.
+   *
+   * <p>If the timeout as specified by {@link #STANDARD_TIMEOUT_MS} occurs before the breakpoint is
+   * hit, an exception will be thrown.
+   *
+   * @param id A breakpoint ID.
+   * @return The thread that suspended on the breakpoint.
+   */
+  public static Thread runAnyToBreakpoint(String id) {
+    return defaultSession().runAnyToBreakpoint(id);
+  }
+
+  /**
+   * Runs any thread registered in the driver until it suspends on the given breakpoint ID, which is
+   * useful when a task is submitted to a pool and it's not known in advance which worker will pick
+   * it up.
+   *
+   * <p>The first thread to hit the breakpoint after this method is called is suspended, as if the
+   * breakpoint had been enabled for it. Suspended threads are not resumed. To submit the task
+   * afterwards, use {@link #runAnyToBreakpointAsync}.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an exception will be thrown.
+   *
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return The thread that suspended on the breakpoint.
+   */
+  public static Thread runAnyToBreakpoint(String id, long timeout, TimeUnit timeUnit) {
+    return defaultSession().runAnyToBreakpoint(id, timeout, timeUnit);
+  }
+
+  /**
+   * Asynchronously runs any thread registered in the driver until it suspends on the given
+   * breakpoint ID.
+   *
+   * <p>Unlike {@link #runAnyToBreakpoint}, it returns as soon as the breakpoint is armed, so that a
+   * task can be submitted to a running pool without racing past the breakpoint.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs first.
+   *
+   * @param id A breakpoint ID.
+   * @return A future that completes with the thread that suspended on the breakpoint.
+   */
+  public static CompletableFuture<Thread> runAnyToBreakpointAsync(String id) {
+    return defaultSession().runAnyToBreakpointAsync(id);
+  }
+
+  /**
+   * Asynchronously runs any thread registered in the driver until it suspends on the given
+   * breakpoint ID.
+   *
+   * <p>Unlike {@link #runAnyToBreakpoint}, it returns as soon as the breakpoint is armed, so that a
+   * task can be submitted to a running pool without racing past the breakpoint.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout occurs first.
+   *
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes with the thread that suspended on the breakpoint.
+   */
+  public static CompletableFuture<Thread> runAnyToBreakpointAsync(
+      String id, long timeout, TimeUnit timeUnit) {
+    return defaultSession().runAnyToBreakpointAsync(id, timeout, timeUnit);
+  }
+
+  /**
+   * Creates a {@link ThreadFactory} that registers the threads it creates in the driver, so that
+   * the workers of an {@link java.util.concurrent.ExecutorService} can be controlled.
+   *
+   * @return A thread factory.
+   */
+  public static ThreadFactory threadFactory() {
+    return defaultSession().threadFactory();
+  }
+
+  /**
+   * Creates a {@link ForkJoinPool.ForkJoinWorkerThreadFactory} that registers the workers it
+   * creates in the driver, so that the tasks of a {@link ForkJoinPool} can be controlled.
+   *
+   * @return A fork join worker thread factory.
+   */
+  public static ForkJoinPool.ForkJoinWorkerThreadFactory forkJoinWorkerThreadFactory() {
+    return defaultSession().forkJoinWorkerThreadFactory();
+  }
+
+  /**
+   * Waits until an asynchronous breakpoint is held, i.e. until a thread or task for which it's
+   * enabled has visited it.
+   *
+   * <p>If the timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs before the breakpoint
+   * is hit, an {@link AssertionError} will be thrown.
+   *
+   * @param id A breakpoint ID.
+   */
+  public static void waitForAsyncBreakpoint(String id) {
+    defaultSession().waitForAsyncBreakpoint(id);
+  }
+
+  /**
+   * Waits until an asynchronous breakpoint is held, i.e. until a thread or task for which it's
+   * enabled has visited it.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an {@link AssertionError} will be
+   * thrown.
+   *
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void waitForAsyncBreakpoint(String id, long timeout, TimeUnit timeUnit) {
+    defaultSession().waitForAsyncBreakpoint(id, timeout, timeUnit);
+  }
+
+  /**
+   * Completes the oldest stage held at an asynchronous breakpoint.
+   *
+   * <p>Dependent actions that are not asynchronous run on the calling thread. It is considered an
+   * error to release a breakpoint that holds no stage.
+   *
+   * @param id A breakpoint ID.
+   */
+  public static void releaseAsyncBreakpoint(String id) {
+    defaultSession().releaseAsyncBreakpoint(id);
+  }
+
+  /**
+   * Creates a task, for breakpoints that follow a logical task across the threads that execute it.
+   *
+   * @param name The name of the task, such as "request 42".
+   * @return A task that belongs to the driver until {@link #cleanUp} is called.
+   */
+  public static ConTesterTask task(String name) {
+    return defaultSession().task(name);
+  }
 
-    resumeIfNecessary(thread);
+  /**
+   * Enables a breakpoint so that the given task will suspend if it's hit, on whichever thread
+   * executes it.
+   *
+   * @param task A task of the driver.
+   * @param id A breakpoint ID.
+   */
+  public static void enableBreakpoint(ConTesterTask task, String id) {
+    defaultSession().enableBreakpoint(task, id);
+  }
 
-    startIfNecessary(thread);
+  /**
+   * Disables a breakpoint so that the given task will not suspend if it's hit.
+   *
+   * @param task A task of the driver.
+   * @param id A breakpoint ID.
+   */
+  public static void disableBreakpoint(ConTesterTask task, String id) {
+    defaultSession().disableBreakpoint(task, id);
+  }
 
-    waitForBreakpoint(thread, id, timeout, timeUnit);
+  /**
+   * Waits until the task hits the given breakpoint, on any thread.
+   *
+   * <p>If the timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs before the breakpoint
+   * is hit, an {@link AssertionError} will be thrown.
+   *
+   * @param task A task of the driver.
+   * @param id A breakpoint ID.
+   */
+  public static void waitForBreakpoint(ConTesterTask task, String id) {
+    defaultSession().waitForBreakpoint(task, id);
+  }
 
-    disableBreakpoint(thread, id);
+  /**
+   * Waits until the task hits the given breakpoint, on any thread.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an {@link AssertionError} will be
+   * thrown.
+   *
+   * @param task A task of the driver.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void waitForBreakpoint(
+      ConTesterTask task, String id, long timeout, TimeUnit timeUnit) {
+    defaultSession().waitForBreakpoint(task, id, timeout, timeUnit);
+  }
 
-    enabledBreakpoints.forEach(enabledId -> enableBreakpoint(thread, enabledId));
+  /**
+   * Resume execution of a task after being suspended at a breakpoint.
+   *
+   * <p>It is considered an error to resume a task if it is not suspended.
+   *
+   * @param task A task of the driver.
+   */
+  public static void resume(ConTesterTask task) {
+    defaultSession().resume(task);
   }
 
   /**
@@ -146,11 +396,102 @@ public final class ConTesterDriver {
   // TODO: Really should be `runUntilBlocked` right? Though, it will fail if synchronization is not
   // introduced first.
   public static void runUntilBlockedOrTerminated(Thread thread) {
-    startIfNecessary(thread);
+    defaultSession().runUntilBlockedOrTerminated(thread);
+  }
 
-    resumeIfNecessary(thread);
+  /**
+   * Runs a thread until it is blocked on the given monitor or lock.
+   *
+   * <p>Unlike {@link #runUntilBlockedOrTerminated}, this verifies exactly which monitor or lock
+   * the thread is blocked on, so it is not satisfied by the thread waiting for anything else.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   */
+  public static void runUntilBlockedOn(Thread thread, Object monitorOrLock) {
+    defaultSession().runUntilBlockedOn(thread, monitorOrLock);
+  }
 
-    waitForBlockedOrTerminated(thread);
+  /**
+   * Runs a thread until it is blocked on the given monitor or lock.
+   *
+   * <p>Unlike {@link #runUntilBlockedOrTerminated}, this verifies exactly which monitor or lock
+   * the thread is blocked on, so it is not satisfied by the thread waiting for anything else.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void runUntilBlockedOn(
+      Thread thread, Object monitorOrLock, long timeout, TimeUnit timeUnit) {
+    defaultSession().runUntilBlockedOn(thread, monitorOrLock, timeout, timeUnit);
+  }
+
+  /**
+   * Runs a thread until it is waiting on the given monitor or condition.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   */
+  public static void runUntilWaitingOn(Thread thread, Object monitorOrCondition) {
+    defaultSession().runUntilWaitingOn(thread, monitorOrCondition);
+  }
+
+  /**
+   * Runs a thread until it is waiting on the given monitor or condition.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void runUntilWaitingOn(
+      Thread thread, Object monitorOrCondition, long timeout, TimeUnit timeUnit) {
+    defaultSession().runUntilWaitingOn(thread, monitorOrCondition, timeout, timeUnit);
+  }
+
+  /**
+   * Asynchronously runs the given thread until it suspends on the given breakpoint ID.
+   *
+   * <p>Any other breakpoints enabled for the thread are ignored until the breakpoint is hit.
+   *
+   * <p>The returned future is completed directly by the thread as it suspends, or exceptionally
+   * with an {@link AssertionError} if the thread terminates or the timeout as specified by {@link
+   * #STANDARD_TIMEOUT_MS} occurs first. Note that dependent actions that are not async may execute
+   * in the suspending thread, and that driver methods must still be called from the driver thread.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @return A future that completes when the thread has suspended.
+   */
+  public static CompletableFuture<Void> runToBreakpointAsync(Thread thread, String id) {
+    return defaultSession().runToBreakpointAsync(thread, id);
+  }
+
+  /**
+   * Asynchronously runs the given thread until it suspends on the given breakpoint ID.
+   *
+   * <p>Any other breakpoints enabled for the thread are ignored until the breakpoint is hit.
+   *
+   * <p>The returned future is completed directly by the thread as it suspends, or exceptionally
+   * with an {@link AssertionError} if the thread terminates or the timeout occurs first. Note that
+   * dependent actions that are not async may execute in the suspending thread, and that driver
+   * methods must still be called from the driver thread.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes when the thread has suspended.
+   */
+  public static CompletableFuture<Void> runToBreakpointAsync(
+      Thread thread, String id, long timeout, TimeUnit timeUnit) {
+    return defaultSession().runToBreakpointAsync(thread, id, timeout, timeUnit);
   }
 
   /**
@@ -163,36 +504,11 @@ public final class ConTesterDriver {
    * @param thread A previously unregistered thread, different from the driver thread.
    */
   public static void register(final Thread thread) {
-    if (isRegistered(thread)) {
-      throw new IllegalArgumentException("Thread " + thread + " has already been registered");
-    }
-
-    if (thread.equals(Thread.currentThread())) {
-      throw new IllegalArgumentException("A thread cannot self-register");
-    }
-
-    DriverData driverData = getOrCreateDriverData();
-
-    final ThreadData threadData = new ThreadData();
-
-    driverData.getThreadRegistry().put(thread, threadData);
-
-    final Thread.UncaughtExceptionHandler installedExceptionHandler =
-        thread.getUncaughtExceptionHandler();
-
-    thread.setUncaughtExceptionHandler(
-        (t, e) -> {
-          threadData.setUncaughtThrowable(e);
-          // Only call through if there was a custom exception handler installed
-          if (!installedExceptionHandler.equals(t.getThreadGroup())) {
-            installedExceptionHandler.uncaughtException(t, e);
-          }
-        });
+    defaultSession().register(thread);
   }
 
   public static void start(final Thread thread) {
-    registerIfNecessary(thread);
-    thread.start();
+    defaultSession().start(thread);
   }
 
   /**
@@ -202,15 +518,71 @@ public final class ConTesterDriver {
    * @param id A breakpoint ID.
    */
   public static void enableBreakpoint(Thread thread, String id) {
-    checkRegistered(thread);
+    defaultSession().enableBreakpoint(thread, id);
+  }
 
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-    Set<Thread> threads =
-        driverData.getEnabledBreakpoints().computeIfAbsent(id, k -> new HashSet<>(4));
+  /**
+   * Enables a breakpoint so that the given thread will suspend on every Nth hit. The hits are
+   * counted by the thread itself, without any round trips to the driver thread.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   * @param every The number of hits per suspension, where 1 suspends on every hit.
+   */
+  public static void enableBreakpoint(Thread thread, String id, int every) {
+    defaultSession().enableBreakpoint(thread, id, every);
+  }
 
-    if (!threads.add(thread)) {
-      throw new IllegalArgumentException("Breakpoint '" + id + "' is already enabled");
-    }
+  /**
+   * Injects a delay that the given thread imposes on itself each time it visits a breakpoint,
+   * whether the breakpoint is enabled or not. It replaces any previous delay of the breakpoint.
+   *
+   * <p>The thread times the delay itself, without any round trips to the driver thread. The delays
+   * that were actually imposed can be read from the given {@link ConTesterDelay}. Unlike the
+   * breakpoints, delays are kept while the thread is joined.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   * @param delay A delay, which can be shared between threads and breakpoints.
+   */
+  public static void injectDelay(Thread thread, String id, ConTesterDelay delay) {
+    defaultSession().injectDelay(thread, id, delay);
+  }
+
+  /**
+   * Removes a delay injected with {@link #injectDelay}.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   */
+  public static void removeDelay(Thread thread, String id) {
+    defaultSession().removeDelay(thread, id);
+  }
+
+  /**
+   * Enables all breakpoints matching a pattern, so that the given thread will suspend if any of
+   * them is hit.
+   *
+   * <p>Each breakpoint ID is matched against the patterns the first time the thread visits it, and
+   * the result is remembered until the patterns of the thread change, so visits don't pay for any
+   * pattern matching.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param pattern {@code "*"} for all breakpoints, or a prefix followed by {@code ".*"}, such as
+   *     {@code "cache.*"} for {@code "cache.load"} and {@code "cache.evict.lru"}.
+   */
+  public static void enableBreakpoints(Thread thread, String pattern) {
+    defaultSession().enableBreakpoints(thread, pattern);
+  }
+
+  /**
+   * Disables breakpoints that were enabled by a pattern with {@link #enableBreakpoints}.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param pattern A pattern that is enabled for the thread.
+   */
+  public static void disableBreakpoints(Thread thread, String pattern) {
+    defaultSession().disableBreakpoints(thread, pattern);
   }
 
   /**
@@ -220,37 +592,29 @@ public final class ConTesterDriver {
    * @param id A breakpoint ID.
    */
   public static void disableBreakpoint(Thread thread, String id) {
-    checkRegistered(thread);
-
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-    final Set<Thread> threads = driverData.getEnabledBreakpoints().get(id);
-    if (threads != null) {
-      if (!threads.remove(thread)) {
-        throw new IllegalArgumentException("Breakpoint '" + id + "' is already disabled");
-      }
-    } else {
-      throw new IllegalArgumentException("Breakpoint '" + id + "' is already disabled");
-    }
+    defaultSession().disableBreakpoint(thread, id);
   }
 
   /**
    * Waits until the thread hits the given breakpoint.
    *
    * <p>If the timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs before the breakpoint
-   * is hit, an {@link AssertionError} will be thrown.
+   * is hit, an {@link AssertionError} will be thrown. The same goes as soon as the thread is found
+   * to be deadlocked, or blocked by a lock held by a suspended thread or the driver thread.
    *
    * @param thread A previously (implicitly or explicitly) registered thread.
    * @param id A breakpoint ID.
    */
   public static void waitForBreakpoint(Thread thread, String id) {
-    waitForBreakpoint(thread, id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    defaultSession().waitForBreakpoint(thread, id);
   }
 
   /**
    * Waits until the thread hits the given breakpoint.
    *
    * <p>If the timeout occurs before the breakpoint is hit, or the thread throws an uncaught
-   * exception, an {@link AssertionError} will be thrown.
+   * exception, an {@link AssertionError} will be thrown. The same goes as soon as the thread is
+   * found to be deadlocked, or blocked by a lock held by a suspended thread or the driver thread.
    *
    * @param thread A thread, registered or unregistered, different from the driver thread.
    * @param id A breakpoint ID.
@@ -258,56 +622,7 @@ public final class ConTesterDriver {
    * @param timeUnit The time unit of the given timeout.
    */
   public static void waitForBreakpoint(Thread thread, String id, long timeout, TimeUnit timeUnit) {
-
-    if (thread.getState() == Thread.State.NEW) {
-      throw new IllegalArgumentException("Cannot wait for unstarted thread");
-    }
-
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-
-    final Set<Thread> threadSet = driverData.getEnabledBreakpoints().get(id);
-    if (threadSet == null || !threadSet.contains(thread)) {
-      throw new IllegalArgumentException(
-          "Breakpoint '" + id + "' is not enabled for " + thread.getName());
-    }
-
-    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
-    final ThreadData threadData = driverData.getThreadRegistry().get(thread);
-    threadData.lock.lock();
-    try {
-      Condition condition = threadData.lock.newCondition();
-      while (threadData.getSuspended() == null && System.nanoTime() < endTime) {
-
-        try {
-          //noinspection ResultOfMethodCallIgnored
-          condition.awaitNanos(1);
-        } catch (InterruptedException e) {
-          throw new RuntimeException(e);
-        }
-
-        if (thread.getState() == Thread.State.TERMINATED) {
-          final Optional<Throwable> uncaughtThrowable = getUncaughtThrowable(thread);
-          if (uncaughtThrowable.isPresent()) {
-            throw new AssertionError(
-                thread + " threw an uncaught exception", uncaughtThrowable.get());
-          } else {
-            throw new AssertionError(thread + " has terminated");
-          }
-        }
-      }
-      if (threadData.getSuspended() == null) {
-        throw new AssertionError(
-            "Breakpoint wasn't hit within "
-                + timeout
-                + " "
-                + timeUnit.toString().toLowerCase(Locale.ROOT));
-      } else if (!threadData.getSuspended().equals(id)) {
-        throw new AssertionError(
-            "Thread suspended on unexpected breakpoint '" + threadData.getSuspended());
-      }
-    } finally {
-      threadData.lock.unlock();
-    }
+    defaultSession().waitForBreakpoint(thread, id, timeout, timeUnit);
   }
 
   /**
@@ -322,7 +637,7 @@ public final class ConTesterDriver {
    * @param thread A thread, registered or unregistered, different from the driver thread.
    */
   public static void waitForBlockedOrTerminated(Thread thread) {
-    waitForBlockedOrTerminated(thread, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    defaultSession().waitForBlockedOrTerminated(thread);
   }
 
   /**
@@ -339,53 +654,185 @@ public final class ConTesterDriver {
    * @param timeUnit The time unit of the given timeout.
    */
   public static void waitForBlockedOrTerminated(Thread thread, long timeout, TimeUnit timeUnit) {
-    if (thread.getState() == Thread.State.NEW) {
-      throw new IllegalArgumentException("Cannot wait for unstarted thread");
-    }
+    defaultSession().waitForBlockedOrTerminated(thread, timeout, timeUnit);
+  }
 
-    Thread.State state;
+  /**
+   * Waits until every started thread registered in the default session is suspended at a
+   * breakpoint, blocked, waiting or terminated, i.e. until no thread makes progress on its own.
+   *
+   * <p>If the timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs first, or a thread has
+   * thrown an uncaught exception, an {@link AssertionError} will be thrown.
+   */
+  public static void waitForQuiescence() {
+    defaultSession().waitForQuiescence();
+  }
 
-    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
-    do {
-      // TODO: Handle the case where the thread hits a breakpoint. Should they be disabled while
-      // waiting?
-      if (isSuspended(thread)) {
-        throw new IllegalArgumentException("Cannot wait while " + thread + " is suspended");
-      }
+  /**
+   * Waits until every started thread registered in the default session is suspended at a
+   * breakpoint, blocked, waiting or terminated, i.e. until no thread makes progress on its own.
+   *
+   * <p>If the timeout occurs first, or a thread has thrown an uncaught exception, an {@link
+   * AssertionError} will be thrown.
+   *
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void waitForQuiescence(long timeout, TimeUnit timeUnit) {
+    defaultSession().waitForQuiescence(timeout, timeUnit);
+  }
 
-      try {
-        Thread.sleep(1);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-      state = thread.getState();
-      if (System.nanoTime() >= endTime) {
-        break;
-      }
-    } while (state != Thread.State.BLOCKED
-        && state != Thread.State.TERMINATED
-        && state != Thread.State.WAITING);
-
-    if (state != Thread.State.BLOCKED
-        && state != Thread.State.TERMINATED
-        && state != Thread.State.WAITING) {
-      throw new AssertionError(
-          String.format(
-              Locale.US,
-              "Thread state (%s) is not %s nor %s nor %s after %d ms",
-              state,
-              Thread.State.BLOCKED,
-              Thread.State.TERMINATED,
-              Thread.State.WAITING,
-              timeUnit.toMillis(timeout)));
-    }
+  /**
+   * Makes the threads registered in the default session, and the driver thread, read a virtual
+   * clock through {@link ConTesterTime}, which only advances through {@link #advanceTime} and
+   * {@link #advanceTimeToNextDeadline}.
+   */
+  public static void enableVirtualClock() {
+    defaultSession().enableVirtualClock();
+  }
 
-    if (thread.getState() == Thread.State.TERMINATED) {
-      final Optional<Throwable> uncaughtThrowable = getUncaughtThrowable(thread);
-      if (uncaughtThrowable.isPresent()) {
-        throw new AssertionError(thread + " threw an uncaught exception", uncaughtThrowable.get());
-      }
-    }
+  /**
+   * Advances the virtual clock by the given duration, one deadline at a time, letting the woken
+   * threads become quiescent before each deadline is reached.
+   *
+   * <p>If the threads don't become quiescent within the timeout (as specified by {@link
+   * #STANDARD_TIMEOUT_MS}), an {@link AssertionError} will be thrown.
+   *
+   * @param duration A non-negative duration.
+   * @param timeUnit The time unit of the given duration.
+   */
+  public static void advanceTime(long duration, TimeUnit timeUnit) {
+    defaultSession().advanceTime(duration, timeUnit);
+  }
+
+  /**
+   * Waits until the threads registered in the default session are quiescent, and then advances the
+   * virtual clock to the earliest deadline of the sleeping threads, waking them.
+   *
+   * <p>If the threads don't become quiescent within the timeout (as specified by {@link
+   * #STANDARD_TIMEOUT_MS}), an {@link AssertionError} will be thrown.
+   *
+   * @return Whether any thread was sleeping.
+   */
+  public static boolean advanceTimeToNextDeadline() {
+    return defaultSession().advanceTimeToNextDeadline();
+  }
+
+  /**
+   * Profiles how long, and how many times, the threads registered in the default session are
+   * blocked or waiting between consecutive breakpoints, and on which locks, to be reported by
+   * {@link #getContentionProfile}. The thread contention monitoring of the JVM is enabled until
+   * {@link #cleanUp}, unless it's already enabled.
+   *
+   * @throws UnsupportedOperationException If the JVM doesn't support thread contention monitoring.
+   */
+  public static void enableContentionProfiling() {
+    defaultSession().enableContentionProfiling();
+  }
+
+  /**
+   * Gets the contention profile of the threads registered in the default session, typically after
+   * they have been joined.
+   *
+   * @return A snapshot of the profile.
+   */
+  public static ConTesterContentionProfile getContentionProfile() {
+    return defaultSession().getContentionProfile();
+  }
+
+  /**
+   * Waits until the thread is blocked on the given monitor or lock.
+   *
+   * <p>If the timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs before the thread is
+   * blocked on the monitor or lock, the thread terminates, or it can never make progress, an {@link
+   * AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   */
+  public static void waitForBlockedOn(Thread thread, Object monitorOrLock) {
+    defaultSession().waitForBlockedOn(thread, monitorOrLock);
+  }
+
+  /**
+   * Waits until the thread is blocked on the given monitor or lock.
+   *
+   * <p>If the timeout occurs before the thread is blocked on the monitor or lock, the thread
+   * terminates, or it can never make progress, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void waitForBlockedOn(
+      Thread thread, Object monitorOrLock, long timeout, TimeUnit timeUnit) {
+    defaultSession().waitForBlockedOn(thread, monitorOrLock, timeout, timeUnit);
+  }
+
+  /**
+   * Waits until the thread is waiting on the given monitor or condition.
+   *
+   * <p>If the timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs before the thread is
+   * waiting on the monitor or condition, the thread terminates, or it can never make progress, an
+   * {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   */
+  public static void waitForWaitingOn(Thread thread, Object monitorOrCondition) {
+    defaultSession().waitForWaitingOn(thread, monitorOrCondition);
+  }
+
+  /**
+   * Waits until the thread is waiting on the given monitor or condition.
+   *
+   * <p>If the timeout occurs before the thread is waiting on the monitor or condition, the thread
+   * terminates, or it can never make progress, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public static void waitForWaitingOn(
+      Thread thread, Object monitorOrCondition, long timeout, TimeUnit timeUnit) {
+    defaultSession().waitForWaitingOn(thread, monitorOrCondition, timeout, timeUnit);
+  }
+
+  /**
+   * Asynchronously waits until the thread is blocked or terminated.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs first, or if the thread throws
+   * an uncaught exception, and with an {@link IllegalArgumentException} if the thread suspends.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @return A future that completes when the thread is blocked or terminated.
+   */
+  public static CompletableFuture<Void> waitForBlockedOrTerminatedAsync(Thread thread) {
+    return defaultSession().waitForBlockedOrTerminatedAsync(thread);
+  }
+
+  /**
+   * Asynchronously waits until the thread is blocked or terminated.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout occurs first, or if the thread throws an uncaught exception, and with an {@link
+   * IllegalArgumentException} if the thread suspends.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes when the thread is blocked or terminated.
+   */
+  public static CompletableFuture<Void> waitForBlockedOrTerminatedAsync(
+      Thread thread, long timeout, TimeUnit timeUnit) {
+    return defaultSession().waitForBlockedOrTerminatedAsync(thread, timeout, timeUnit);
   }
 
   /**
@@ -396,19 +843,7 @@ public final class ConTesterDriver {
    * @param thread A thread, registered or unregistered, different from the driver thread.
    */
   public static void resume(Thread thread) {
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-    final ThreadData threadData = driverData.getThreadRegistry().get(thread);
-    threadData.lock.lock();
-    try {
-      if (threadData.getSuspended() != null) {
-        threadData.setSuspended(null);
-        threadData.semaphore.release();
-      } else {
-        throw new AssertionError("Thread is not suspended");
-      }
-    } finally {
-      threadData.lock.unlock();
-    }
+    defaultSession().resume(thread);
   }
 
   /**
@@ -417,10 +852,13 @@ public final class ConTesterDriver {
    * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
    * automatically resumed.
    *
+   * <p>If the thread is found to be deadlocked, or blocked by a lock held by a suspended thread or
+   * the driver thread, an {@link AssertionError} will be thrown without waiting for the timeout.
+   *
    * @param thread A thread, registered or unregistered, different from the driver thread.
    */
   public static void join(final Thread thread) {
-    join(thread, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    defaultSession().join(thread);
   }
 
   /**
@@ -429,66 +867,51 @@ public final class ConTesterDriver {
    * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
    * automatically resumed.
    *
+   * <p>If the thread is found to be deadlocked, or blocked by a lock held by a suspended thread or
+   * the driver thread, an {@link AssertionError} will be thrown without waiting for the timeout.
+   *
    * @param thread A thread, registered or unregistered, different from the driver thread.
    * @param timeout A duration.
    * @param timeUnit The time unit of the given timeout.
    */
   public static void join(final Thread thread, long timeout, TimeUnit timeUnit) {
-    checkRegistered(thread);
-
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-    final Map<String, Set<Thread>> enabledBreakpoints = driverData.getEnabledBreakpoints();
-    driverData.lock.lock();
-    try {
-      enabledBreakpoints.forEach((id, threads) -> threads.remove(thread));
-    } finally {
-      driverData.lock.unlock();
-    }
-
-    if (isSuspended(thread)) {
-      resume(thread);
-    }
-
-    try {
-      thread.join(timeUnit.toMillis(timeout));
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
-    }
-    if (thread.isAlive()) {
-      throw new AssertionError(thread.getName() + " is still alive");
-    }
-
-    final Optional<Throwable> uncaughtThrowable = getUncaughtThrowable(thread);
-    if (uncaughtThrowable.isPresent()) {
-      throw new AssertionError(thread + " threw an uncaught exception", uncaughtThrowable.get());
-    }
+    defaultSession().join(thread, timeout, timeUnit);
   }
 
   /**
-   * Use this to clean up known resources.
+   * Asynchronously waits for a thread to finish executing.
+   *
+   * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
+   * automatically resumed.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout (as specified by {@link #STANDARD_TIMEOUT_MS}) occurs first, or if the thread throws
+   * an uncaught exception.
    *
-   * <p>This method should be called from the driver thread.
+   * @param thread A registered thread, different from the driver thread.
+   * @return A future that completes when the thread has terminated.
    */
-  public static void cleanUp() {
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-
-    if (driverData == null) {
-      // Maybe the thread wasn't used for concurrency testing in a given testcase
-      return;
-    }
-
-    driverData.getEnabledBreakpoints().clear();
-
-    // MAYBE: Log a warning that a thread was suspended while tearing down
-    driverData.getThreadRegistry().entrySet().stream()
-        .filter(e -> e.getValue().getSuspended() != null)
-        .map(Map.Entry::getKey)
-        .collect(Collectors.toSet())
-        .forEach(ConTesterDriver::resume);
-
-    driverData.getThreadRegistry().clear();
+  public static CompletableFuture<Void> joinAsync(final Thread thread) {
+    return defaultSession().joinAsync(thread);
+  }
 
-    DRIVER_REGISTRY.remove(Thread.currentThread());
+  /**
+   * Asynchronously waits for a thread to finish executing.
+   *
+   * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
+   * automatically resumed.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout occurs first, or if the thread throws an uncaught exception.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes when the thread has terminated.
+   */
+  public static CompletableFuture<Void> joinAsync(
+      final Thread thread, long timeout, TimeUnit timeUnit) {
+    return defaultSession().joinAsync(thread, timeout, timeUnit);
   }
 
   /**
@@ -498,13 +921,25 @@ public final class ConTesterDriver {
    * @return The uncaught throwable or null if none was thrown.
    */
   public static Optional<Throwable> getUncaughtThrowable(final Thread thread) {
-    checkRegistered(thread);
+    return defaultSession().getUncaughtThrowable(thread);
+  }
 
-    if (thread.isAlive()) {
-      throw new IllegalStateException(thread + " is alive, must be terminated");
+  /**
+   * Use this to clean up known resources.
+   *
+   * <p>This method should be called from the driver thread. It closes the default session of the
+   * thread.
+   */
+  public static void cleanUp() {
+    final ConTesterSession session = DEFAULT_SESSION.get();
+
+    if (session == null) {
+      // Maybe the thread wasn't used for concurrency testing in a given testcase
+      return;
     }
 
-    return requireNonNull(findThreadData(thread).orElse(null)).getUncaughtThrowable();
+    DEFAULT_SESSION.remove();
+    session.close();
   }
 
   /**
@@ -517,181 +952,75 @@ public final class ConTesterDriver {
   }
 
   /**
-   * Called from production code. It only suspends if the given condition evaluates to {@code true}.
+   * Called from production code.
+   *
+   * @return The virtual time of the calling thread, or else the real time.
    */
-  static void visitBreakpoint(String id, BooleanSupplier condition) {
-    final Optional<DriverData> driverData = findDriverData(Thread.currentThread());
-
-    if (!driverData.isPresent()) {
-      // The thread is unknown, maybe because it's not a tested one
-      return;
-    }
-
-    final Map<String, Set<Thread>> enabledBreakpoints = driverData.get().getEnabledBreakpoints();
-    final ThreadData threadData = driverData.get().getThreadRegistry().get(Thread.currentThread());
-    final boolean suspend;
-    driverData.get().lock.lock();
-    try {
-      final Set<Thread> set = enabledBreakpoints.get(id);
-      if (set != null && set.contains(Thread.currentThread()) && condition.getAsBoolean()) {
-        threadData.lock.lock();
-        try {
-          suspend = true;
-          threadData.setSuspended(id);
-          // This can only be mutation tested by injecting a custom wait time in waitForBreakpoint
-        } finally {
-          threadData.lock.unlock();
-        }
-      } else {
-        suspend = false;
-      }
-    } finally {
-      driverData.get().lock.unlock();
-    }
-    if (suspend) {
-      try {
-        threadData.semaphore.acquire();
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-  }
-
-  private static DriverData getOrCreateDriverData() {
-    DRIVER_REGISTRY_LOCK.lock();
-    try {
-      return DRIVER_REGISTRY.computeIfAbsent(Thread.currentThread(), t -> new DriverData());
-    } finally {
-      DRIVER_REGISTRY_LOCK.unlock();
-    }
-  }
-
-  /** Locates the ThreadData associated with the given Thread, if any exists. */
-  private static Optional<ThreadData> findThreadData(Thread thread) {
-    if (DRIVER_REGISTRY.isEmpty()) {
-      return Optional.empty();
-    }
-    DRIVER_REGISTRY_LOCK.lock();
-    try {
-      return DRIVER_REGISTRY.values().stream()
-          .map(driverData -> driverData.getThreadRegistry().get(thread))
-          .filter(Objects::nonNull)
-          .findFirst();
-    } finally {
-      DRIVER_REGISTRY_LOCK.unlock();
-    }
-  }
-
-  /** Locates the {@link DriverData} associated with the given Thread, if any exists. */
-  private static Optional<DriverData> findDriverData(Thread thread) {
-    if (DRIVER_REGISTRY.isEmpty()) {
-      return Optional.empty();
-    }
-    DRIVER_REGISTRY_LOCK.lock();
-    try {
-
-      return DRIVER_REGISTRY.entrySet().stream()
-          .filter(entry -> entry.getValue().getThreadRegistry().containsKey(thread))
-          .findFirst()
-          .map(Map.Entry::getValue);
-    } finally {
-      DRIVER_REGISTRY_LOCK.unlock();
-    }
-  }
-
-  private static boolean isRegistered(final Thread thread) {
-    return findThreadData(thread).isPresent();
+  static long nanoTime() {
+    return ConTesterSession.nanoTime();
   }
 
   /**
-   * Associates metadata with a given thread that tracks its interactions with breakpoints, and any
-   * uncaught throwable.
+   * Called from production code.
+   *
+   * @return A clock that reads the virtual time of the calling thread, or else the real time.
    */
-  private static void registerIfNecessary(final Thread thread) {
-    if (!isRegistered(thread)) {
-      register(thread);
-    }
+  static Clock clock() {
+    return VirtualClock.SYSTEM_CLOCK;
   }
 
-  private static void checkRegistered(final Thread thread) {
-    if (!isRegistered(thread)) {
-      throw new IllegalArgumentException("The thread " + thread + " is not registered");
-    }
-  }
-
-  private static void startIfNecessary(final Thread thread) {
-    if (thread.getState() == Thread.State.NEW) {
-      start(thread);
-    }
-  }
-
-  private static boolean isSuspended(Thread thread) {
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-    final ThreadData threadData = driverData.getThreadRegistry().get(thread);
-    threadData.lock.lock();
-    try {
-      return threadData.getSuspended() != null;
-    } finally {
-      threadData.lock.unlock();
-    }
-  }
-
-  private static void resumeIfNecessary(final Thread thread) {
-    if (isSuspended(thread)) {
-      resume(thread);
-    }
-  }
-
-  private static Set<String> getEnabledBreakpoints(final Thread thread) {
-    final DriverData driverData = DRIVER_REGISTRY.get(Thread.currentThread());
-    return driverData.getEnabledBreakpoints().entrySet().stream()
-        .filter(entry -> entry.getValue().contains(thread))
-        .map(Map.Entry::getKey)
-        .collect(Collectors.toSet());
+  /**
+   * Called from production code.
+   *
+   * @param id A breakpoint ID, visited before sleeping.
+   * @param nanos The duration to sleep.
+   */
+  static void sleep(String id, long nanos) throws InterruptedException {
+    visitBreakpoint(id);
+    ConTesterSession.sleep(nanos);
   }
 
-  /** Holds the data associated with a given driver thread, e.g. a test worker thread. */
-  private static final class DriverData {
-
-    private final Map<Thread, ThreadData> threadRegistry = new WeakHashMap<>();
-    private final Map<String, Set<Thread>> enabledBreakpoints = new HashMap<>(4);
-    private final AtomicInteger threadIdGenerator = new AtomicInteger(1);
-    private final ReentrantLock lock = new ReentrantLock();
-
-    private int getNextThreadId() {
-      return threadIdGenerator.getAndIncrement();
-    }
-
-    private Map<Thread, ThreadData> getThreadRegistry() {
-      return threadRegistry;
+  /**
+   * Called from production code.
+   *
+   * @param id A breakpoint ID.
+   * @return A stage that is held while the breakpoint is enabled.
+   */
+  static CompletionStage<Void> visitAsyncBreakpoint(String id) {
+    if (ConTesterSpans.isEnabled()) {
+      ConTesterSpans.visit(id);
     }
-
-    private Map<String, Set<Thread>> getEnabledBreakpoints() {
-      return enabledBreakpoints;
+    if (ConTesterStatistics.isEnabled()) {
+      final long start = System.nanoTime();
+      try {
+        return ConTesterSession.visitAsyncBreakpoint(id);
+      } finally {
+        ConTesterStatistics.recordVisit(id, System.nanoTime() - start);
+      }
+    } else {
+      return ConTesterSession.visitAsyncBreakpoint(id);
     }
   }
 
-  private static final class ThreadData {
-
-    private Throwable uncaughtThrowable;
-    private String breakpointId;
-    private final Semaphore semaphore = new Semaphore(0);
-    private final ReentrantLock lock = new ReentrantLock();
-
-    Optional<Throwable> getUncaughtThrowable() {
-      return Optional.ofNullable(uncaughtThrowable);
-    }
-
-    void setUncaughtThrowable(Throwable throwable) {
-      this.uncaughtThrowable = throwable;
+  /**
+   * Called from production code. It only suspends if the given condition evaluates to {@code true}.
+   */
+  static void visitBreakpoint(String id, BooleanSupplier condition) {
+    if (ConTesterSpans.isEnabled()) {
+      ConTesterSpans.visit(id);
     }
-
-    void setSuspended(String breakpointId) {
-      this.breakpointId = breakpointId;
+    if (ConTesterSharedMemoryAgent.isAttached()) {
+      ConTesterSharedMemoryAgent.visitBreakpoint(id, condition);
     }
-
-    String getSuspended() {
-      return this.breakpointId;
+    if (ConTesterStatistics.isEnabled()) {
+      final long start = System.nanoTime();
+      try {
+        ConTesterSession.visitBreakpoint(id, condition);
+      } finally {
+        ConTesterStatistics.recordVisit(id, System.nanoTime() - start);
+      }
+    } else {
+      ConTesterSession.visitBreakpoint(id, condition);
     }
   }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+/**
+ * Emits JDK Flight Recorder events for breakpoint activity.
+ *
+ * <p>This is the Java 8 implementation, which does nothing. The multi-release jar contains a Java
+ * 11 implementation in {@code META-INF/versions/11} that emits the actual events.
+ */
+final class ConTesterEvents {
+
+  /** Prohibit instantiation */
+  private ConTesterEvents() {}
+
+  /**
+   * Called when a registered thread visits a breakpoint.
+   *
+   * @param id A breakpoint ID.
+   * @param suspending Whether the thread will suspend at the breakpoint.
+   */
+  static void breakpointVisited(String id, boolean suspending) {}
+
+  /**
+   * Called right before a thread suspends at a breakpoint.
+   *
+   * @param id A breakpoint ID.
+   * @return An opaque token to pass to {@link #suspensionEnded}, possibly null.
+   */
+  static Object suspensionBegun(String id) {
+    return null;
+  }
+
+  /**
+   * Called when a thread has been resumed from a breakpoint.
+   *
+   * @param suspension The token returned by {@link #suspensionBegun}.
+   */
+  static void suspensionEnded(Object suspension) {}
+
+  /**
+   * Called when the driver resumes a suspended thread.
+   *
+   * @param thread The resumed thread.
+   * @param id The breakpoint ID the thread was suspended at.
+   */
+  static void resumed(Thread thread, String id) {}
+
+  /**
+   * Called when the driver has given up waiting for a thread.
+   *
+   * @param thread The thread that was waited for.
+   * @param condition A description of what the driver was waiting for.
+   * @param timeoutMillis The timeout, in milliseconds.
+   */
+  static void waitTimedOut(Thread thread, String condition, long timeoutMillis) {}
+}
@@ -0,0 +1,707 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs operations on a concurrent object under breakpoint schedules, and checks that each recorded
+ * history is linearizable with respect to a sequential reference model, i.e. that every operation
+ * appears to take effect atomically at some point between its call and its return.
+ *
+ * <p>For example, for a producer and a consumer, where the model is a list of produced items:
+ *
+ * <pre>{@code
+ * ConTesterLinearizability.Result result =
+ *     ConTesterLinearizability.<Underflow, List<Object>>of(
+ *             Underflow.Fixed::new, ArrayList::new, ArrayList::new)
+ *         .voidOperation("produce", Underflow::produce, model -> model.add("item"))
+ *         .voidOperation("consume", Underflow::consume, model -> model.remove(0))
+ *         .actor("produce")
+ *         .actor("consume")
+ *         .breakpoint("produce")
+ *         .check(1000);
+ * }</pre>
+ *
+ * <p>Each actor runs its operations on a thread of its own, and suspends before each call as well
+ * as at the given breakpoints. Only one actor is resumed at a time, once the others are quiescent,
+ * so the schedule is the sequence of choices of which actor to resume. The schedules are either
+ * random, or explored systematically in depth-first order, see {@link #explore}.
+ *
+ * <p>The outcome of an operation is its return value, or the class of the throwable it throws,
+ * which must equal the outcome of the model operation. The model operations are applied to copies
+ * of the model state, which should implement {@code equals} and {@code hashCode}, as the checker
+ * memoizes the combinations of linearized operations and model states it has already explored.
+ * The histories are checked in parallel with the recording of further histories.
+ *
+ * @param <S> The type of the concurrent object.
+ * @param <M> The type of the model state.
+ */
+public final class ConTesterLinearizability<S, M> {
+
+  /** The breakpoint every actor visits before each call, so that calls are scheduled as well. */
+  static final String CALL_BREAKPOINT = "contester.linearizability.call";
+
+  /** How long the actors must be stalled without any suspended actor to be deadlocked. */
+  private static final long DEADLOCK_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final long STALL_CHECK_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Supplier<? extends S> objectFactory;
+  private final Supplier<? extends M> modelFactory;
+  private final UnaryOperator<M> modelCopier;
+  private final Map<String, Operation<S, M>> operations = new LinkedHashMap<>();
+  private final List<List<Operation<S, M>>> actors = new ArrayList<>();
+  private final Set<String> breakpoints = new LinkedHashSet<>();
+  private boolean explore;
+  private long seed = System.nanoTime();
+  private int parallelism;
+
+  private ConTesterLinearizability(
+      Supplier<? extends S> objectFactory,
+      Supplier<? extends M> modelFactory,
+      UnaryOperator<M> modelCopier) {
+    this.objectFactory = requireNonNull(objectFactory);
+    this.modelFactory = requireNonNull(modelFactory);
+    this.modelCopier = requireNonNull(modelCopier);
+  }
+
+  /**
+   * Creates a checker without any operations or actors.
+   *
+   * @param objectFactory Creates a fresh concurrent object for each history.
+   * @param modelFactory Creates the initial model state for each history.
+   * @param modelCopier Copies a model state.
+   * @param <S> The type of the concurrent object.
+   * @param <M> The type of the model state.
+   * @return A checker.
+   */
+  public static <S, M> ConTesterLinearizability<S, M> of(
+      Supplier<? extends S> objectFactory,
+      Supplier<? extends M> modelFactory,
+      UnaryOperator<M> modelCopier) {
+    return new ConTesterLinearizability<>(objectFactory, modelFactory, modelCopier);
+  }
+
+  /**
+   * Adds an operation, which can be run by the actors.
+   *
+   * @param name A unique name of the operation.
+   * @param operation Acts on the concurrent object, and returns its outcome, if any.
+   * @param model Acts on a copy of the model state, and returns the expected outcome.
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> operation(
+      String name, Function<? super S, ?> operation, Function<? super M, ?> model) {
+    final Operation<S, M> previous =
+        operations.putIfAbsent(name, new Operation<>(name, operation, model));
+    if (previous != null) {
+      throw new IllegalArgumentException("The operation " + name + " is already added");
+    }
+    return this;
+  }
+
+  /**
+   * Adds an operation without a return value, which can be run by the actors. Its outcome is null,
+   * unless it throws.
+   *
+   * @param name A unique name of the operation.
+   * @param operation Acts on the concurrent object.
+   * @param model Acts on a copy of the model state, and throws if the operation is expected to.
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> voidOperation(
+      String name, Consumer<? super S> operation, Consumer<? super M> model) {
+    requireNonNull(operation);
+    requireNonNull(model);
+    return operation(
+        name,
+        object -> {
+          operation.accept(object);
+          return null;
+        },
+        state -> {
+          model.accept(state);
+          return null;
+        });
+  }
+
+  /**
+   * Adds an actor, which runs the given operations in order on a thread of its own.
+   *
+   * @param operationNames The names of added operations.
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> actor(String... operationNames) {
+    final List<Operation<S, M>> actorOperations = new ArrayList<>(operationNames.length);
+    for (String operationName : operationNames) {
+      final Operation<S, M> operation = operations.get(operationName);
+      if (operation == null) {
+        throw new IllegalArgumentException("There is no operation " + operationName);
+      }
+      actorOperations.add(operation);
+    }
+    actors.add(actorOperations);
+    return this;
+  }
+
+  /**
+   * Makes the actors suspend at a breakpoint, in addition to before each call, so that the
+   * scheduler can interleave the operations there.
+   *
+   * @param id A breakpoint ID.
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> breakpoint(String id) {
+    breakpoints.add(requireNonNull(id));
+    return this;
+  }
+
+  /**
+   * Explores the schedules systematically in depth-first order instead of at random, until all
+   * have been checked or the number of histories is reached. Assumes that the operations are
+   * deterministic, apart from the scheduling.
+   *
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> explore() {
+    this.explore = true;
+    return this;
+  }
+
+  /**
+   * Sets the seed of the random schedules, to reproduce a previous check.
+   *
+   * @param seed Any seed.
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Sets the number of histories that are checked concurrently. By default, the histories are
+   * checked in the common {@link ForkJoinPool}.
+   *
+   * @param parallelism A positive number of histories.
+   * @return This checker.
+   */
+  public ConTesterLinearizability<S, M> parallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Records histories under different schedules, and checks them for linearizability.
+   *
+   * <p>If the actors are found to be deadlocked, or don't become quiescent within the timeout as
+   * specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}, an {@link AssertionError} is thrown.
+   *
+   * @param histories The positive maximum number of histories.
+   * @return The outcome of the checks.
+   */
+  public Result check(int histories) {
+    if (histories < 1) {
+      throw new IllegalArgumentException("Histories must be positive: " + histories);
+    }
+    if (actors.isEmpty()) {
+      throw new IllegalStateException("There are no actors");
+    }
+    final ExecutorService executor =
+        parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+    final List<CompletableFuture<History>> checks = new ArrayList<>();
+    try {
+      Schedule schedule = new Schedule(explore ? null : new Random(seed), new int[0]);
+      while (schedule != null && checks.size() < histories) {
+        final History history = record(schedule);
+        checks.add(
+            CompletableFuture.supplyAsync(
+                () -> isLinearizable(history.calls) ? null : history, executor));
+        schedule = schedule.next();
+      }
+
+      History counterexample = null;
+      int violations = 0;
+      for (CompletableFuture<History> check : checks) {
+        final History history = check.join();
+        if (history != null) {
+          violations++;
+          if (counterexample == null) {
+            counterexample = history;
+          }
+        }
+      }
+      return new Result(checks.size(), violations, counterexample, explore ? null : seed);
+    } finally {
+      if (parallelism > 0) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /** Runs the actors under a schedule in a session of their own, and records their calls. */
+  private History record(Schedule schedule) {
+    final S object = objectFactory.get();
+    final AtomicLong time = new AtomicLong();
+    final Call[][] actorCalls = new Call[actors.size()][];
+    final Thread[] threads = new Thread[actors.size()];
+
+    final ConTesterSession session = new ConTesterSession("ConTester Linearizability");
+    boolean completed = false;
+    try {
+      int index = 0;
+      for (int actor = 0; actor < actors.size(); actor++) {
+        final List<Operation<S, M>> actorOperations = actors.get(actor);
+        final Call[] calls = new Call[actorOperations.size()];
+        final int actorIndex = actor;
+        final int firstIndex = index;
+        index += calls.length;
+        actorCalls[actor] = calls;
+        threads[actor] =
+            session.pooledThread(
+                () -> {
+                  for (int i = 0; i < calls.length; i++) {
+                    ConTesterDriver.visitBreakpoint(CALL_BREAKPOINT);
+                    final Operation<S, M> operation = actorOperations.get(i);
+                    final long callTime = time.incrementAndGet();
+                    final Object outcome = apply(operation.operation, object);
+                    calls[i] =
+                        new Call(
+                            firstIndex + i,
+                            actorIndex,
+                            operation.name,
+                            outcome,
+                            callTime,
+                            time.incrementAndGet());
+                  }
+                });
+        session.enableBreakpoint(threads[actor], CALL_BREAKPOINT);
+        for (String id : breakpoints) {
+          session.enableBreakpoint(threads[actor], id);
+        }
+      }
+      for (Thread thread : threads) {
+        session.start(thread);
+      }
+
+      final List<Thread> suspended = new ArrayList<>(threads.length);
+      long stalledSince = 0;
+      while (true) {
+        session.waitForQuiescence();
+        suspended.clear();
+        boolean alive = false;
+        for (Thread thread : threads) {
+          if (ConTesterSession.stateOf(thread) != Thread.State.TERMINATED) {
+            alive = true;
+            if (session.isSuspended(thread)) {
+              suspended.add(thread);
+            }
+          }
+        }
+        if (suspended.isEmpty()) {
+          if (!alive) {
+            break;
+          }
+          // A thread that has been woken appears to be waiting until it's scheduled
+          if (stalledSince == 0) {
+            stalledSince = System.nanoTime();
+          } else if (System.nanoTime() - stalledSince > DEADLOCK_GRACE_NANOS) {
+            throw new AssertionError("The actors are deadlocked with the schedule " + schedule);
+          }
+          LockSupport.parkNanos(this, STALL_CHECK_INTERVAL_NANOS);
+          continue;
+        }
+        stalledSince = 0;
+        session.resume(suspended.get(schedule.choose(suspended.size())));
+      }
+      for (Thread thread : threads) {
+        session.join(thread);
+      }
+      completed = true;
+    } finally {
+      if (!completed) {
+        // Unblocks the actors waiting for each other
+        for (Thread thread : threads) {
+          if (thread != null) {
+            thread.interrupt();
+          }
+        }
+      }
+      session.close();
+    }
+
+    final List<Call> calls = new ArrayList<>();
+    for (Call[] actor : actorCalls) {
+      calls.addAll(Arrays.asList(actor));
+    }
+    return new History(calls.toArray(new Call[0]), schedule);
+  }
+
+  /**
+   * Checks a history with the algorithm of Wing and Gong, as improved by Lowe: the calls are
+   * linearized one at a time in a linked list of call and return events, backtracking when a
+   * return is reached before its call has been linearized. Combinations of linearized calls and
+   * model states that have already been explored are skipped.
+   */
+  private boolean isLinearizable(Call[] calls) {
+    final Event head = Event.link(calls);
+    final BitSet linearized = new BitSet(calls.length);
+    final Set<Memo> explored = new HashSet<>();
+    final List<Event> linearizedEvents = new ArrayList<>(calls.length);
+    final List<M> previousStates = new ArrayList<>(calls.length);
+    M state = modelFactory.get();
+
+    Event event = head.next;
+    while (head.next != null) {
+      final Call call = event.call;
+      if (event.match != null) {
+        final M next = modelCopier.apply(state);
+        final Function<? super M, ?> model = operations.get(call.name).model;
+        if (Objects.equals(apply(model, next), call.outcome)) {
+          linearized.set(call.index);
+          if (explored.add(new Memo((BitSet) linearized.clone(), next))) {
+            linearizedEvents.add(event);
+            previousStates.add(state);
+            state = next;
+            event.lift();
+            event = head.next;
+            continue;
+          }
+          linearized.clear(call.index);
+        }
+        event = event.next;
+      } else {
+        if (linearizedEvents.isEmpty()) {
+          return false;
+        }
+        event = linearizedEvents.remove(linearizedEvents.size() - 1);
+        state = previousStates.remove(previousStates.size() - 1);
+        linearized.clear(event.call.index);
+        event.unlift();
+        event = event.next;
+      }
+    }
+    return true;
+  }
+
+  /** Gets the outcome of an operation, which is the class of any throwable it throws. */
+  private static <T> Object apply(Function<? super T, ?> operation, T target) {
+    try {
+      return operation.apply(target);
+    } catch (Throwable t) { // NOPMD
+      return t.getClass();
+    }
+  }
+
+  private static String describe(Object outcome) {
+    return outcome instanceof Class
+        ? "threw " + ((Class<?>) outcome).getName()
+        : String.valueOf(outcome);
+  }
+
+  private static final class Operation<S, M> {
+    private final String name;
+    private final Function<? super S, ?> operation;
+    private final Function<? super M, ?> model;
+
+    Operation(String name, Function<? super S, ?> operation, Function<? super M, ?> model) {
+      this.name = requireNonNull(name);
+      this.operation = requireNonNull(operation);
+      this.model = requireNonNull(model);
+    }
+  }
+
+  /** A completed operation of a history. */
+  private static final class Call {
+    private final int index;
+    private final int actor;
+    private final String name;
+    private final Object outcome;
+    private final long callTime;
+    private final long returnTime;
+
+    Call(
+        int index,
+        int actor,
+        String name,
+        Object outcome,
+        long callTime,
+        long returnTime) {
+      this.index = index;
+      this.actor = actor;
+      this.name = name;
+      this.outcome = outcome;
+      this.callTime = callTime;
+      this.returnTime = returnTime;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.ROOT,
+          "actor %d: %s -> %s [%d, %d]",
+          actor, name, describe(outcome), callTime, returnTime);
+    }
+  }
+
+  /** A call or return event in a doubly linked list, from which calls are lifted as linearized. */
+  private static final class Event {
+    private final Call call;
+    /** The return event of a call event, or null for a return event. */
+    private Event match;
+
+    private Event prev;
+    private Event next;
+
+    Event(Call call) {
+      this.call = call;
+    }
+
+    long getTime() {
+      return match != null ? call.callTime : call.returnTime;
+    }
+
+    /** Links the events of the calls in time order, after a sentinel head that is returned. */
+    static Event link(Call[] calls) {
+      final List<Event> events = new ArrayList<>(calls.length * 2);
+      for (Call call : calls) {
+        final Event callEvent = new Event(call);
+        final Event returnEvent = new Event(call);
+        callEvent.match = returnEvent;
+        events.add(callEvent);
+        events.add(returnEvent);
+      }
+      events.sort(Comparator.comparingLong(Event::getTime));
+
+      final Event head = new Event(null);
+      Event last = head;
+      for (Event event : events) {
+        last.next = event;
+        event.prev = last;
+        last = event;
+      }
+      return head;
+    }
+
+    /** Removes this call event and its return event from the list. */
+    void lift() {
+      prev.next = next;
+      next.prev = prev;
+      match.prev.next = match.next;
+      if (match.next != null) {
+        match.next.prev = match.prev;
+      }
+    }
+
+    /** Reinserts this call event and its return event, in the reverse order of lifting. */
+    void unlift() {
+      match.prev.next = match;
+      if (match.next != null) {
+        match.next.prev = match;
+      }
+      prev.next = this;
+      next.prev = this;
+    }
+  }
+
+  /** A combination of linearized calls and the resulting model state. */
+  private static final class Memo {
+    private final BitSet linearized;
+    private final Object state;
+
+    Memo(BitSet linearized, Object state) {
+      this.linearized = linearized;
+      this.state = state;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Memo)) {
+        return false;
+      }
+      final Memo other = (Memo) obj;
+      return linearized.equals(other.linearized) && Objects.equals(state, other.state);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * linearized.hashCode() + Objects.hashCode(state);
+    }
+  }
+
+  /**
+   * The choices of which suspended actor to resume, either random, or replaying a prefix of a
+   * previous schedule and then choosing the first actor.
+   */
+  private static final class Schedule {
+    private final Random random;
+    private final int[] prefix;
+    private final List<int[]> choices = new ArrayList<>();
+
+    Schedule(Random random, int[] prefix) {
+      this.random = random;
+      this.prefix = prefix;
+    }
+
+    int choose(int options) {
+      final int step = choices.size();
+      final int choice;
+      if (step < prefix.length) {
+        // The options may differ if the operations aren't deterministic
+        choice = Math.min(prefix[step], options - 1);
+      } else {
+        choice = random != null ? random.nextInt(options) : 0;
+      }
+      choices.add(new int[] {choice, options});
+      return choice;
+    }
+
+    /** Gets the next schedule, or null if all schedules have been explored. */
+    Schedule next() {
+      if (random != null) {
+        return new Schedule(random, prefix);
+      }
+      for (int step = choices.size() - 1; step >= 0; step--) {
+        final int[] choice = choices.get(step);
+        if (choice[0] + 1 < choice[1]) {
+          final int[] nextPrefix = new int[step + 1];
+          for (int i = 0; i < step; i++) {
+            nextPrefix[i] = choices.get(i)[0];
+          }
+          nextPrefix[step] = choice[0] + 1;
+          return new Schedule(null, nextPrefix);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder("[");
+      for (int[] choice : choices) {
+        builder.append(builder.length() == 1 ? "" : ", ").append(choice[0]);
+      }
+      return builder.append(']').toString();
+    }
+  }
+
+  private static final class History {
+    private final Call[] calls;
+    private final Schedule schedule;
+
+    History(Call[] calls, Schedule schedule) {
+      this.calls = calls;
+      this.schedule = schedule;
+    }
+
+    @Override
+    public String toString() {
+      final Call[] sorted = calls.clone();
+      Arrays.sort(sorted, Comparator.comparingLong(call -> call.callTime));
+      final StringBuilder builder = new StringBuilder();
+      builder.append("Schedule ").append(schedule).append(System.lineSeparator());
+      for (Call call : sorted) {
+        builder.append("  ").append(call).append(System.lineSeparator());
+      }
+      return builder.toString();
+    }
+  }
+
+  /** The outcome of checking a number of histories for linearizability. */
+  public static final class Result {
+    private final int historyCount;
+    private final int violationCount;
+    private final History counterexample;
+    private final Long seed;
+
+    Result(int historyCount, int violationCount, History counterexample, Long seed) {
+      this.historyCount = historyCount;
+      this.violationCount = violationCount;
+      this.counterexample = counterexample;
+      this.seed = seed;
+    }
+
+    /**
+     * Gets whether all histories were linearizable.
+     *
+     * @return Whether no violation was found.
+     */
+    public boolean isLinearizable() {
+      return violationCount == 0;
+    }
+
+    /**
+     * Gets the number of checked histories, which is less than requested if all schedules were
+     * explored.
+     *
+     * @return A count.
+     */
+    public int getHistoryCount() {
+      return historyCount;
+    }
+
+    /**
+     * Gets the number of histories that weren't linearizable.
+     *
+     * @return A count.
+     */
+    public int getViolationCount() {
+      return violationCount;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      builder.append(violationCount).append(" of ").append(historyCount);
+      builder.append(" histories are not linearizable");
+      if (seed != null) {
+        builder.append(" (seed ").append(seed).append(')');
+      }
+      if (counterexample != null) {
+        builder.append(System.lineSeparator()).append(counterexample);
+      }
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets a {@link ConTesterRemoteDriver} in another JVM control the threads of this JVM, such as a
+ * worker process started by a test.
+ *
+ * <p>The agent listens on the loopback interface only, and only serves drivers that present its
+ * randomly generated token, which must be handed to the driver out of band, such as through the
+ * standard output of the child process. Every connection is served by a daemon thread of its own,
+ * which acts as the driver thread of a {@link ConTesterSession}. The session is closed when the
+ * connection is, so that no thread is left suspended by a disconnected driver.
+ */
+public final class ConTesterRemoteAgent implements AutoCloseable {
+
+  private static final AtomicInteger CONNECTION_ID_GENERATOR = new AtomicInteger(1);
+
+  private static final SecureRandom TOKEN_GENERATOR = new SecureRandom();
+
+  private final ServerSocket serverSocket;
+
+  private final String token;
+
+  /** Guards the open connections. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** The open connections, guarded by the lock. */
+  private final List<Socket> connections = new ArrayList<>();
+
+  private ConTesterRemoteAgent(ServerSocket serverSocket, String token) {
+    this.serverSocket = serverSocket;
+    this.token = token;
+  }
+
+  /**
+   * Starts an agent that listens on the loopback interface.
+   *
+   * @param port A port, or 0 to pick an ephemeral port.
+   * @return An agent that accepts connections.
+   */
+  public static ConTesterRemoteAgent listen(int port) {
+    final ConTesterRemoteAgent agent;
+    try {
+      agent =
+          new ConTesterRemoteAgent(
+              new ServerSocket(port, 50, InetAddress.getLoopbackAddress()), generateToken());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final Thread acceptor = new Thread(agent::accept, "ConTester Remote Agent");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return agent;
+  }
+
+  /**
+   * Gets the port the agent listens on, to pass to {@link ConTesterRemoteDriver#connect}.
+   *
+   * @return A port.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Gets the token that drivers must present, to pass to {@link ConTesterRemoteDriver#connect}.
+   *
+   * @return A secret.
+   */
+  public String getToken() {
+    return token;
+  }
+
+  /** Stops accepting connections, and closes all open connections. */
+  @Override
+  public void close() {
+    final List<Socket> closed;
+    lock.lock();
+    try {
+      closed = new ArrayList<>(connections);
+      connections.clear();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      serverSocket.close();
+      for (Socket socket : closed) {
+        socket.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // The agent has been closed
+        return;
+      }
+      lock.lock();
+      try {
+        connections.add(socket);
+      } finally {
+        lock.unlock();
+      }
+      final Thread thread =
+          new Thread(
+              () -> serve(socket),
+              "ConTester Remote Agent Connection " + CONNECTION_ID_GENERATOR.getAndIncrement());
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (ConTesterSession session = new ConTesterSession("ConTester Remote Session")) {
+      new Connection(session, token).serve(socket);
+    } catch (EOFException | SocketException e) {
+      // The driver has disconnected, or the agent has been closed
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.lock();
+      try {
+        connections.remove(socket);
+      } finally {
+        lock.unlock();
+      }
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+        // Nothing more can be done with the connection
+      }
+    }
+  }
+
+  private static String generateToken() {
+    final byte[] bytes = new byte[16];
+    TOKEN_GENERATOR.nextBytes(bytes);
+    final StringBuilder token = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return token.toString();
+  }
+
+  /** Executes the requests of a connected driver in its session. */
+  private static final class Connection {
+    private final ConTesterSession session;
+
+    private final String token;
+
+    /** The threads that have been referred to, by name. */
+    private final Map<String, Thread> threads = new HashMap<>();
+
+    private final Set<Thread> registered = new HashSet<>();
+
+    Connection(ConTesterSession session, String token) {
+      this.session = session;
+      this.token = token;
+    }
+
+    void serve(Socket socket) throws IOException {
+      socket.setTcpNoDelay(true);
+      final DataInputStream in =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      // Compared in constant time, so that the token can't be guessed from the response times
+      final boolean authenticated =
+          MessageDigest.isEqual(
+              in.readUTF().getBytes(StandardCharsets.UTF_8),
+              token.getBytes(StandardCharsets.UTF_8));
+      out.writeByte(authenticated ? RemoteProtocol.OK : RemoteProtocol.FAILED);
+      out.flush();
+      if (!authenticated) {
+        return;
+      }
+      while (true) {
+        final int length = in.readInt();
+        if (length < 4 || length > RemoteProtocol.MAX_FRAME_LENGTH) {
+          throw new IOException("Invalid request length " + length);
+        }
+        final byte[] request = new byte[length];
+        in.readFully(request);
+        execute(new DataInputStream(new ByteArrayInputStream(request)), out);
+        out.flush();
+      }
+    }
+
+    private void execute(DataInputStream request, DataOutputStream out) throws IOException {
+      final int count = request.readInt();
+      for (int i = 0; i < count; i++) {
+        final byte opcode = request.readByte();
+        try {
+          switch (opcode) {
+            case RemoteProtocol.ENABLE_BREAKPOINT:
+              session.enableBreakpoint(thread(request.readUTF()), request.readUTF());
+              break;
+            case RemoteProtocol.DISABLE_BREAKPOINT:
+              session.disableBreakpoint(thread(request.readUTF()), request.readUTF());
+              break;
+            case RemoteProtocol.RUN_TO_BREAKPOINT:
+              session.runToBreakpoint(
+                  thread(request.readUTF()),
+                  request.readUTF(),
+                  request.readLong(),
+                  TimeUnit.NANOSECONDS);
+              break;
+            case RemoteProtocol.WAIT_FOR_BREAKPOINT:
+              session.waitForBreakpoint(
+                  thread(request.readUTF()),
+                  request.readUTF(),
+                  request.readLong(),
+                  TimeUnit.NANOSECONDS);
+              break;
+            case RemoteProtocol.RESUME:
+              session.resume(thread(request.readUTF()));
+              break;
+            default:
+              throw new IllegalArgumentException("Unknown opcode " + opcode);
+          }
+        } catch (RuntimeException | AssertionError e) {
+          // The subsequent commands are skipped
+          RemoteProtocol.writeFailure(out, i, e);
+          return;
+        }
+      }
+      out.writeByte(RemoteProtocol.OK);
+    }
+
+    /** Finds a live thread by name, and registers it in the session if necessary. */
+    private Thread thread(String name) {
+      Thread thread = threads.get(name);
+      if (thread == null || !thread.isAlive()) {
+        final Thread found = findLiveThread(name);
+        if (found != null) {
+          thread = found;
+        } else if (thread == null) {
+          throw new IllegalArgumentException("There is no live thread named '" + name + "'");
+        }
+      }
+      if (!registered.contains(thread)) {
+        session.register(thread);
+        registered.add(thread);
+        threads.put(name, thread);
+      }
+      return thread;
+    }
+
+    private static Thread findLiveThread(String name) {
+      ThreadGroup root = Thread.currentThread().getThreadGroup();
+      while (root.getParent() != null) {
+        root = root.getParent();
+      }
+      Thread[] all;
+      int count;
+      do {
+        all = new Thread[root.activeCount() * 2 + 16];
+        count = root.enumerate(all, true);
+      } while (count == all.length);
+
+      Thread found = null;
+      for (int i = 0; i < count; i++) {
+        if (all[i].getName().equals(name)) {
+          if (found != null) {
+            throw new IllegalArgumentException("There are several threads named '" + name + "'");
+          }
+          found = all[i];
+        }
+      }
+      return found;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The commands of a {@link ConTesterRemoteDriver}, which can also be given to the sink of a {@link
+ * ConTesterRemoteDriver#batch}.
+ */
+public interface ConTesterRemoteCommands {
+
+  /**
+   * Enables a breakpoint so that the given remote thread will suspend if it's hit.
+   *
+   * @param thread The name of a remote thread.
+   * @param id A breakpoint ID.
+   */
+  void enableBreakpoint(String thread, String id);
+
+  /**
+   * Disables a breakpoint of the given remote thread.
+   *
+   * @param thread The name of a remote thread.
+   * @param id A breakpoint ID.
+   */
+  void disableBreakpoint(String thread, String id);
+
+  /**
+   * Runs the given remote thread until it suspends on the given breakpoint ID, like {@link
+   * ConTesterSession#runToBreakpoint}.
+   *
+   * @param thread The name of a remote thread.
+   * @param id A breakpoint ID.
+   */
+  default void runToBreakpoint(String thread, String id) {
+    runToBreakpoint(thread, id, ConTesterDriver.STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the given remote thread until it suspends on the given breakpoint ID, like {@link
+   * ConTesterSession#runToBreakpoint}.
+   *
+   * @param thread The name of a remote thread.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  void runToBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit);
+
+  /**
+   * Waits for the given remote thread to suspend on an enabled breakpoint, like {@link
+   * ConTesterSession#waitForBreakpoint}.
+   *
+   * @param thread The name of a remote thread.
+   * @param id A breakpoint ID.
+   */
+  default void waitForBreakpoint(String thread, String id) {
+    waitForBreakpoint(thread, id, ConTesterDriver.STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits for the given remote thread to suspend on an enabled breakpoint, like {@link
+   * ConTesterSession#waitForBreakpoint}.
+   *
+   * @param thread The name of a remote thread.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  void waitForBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit);
+
+  /**
+   * Resumes the given remote thread, if it's suspended.
+   *
+   * @param thread The name of a remote thread.
+   */
+  void resume(String thread);
+}
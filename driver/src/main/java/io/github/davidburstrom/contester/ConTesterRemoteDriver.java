@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Controls the threads of another JVM, such as a child process of a test, through a {@link
+ * ConTesterRemoteAgent} or a {@link ConTesterSharedMemoryAgent} running in that JVM.
+ *
+ * <p>Remote threads are identified by name. When the driver is closed, all breakpoints it enabled
+ * are disabled, and all threads it suspended are resumed.
+ *
+ * <p>If a command fails in the remote JVM, an exception of the same type is thrown if it's an
+ * {@link AssertionError}, {@link IllegalArgumentException} or {@link IllegalStateException},
+ * otherwise an {@link IllegalStateException}.
+ */
+public interface ConTesterRemoteDriver extends ConTesterRemoteCommands, AutoCloseable {
+
+  /**
+   * Connects to an agent on the loopback interface. The remote threads must be alive, i.e. started,
+   * when they're first referred to, and are then registered in a session of the agent.
+   *
+   * @param port The port of the agent, see {@link ConTesterRemoteAgent#getPort}.
+   * @param token The token of the agent, see {@link ConTesterRemoteAgent#getToken}.
+   * @return A driver that communicates over a socket.
+   * @throws IllegalArgumentException If the agent rejects the token.
+   */
+  static ConTesterRemoteDriver connect(int port, String token) {
+    return SocketRemoteDriver.connect(port, token);
+  }
+
+  /**
+   * Creates a memory-mapped file, replacing any existing one, through which the threads of a
+   * {@link ConTesterSharedMemoryAgent} attached to the same file are controlled. This avoids any
+   * system calls per command, but requires Java 11 or later, and at most {@value
+   * SharedChannel#MAX_IDS} breakpoint IDs and {@value SharedChannel#MAX_SLOTS} threads can be
+   * referred to. The file must be created before the agent attaches to it.
+   *
+   * @param file A file, typically in a temporary directory.
+   * @return A driver that communicates through shared memory.
+   */
+  static ConTesterRemoteDriver createSharedMemory(Path file) {
+    return SharedMemoryRemoteDriver.create(file);
+  }
+
+  /**
+   * Sends the commands given to a sink in a single round trip, where they're executed in order. If
+   * a command fails, the subsequent commands are skipped.
+   *
+   * @param commands Gives commands to the sink it's passed, which must not be used afterwards.
+   */
+  void batch(Consumer<ConTesterRemoteCommands> commands);
+
+  /** Disconnects from the agent, which resumes all suspended threads of this driver. */
+  @Override
+  void close();
+}
@@ -0,0 +1,2315 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.STANDARD_TIMEOUT_MS;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A ConTester session, which owns a set of registered threads and their enabled breakpoints.
+ *
+ * <p>Unlike the static {@link ConTesterDriver} API, which implicitly uses a default session per
+ * driver thread, a session can be used from any thread, e.g. from a virtual thread or from the
+ * worker threads of a {@link java.util.concurrent.ForkJoinPool}. Independent sessions can be used
+ * in parallel. A thread can only be registered in one session at a time.
+ *
+ * <p>The thread that calls a session method is referred to as the driver thread for the duration
+ * of that call.
+ *
+ * <pre>{@code
+ * try (ConTesterSession session = new ConTesterSession()) {
+ *   Thread thread = session.thread(runnable);
+ *   session.runToBreakpoint(thread, "my-breakpoint");
+ *   session.join(thread);
+ * }
+ * }</pre>
+ */
+public final class ConTesterSession implements AutoCloseable {
+
+  /** How often to check whether a waited for thread can never make progress. */
+  private static final long PROGRESS_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** The shortest interval at which to sample the states of threads while awaiting quiescence. */
+  private static final long QUIESCENCE_MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+  /** How often to poll the lock state of a thread. */
+  private static final long LOCK_STATE_POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+  /** All registered threads, regardless of session, so that visited breakpoints are found. */
+  private static final ShardedThreadMap<ThreadData> REGISTERED_THREADS = new ShardedThreadMap<>();
+
+  /** The driver threads of the sessions with a virtual clock, so that they read it as well. */
+  private static final ShardedThreadMap<VirtualClock> VIRTUAL_CLOCK_DRIVERS =
+      new ShardedThreadMap<>();
+
+  /** The number of enabled virtual clocks, so that real time is read without lookups otherwise. */
+  private static final AtomicInteger VIRTUAL_CLOCK_COUNT = new AtomicInteger();
+
+  private static final AtomicInteger SESSION_ID_GENERATOR = new AtomicInteger(1);
+
+  private static final CompletionStage<Void> COMPLETED_STAGE =
+      CompletableFuture.completedFuture(null);
+
+  private final String name;
+
+  /** Guards the thread registry and the breakpoint state of the registered threads. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Map<Thread, ThreadData> threadRegistry = new WeakHashMap<>();
+
+  /**
+   * The registered threads by thread ID, so that lock owners are looked up without the lock. The
+   * values don't refer to the threads, so the registry still doesn't keep them alive.
+   */
+  private final Map<Long, ThreadData> threadDataById = new ConcurrentHashMap<>();
+  private final AtomicInteger threadIdGenerator = new AtomicInteger(1);
+
+  /**
+   * A pending {@link #runAnyToBreakpoint}, guarded by the lock. It's volatile, so that visits check
+   * for it without the lock.
+   */
+  private volatile RunTo anyRunTo;
+
+  /** The tasks created by this session, guarded by the lock. */
+  private final List<ConTesterTask> tasks = new ArrayList<>();
+
+  /** The stages held at asynchronous breakpoints, oldest first, guarded by the lock. */
+  private final List<HeldStage> heldStages = new ArrayList<>();
+
+  private final Condition heldStageAdded = lock.newCondition();
+
+  /** The driver thread in {@link #waitForQuiescence}, to unpark as threads suspend. */
+  private volatile Thread quiescenceWaiter;
+
+  /** The clock of the registered threads, if enabled, which is set under the lock. */
+  private volatile VirtualClock virtualClock;
+
+  /** The thread that enabled the virtual clock, guarded by the lock. */
+  private Thread virtualClockDriver;
+
+  /** Profiles the contention of the registered threads, if enabled, and set under the lock. */
+  private volatile ContentionProfiler contentionProfiler;
+
+  /** Creates a session with a generated name. */
+  public ConTesterSession() {
+    this("ConTester Session " + SESSION_ID_GENERATOR.getAndIncrement());
+  }
+
+  /**
+   * Creates a session.
+   *
+   * @param name The name of the session, used as a prefix for the names of the threads created by
+   *     {@link #thread}.
+   */
+  public ConTesterSession(String name) {
+    this.name = requireNonNull(name);
+  }
+
+  /**
+   * Gets the name of the session.
+   *
+   * @return The name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Creates a convenient {@link Thread} that can be used to exercise a {@link Runnable}.
+   *
+   * @param runnable The {@link Runnable} to execute.
+   * @return A {@link Thread} that has been registered in the session, but not started.
+   */
+  public Thread thread(final Runnable runnable) {
+    final String threadName = name + " / ConTester Thread " + threadIdGenerator.getAndIncrement();
+    final Thread thread = new Thread(profiled(runnable), threadName);
+    register(thread);
+    return thread;
+  }
+
+  /**
+   * Creates a {@link Thread} like {@link #thread}, but reuses an idle worker thread from a pool
+   * shared by all sessions, which avoids the cost of creating a thread for every scenario.
+   *
+   * <p>The worker appears to be a new thread until it's started, and a terminated thread once the
+   * {@link Runnable} is done, but the underlying thread keeps running. Use the methods of the
+   * session, rather than {@link Thread#join} or {@link Thread#getState}, to wait for it. When the
+   * session is closed, the worker is returned to the pool as soon as the {@link Runnable} is done.
+   * Its breakpoints, uncaught throwable, uncaught exception handler and name are reset, but thread
+   * locals are not.
+   *
+   * @param runnable The {@link Runnable} to execute.
+   * @return A {@link Thread} that has been registered in the session, but not started.
+   */
+  public Thread pooledThread(final Runnable runnable) {
+    final String threadName = name + " / ConTester Thread " + threadIdGenerator.getAndIncrement();
+    final Thread thread = PooledThread.acquire(profiled(runnable), threadName);
+    register(thread);
+    return thread;
+  }
+
+  /** Wraps a runnable, so that the contention is profiled from its start to its end. */
+  private Runnable profiled(Runnable runnable) {
+    requireNonNull(runnable);
+    return () -> {
+      final ContentionProfiler profiler = contentionProfiler;
+      if (profiler == null) {
+        runnable.run();
+        return;
+      }
+      profiler.begin();
+      try {
+        runnable.run();
+      } finally {
+        profiler.end();
+      }
+    };
+  }
+
+  /**
+   * Runs the given thread until it suspends on the given breakpoint ID.
+   *
+   * <p>Any other breakpoints enabled for the thread are ignored while this method executes.
+   *
+   * <p>If the timeout as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS} occurs before the
+   * breakpoint is hit, an exception will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param id A breakpoint ID.
+   */
+  public void runToBreakpoint(Thread thread, String id) {
+    runToBreakpoint(thread, id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the given thread until it suspends on the given breakpoint ID.
+   *
+   * <p>Any other breakpoints enabled for the thread are ignored while this method executes.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an exception will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void runToBreakpoint(Thread thread, String id, long timeout, TimeUnit timeUnit) {
+    runToBreakpoint(thread, id, 1, timeout, timeUnit);
+  }
+
+  /**
+   * Runs the given thread until it suspends on the given breakpoint ID for the given number of
+   * times, i.e. it passes the breakpoint {@code hitCount - 1} times first.
+   *
+   * <p>The hits are counted by the thread itself, without any round trips to the driver thread.
+   * Any other breakpoints enabled for the thread are ignored while this method executes.
+   *
+   * <p>If the timeout as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS} occurs before the
+   * breakpoint is hit, an exception will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param hitCount The hit to suspend on, starting from 1.
+   */
+  public void runToBreakpoint(Thread thread, String id, int hitCount) {
+    runToBreakpoint(thread, id, hitCount, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the given thread until it suspends on the given breakpoint ID for the given number of
+   * times, i.e. it passes the breakpoint {@code hitCount - 1} times first.
+   *
+   * <p>The hits are counted by the thread itself, without any round trips to the driver thread.
+   * Any other breakpoints enabled for the thread are ignored while this method executes.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an exception will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param hitCount The hit to suspend on, starting from 1.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void runToBreakpoint(
+      Thread thread, String id, int hitCount, long timeout, TimeUnit timeUnit) {
+    final ThreadData threadData = getThreadData(thread);
+    final RunTo runTo = focus(thread, threadData, id, hitCount);
+
+    resumeIfNecessary(thread);
+
+    startIfNecessary(thread);
+
+    try {
+      awaitSuspension(thread, threadData, id, timeout, timeUnit);
+    } finally {
+      if (clearRunTo(threadData, runTo)) {
+        runTo.future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Runs any thread registered in this session until it suspends on the given breakpoint ID, which
+   * is useful when a task is submitted to a pool and it's not known in advance which worker will
+   * pick it up.
+   *
+   * <p>The first thread to hit the breakpoint after this method is called is suspended, as if the
+   * breakpoint had been enabled for it. Suspended threads are not resumed. To submit the task
+   * afterwards, use {@link #runAnyToBreakpointAsync}.
+   *
+   * <p>If the timeout as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS} occurs before the
+   * breakpoint is hit, an exception will be thrown.
+   *
+   * @param id A breakpoint ID.
+   * @return The thread that suspended on the breakpoint.
+   */
+  public Thread runAnyToBreakpoint(String id) {
+    return runAnyToBreakpoint(id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs any thread registered in this session until it suspends on the given breakpoint ID, which
+   * is useful when a task is submitted to a pool and it's not known in advance which worker will
+   * pick it up.
+   *
+   * <p>The first thread to hit the breakpoint after this method is called is suspended, as if the
+   * breakpoint had been enabled for it. Suspended threads are not resumed. To submit the task
+   * afterwards, use {@link #runAnyToBreakpointAsync}.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an exception will be thrown.
+   *
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return The thread that suspended on the breakpoint.
+   */
+  public Thread runAnyToBreakpoint(String id, long timeout, TimeUnit timeUnit) {
+    final RunTo runTo = armAnyRunTo(id);
+    try {
+      runTo.future.get(timeout, timeUnit);
+    } catch (TimeoutException e) {
+      if (clearAnyRunTo(runTo)) {
+        throw new AssertionError(
+            "Breakpoint wasn't hit within "
+                + timeout
+                + " "
+                + timeUnit.toString().toLowerCase(Locale.ROOT),
+            e);
+      }
+      // It was hit just as the wait timed out
+      runTo.future.join();
+    } catch (InterruptedException | ExecutionException e) {
+      clearAnyRunTo(runTo);
+      throw new RuntimeException(e);
+    }
+    return runTo.thread;
+  }
+
+  /**
+   * Asynchronously runs any thread registered in this session until it suspends on the given
+   * breakpoint ID.
+   *
+   * <p>Unlike {@link #runAnyToBreakpoint}, it returns as soon as the breakpoint is armed, so that a
+   * task can be submitted to a running pool without racing past the breakpoint.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs first.
+   *
+   * @param id A breakpoint ID.
+   * @return A future that completes with the thread that suspended on the breakpoint.
+   */
+  public CompletableFuture<Thread> runAnyToBreakpointAsync(String id) {
+    return runAnyToBreakpointAsync(id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Asynchronously runs any thread registered in this session until it suspends on the given
+   * breakpoint ID.
+   *
+   * <p>Unlike {@link #runAnyToBreakpoint}, it returns as soon as the breakpoint is armed, so that a
+   * task can be submitted to a running pool without racing past the breakpoint.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout occurs first.
+   *
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes with the thread that suspended on the breakpoint.
+   */
+  public CompletableFuture<Thread> runAnyToBreakpointAsync(
+      String id, long timeout, TimeUnit timeUnit) {
+    final RunTo runTo = armAnyRunTo(id);
+    final CompletableFuture<Thread> future = new CompletableFuture<>();
+    runTo.future.whenComplete(
+        (ignored, throwable) -> {
+          if (throwable == null) {
+            future.complete(runTo.thread);
+          } else {
+            future.completeExceptionally(throwable);
+          }
+        });
+    // Disarms it if the future is cancelled
+    future.whenComplete((ignored, throwable) -> clearAnyRunTo(runTo));
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    ThreadWatcher.watch(
+        future,
+        () -> {
+          if (System.nanoTime() >= endTime && clearAnyRunTo(runTo)) {
+            future.completeExceptionally(
+                new AssertionError(
+                    "Breakpoint wasn't hit within "
+                        + timeout
+                        + " "
+                        + timeUnit.toString().toLowerCase(Locale.ROOT)));
+          }
+        });
+    return future;
+  }
+
+  private RunTo armAnyRunTo(String id) {
+    final RunTo runTo = new RunTo(requireNonNull(id));
+    lock.lock();
+    try {
+      if (anyRunTo != null) {
+        throw new IllegalStateException(
+            "Already running any thread to breakpoint '" + anyRunTo.id + "'");
+      }
+      anyRunTo = runTo;
+    } finally {
+      lock.unlock();
+    }
+    return runTo;
+  }
+
+  /**
+   * Creates a {@link ThreadFactory} that registers the threads it creates in this session, so that
+   * the workers of an {@link java.util.concurrent.ExecutorService} can be controlled.
+   *
+   * @return A thread factory.
+   */
+  public ThreadFactory threadFactory() {
+    return runnable -> {
+      final Thread thread =
+          new Thread(
+              runnable, name + " / ConTester Pool Thread " + threadIdGenerator.getAndIncrement());
+      register(thread);
+      return thread;
+    };
+  }
+
+  /**
+   * Creates a {@link ForkJoinPool.ForkJoinWorkerThreadFactory} that registers the workers it
+   * creates in this session, so that the tasks of a {@link ForkJoinPool} can be controlled.
+   *
+   * @return A fork join worker thread factory.
+   */
+  public ForkJoinPool.ForkJoinWorkerThreadFactory forkJoinWorkerThreadFactory() {
+    return pool -> {
+      final ForkJoinWorkerThread thread = new ControlledForkJoinWorkerThread(pool);
+      thread.setName(name + " / ConTester Pool Thread " + threadIdGenerator.getAndIncrement());
+      register(thread);
+      return thread;
+    };
+  }
+
+  /**
+   * Waits until an asynchronous breakpoint is held, i.e. until a thread or task for which it's
+   * enabled has visited it.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs before
+   * the breakpoint is hit, an {@link AssertionError} will be thrown.
+   *
+   * @param id A breakpoint ID.
+   */
+  public void waitForAsyncBreakpoint(String id) {
+    waitForAsyncBreakpoint(id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until an asynchronous breakpoint is held, i.e. until a thread or task for which it's
+   * enabled has visited it.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an {@link AssertionError} will be
+   * thrown.
+   *
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForAsyncBreakpoint(String id, long timeout, TimeUnit timeUnit) {
+    long remaining = timeUnit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (indexOfHeldStage(id) < 0) {
+        if (remaining <= 0) {
+          throw new AssertionError(
+              "Breakpoint wasn't hit within "
+                  + timeout
+                  + " "
+                  + timeUnit.toString().toLowerCase(Locale.ROOT));
+        }
+        remaining = heldStageAdded.awaitNanos(remaining);
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Completes the oldest stage held at an asynchronous breakpoint.
+   *
+   * <p>Dependent actions that are not asynchronous run on the calling thread. It is considered an
+   * error to release a breakpoint that holds no stage.
+   *
+   * @param id A breakpoint ID.
+   */
+  public void releaseAsyncBreakpoint(String id) {
+    final HeldStage heldStage;
+    lock.lock();
+    try {
+      final int index = indexOfHeldStage(id);
+      if (index < 0) {
+        throw new AssertionError("Breakpoint '" + id + "' holds no stage");
+      }
+      heldStage = heldStages.remove(index);
+    } finally {
+      lock.unlock();
+    }
+    heldStage.stage.complete(null);
+  }
+
+  /**
+   * Creates a task, for breakpoints that follow a logical task across the threads that execute it.
+   *
+   * @param name The name of the task, such as "request 42".
+   * @return A task that belongs to this session until it's closed.
+   */
+  public ConTesterTask task(String name) {
+    final ConTesterTask task = new ConTesterTask(this, requireNonNull(name));
+    lock.lock();
+    try {
+      tasks.add(task);
+    } finally {
+      lock.unlock();
+    }
+    return task;
+  }
+
+  /**
+   * Enables a breakpoint so that the given task will suspend if it's hit, on whichever thread
+   * executes it.
+   *
+   * @param task A task of this session.
+   * @param id A breakpoint ID.
+   */
+  public void enableBreakpoint(ConTesterTask task, String id) {
+    checkTask(task);
+
+    lock.lock();
+    try {
+      if (!task.getState().enable(requireNonNull(id))) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' is already enabled");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Disables a breakpoint so that the given task will not suspend if it's hit.
+   *
+   * @param task A task of this session.
+   * @param id A breakpoint ID.
+   */
+  public void disableBreakpoint(ConTesterTask task, String id) {
+    checkTask(task);
+
+    lock.lock();
+    try {
+      if (!task.getState().disable(id)) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' is already disabled");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until the task hits the given breakpoint, on any thread.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs before
+   * the breakpoint is hit, an {@link AssertionError} will be thrown.
+   *
+   * @param task A task of this session.
+   * @param id A breakpoint ID.
+   */
+  public void waitForBreakpoint(ConTesterTask task, String id) {
+    waitForBreakpoint(task, id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the task hits the given breakpoint, on any thread.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, an {@link AssertionError} will be
+   * thrown.
+   *
+   * @param task A task of this session.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForBreakpoint(ConTesterTask task, String id, long timeout, TimeUnit timeUnit) {
+    checkTask(task);
+    final BreakpointState state = task.getState();
+
+    lock.lock();
+    try {
+      if (!state.isEnabled(id)) {
+        throw new IllegalArgumentException(
+            "Breakpoint '" + id + "' is not enabled for " + task.getName());
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    String suspended = state.getSuspended();
+    long remaining = endTime - System.nanoTime();
+    while (suspended == null && remaining > 0) {
+      suspended = state.handoff.awaitSuspended(remaining);
+      remaining = endTime - System.nanoTime();
+    }
+    if (suspended == null) {
+      throw new AssertionError(
+          "Breakpoint wasn't hit within "
+              + timeout
+              + " "
+              + timeUnit.toString().toLowerCase(Locale.ROOT));
+    } else if (!suspended.equals(id)) {
+      throw new AssertionError(
+          "Task suspended on unexpected breakpoint '" + suspended + "', expected '" + id + "'");
+    }
+  }
+
+  /**
+   * Resume execution of a task after being suspended at a breakpoint.
+   *
+   * <p>It is considered an error to resume a task if it is not suspended.
+   *
+   * @param task A task of this session.
+   */
+  public void resume(ConTesterTask task) {
+    checkTask(task);
+    if (!resumeTask(task)) {
+      throw new AssertionError("Task is not suspended");
+    }
+  }
+
+  /**
+   * Runs a thread until it is either blocked or finished.
+   *
+   * <p>Use this to guarantee that the thread either is waiting to enter critical block held by
+   * another thread, or that it is done executing.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   */
+  public void runUntilBlockedOrTerminated(Thread thread) {
+    startIfNecessary(thread);
+
+    resumeIfNecessary(thread);
+
+    waitForBlockedOrTerminated(thread);
+  }
+
+  /**
+   * Runs a thread until it is blocked on the given monitor or lock.
+   *
+   * <p>Unlike {@link #runUntilBlockedOrTerminated}, this verifies exactly which monitor or lock
+   * the thread is blocked on, so it is not satisfied by the thread waiting for anything else.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   */
+  public void runUntilBlockedOn(Thread thread, Object monitorOrLock) {
+    runUntilBlockedOn(thread, monitorOrLock, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs a thread until it is blocked on the given monitor or lock.
+   *
+   * <p>Unlike {@link #runUntilBlockedOrTerminated}, this verifies exactly which monitor or lock
+   * the thread is blocked on, so it is not satisfied by the thread waiting for anything else.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void runUntilBlockedOn(
+      Thread thread, Object monitorOrLock, long timeout, TimeUnit timeUnit) {
+    startIfNecessary(thread);
+
+    resumeIfNecessary(thread);
+
+    waitForBlockedOn(thread, monitorOrLock, timeout, timeUnit);
+  }
+
+  /**
+   * Runs a thread until it is waiting on the given monitor or condition.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   */
+  public void runUntilWaitingOn(Thread thread, Object monitorOrCondition) {
+    runUntilWaitingOn(thread, monitorOrCondition, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs a thread until it is waiting on the given monitor or condition.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void runUntilWaitingOn(
+      Thread thread, Object monitorOrCondition, long timeout, TimeUnit timeUnit) {
+    startIfNecessary(thread);
+
+    resumeIfNecessary(thread);
+
+    waitForWaitingOn(thread, monitorOrCondition, timeout, timeUnit);
+  }
+
+  /**
+   * Asynchronously runs the given thread until it suspends on the given breakpoint ID.
+   *
+   * <p>Any other breakpoints enabled for the thread are ignored until the breakpoint is hit.
+   *
+   * <p>The returned future is completed directly by the thread as it suspends, or exceptionally
+   * with an {@link AssertionError} if the thread terminates or the timeout as specified by {@link
+   * ConTesterDriver#STANDARD_TIMEOUT_MS} occurs first. Note that dependent actions that are not
+   * async may execute in the suspending thread.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @return A future that completes when the thread has suspended.
+   */
+  public CompletableFuture<Void> runToBreakpointAsync(Thread thread, String id) {
+    return runToBreakpointAsync(thread, id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Asynchronously runs the given thread until it suspends on the given breakpoint ID.
+   *
+   * <p>Any other breakpoints enabled for the thread are ignored until the breakpoint is hit.
+   *
+   * <p>The returned future is completed directly by the thread as it suspends, or exceptionally
+   * with an {@link AssertionError} if the thread terminates or the timeout occurs first. Note that
+   * dependent actions that are not async may execute in the suspending thread.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes when the thread has suspended.
+   */
+  public CompletableFuture<Void> runToBreakpointAsync(
+      Thread thread, String id, long timeout, TimeUnit timeUnit) {
+    final ThreadData threadData = getThreadData(thread);
+    final RunTo runTo = focus(thread, threadData, id, 1);
+
+    resumeIfNecessary(thread);
+
+    startIfNecessary(thread);
+
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    ThreadWatcher.watch(
+        runTo.future,
+        () -> {
+          if (stateOf(thread) == Thread.State.TERMINATED) {
+            if (clearRunTo(threadData, runTo)) {
+              runTo.future.completeExceptionally(terminatedError(thread, threadData));
+            }
+          } else if (System.nanoTime() >= endTime && clearRunTo(threadData, runTo)) {
+            ConTesterEvents.waitTimedOut(
+                thread, "breakpoint '" + id + "'", timeUnit.toMillis(timeout));
+            runTo.future.completeExceptionally(
+                new AssertionError(
+                    "Breakpoint wasn't hit within "
+                        + timeout
+                        + " "
+                        + timeUnit.toString().toLowerCase(Locale.ROOT)));
+          }
+        });
+    return runTo.future;
+  }
+
+  /**
+   * Registers the given thread so that it is controlled by this session.
+   *
+   * <p>It is an error to try to register the thread more than once, in this or any other session.
+   *
+   * @param thread A previously unregistered thread, different from the driver thread.
+   */
+  public void register(final Thread thread) {
+    if (thread.equals(Thread.currentThread())) {
+      throw new IllegalArgumentException("A thread cannot self-register");
+    }
+
+    final ThreadData threadData = new ThreadData(this);
+
+    if (REGISTERED_THREADS.putIfAbsent(thread, threadData) != null) {
+      throw new IllegalArgumentException("Thread " + thread + " has already been registered");
+    }
+
+    lock.lock();
+    try {
+      threadRegistry.put(thread, threadData);
+      threadDataById.put(thread.getId(), threadData);
+    } finally {
+      lock.unlock();
+    }
+
+    thread.setUncaughtExceptionHandler(
+        new UncaughtThrowableRecorder(threadData, thread.getUncaughtExceptionHandler()));
+  }
+
+  /**
+   * Starts the given thread, after registering it if necessary.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   */
+  public void start(final Thread thread) {
+    registerIfNecessary(thread);
+    thread.start();
+  }
+
+  /**
+   * Enables a breakpoint so that the given thread will suspend if it's hit.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   */
+  public void enableBreakpoint(Thread thread, String id) {
+    enableBreakpoint(thread, id, 1);
+  }
+
+  /**
+   * Enables a breakpoint so that the given thread will suspend on every Nth hit. The hits are
+   * counted by the thread itself, without any round trips to the driver thread.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   * @param every The number of hits per suspension, where 1 suspends on every hit.
+   */
+  public void enableBreakpoint(Thread thread, String id, int every) {
+    final ThreadData threadData = getThreadData(thread);
+    if (every < 1) {
+      throw new IllegalArgumentException("Hit count must be positive: " + every);
+    }
+
+    lock.lock();
+    try {
+      if (!threadData.enable(requireNonNull(id), every)) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' is already enabled");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Disables a breakpoint so that the given thread will suspend if it's hit.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   */
+  public void disableBreakpoint(Thread thread, String id) {
+    final ThreadData threadData = getThreadData(thread);
+
+    lock.lock();
+    try {
+      if (!threadData.disable(id)) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' is already disabled");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Injects a delay that the given thread imposes on itself each time it visits a breakpoint,
+   * whether the breakpoint is enabled or not. It replaces any previous delay of the breakpoint.
+   *
+   * <p>The thread times the delay itself, without any round trips to the driver thread. The delays
+   * that were actually imposed can be read from the given {@link ConTesterDelay}. Unlike the
+   * breakpoints, delays are kept while the thread is joined.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   * @param delay A delay, which can be shared between threads and breakpoints.
+   */
+  public void injectDelay(Thread thread, String id, ConTesterDelay delay) {
+    final ThreadData threadData = getThreadData(thread);
+
+    lock.lock();
+    try {
+      threadData.setDelay(requireNonNull(id), requireNonNull(delay));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes a delay injected with {@link #injectDelay}.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   */
+  public void removeDelay(Thread thread, String id) {
+    final ThreadData threadData = getThreadData(thread);
+
+    lock.lock();
+    try {
+      if (!threadData.removeDelay(id)) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' has no delay");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Enables all breakpoints matching a pattern, so that the given thread will suspend if any of
+   * them is hit.
+   *
+   * <p>Each breakpoint ID is matched against the patterns the first time the thread visits it, and
+   * the result is remembered until the patterns of the thread change, so visits don't pay for any
+   * pattern matching.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param pattern {@code "*"} for all breakpoints, or a prefix followed by {@code ".*"}, such as
+   *     {@code "cache.*"} for {@code "cache.load"} and {@code "cache.evict.lru"}.
+   */
+  public void enableBreakpoints(Thread thread, String pattern) {
+    final ThreadData threadData = getThreadData(thread);
+
+    lock.lock();
+    try {
+      if (!threadData.enablePattern(pattern)) {
+        throw new IllegalArgumentException("Breakpoints '" + pattern + "' are already enabled");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Disables breakpoints that were enabled by a pattern with {@link #enableBreakpoints}.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param pattern A pattern that is enabled for the thread.
+   */
+  public void disableBreakpoints(Thread thread, String pattern) {
+    final ThreadData threadData = getThreadData(thread);
+
+    lock.lock();
+    try {
+      if (!threadData.disablePattern(pattern)) {
+        throw new IllegalArgumentException("Breakpoints '" + pattern + "' are already disabled");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until the thread hits the given breakpoint.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs before
+   * the breakpoint is hit, an {@link AssertionError} will be thrown. The same goes as soon as the
+   * thread is found to be deadlocked, or blocked by a lock held by a suspended thread or the driver
+   * thread.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   */
+  public void waitForBreakpoint(Thread thread, String id) {
+    waitForBreakpoint(thread, id, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the thread hits the given breakpoint.
+   *
+   * <p>If the timeout occurs before the breakpoint is hit, or the thread throws an uncaught
+   * exception, an {@link AssertionError} will be thrown. The same goes as soon as the thread is
+   * found to be deadlocked, or blocked by a lock held by a suspended thread or the driver thread.
+   *
+   * @param thread A previously (implicitly or explicitly) registered thread.
+   * @param id A breakpoint ID.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForBreakpoint(Thread thread, String id, long timeout, TimeUnit timeUnit) {
+
+    if (stateOf(thread) == Thread.State.NEW) {
+      throw new IllegalArgumentException("Cannot wait for unstarted thread");
+    }
+
+    final ThreadData threadData = getThreadData(thread);
+
+    if (!isEnabled(threadData, id)) {
+      throw new IllegalArgumentException(
+          "Breakpoint '" + id + "' is not enabled for " + thread.getName());
+    }
+
+    awaitSuspension(thread, threadData, id, timeout, timeUnit);
+  }
+
+  /**
+   * Waits until the thread is blocked or terminated.
+   *
+   * <p>Use this to guarantee that the thread either is waiting to enter critical block held by
+   * another thread, or that it is done executing.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs before
+   * the breakpoint is hit, or the thread throws an uncaught exception, an {@link AssertionError}
+   * will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   */
+  public void waitForBlockedOrTerminated(Thread thread) {
+    waitForBlockedOrTerminated(thread, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the thread is blocked or terminated.
+   *
+   * <p>Use this to guarantee that the thread either is waiting to enter critical block held by
+   * another thread, or that it is done executing.
+   *
+   * <p>If the timeout occurs before the thread is blocked or finished, or the thread throws an
+   * uncaught exception, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForBlockedOrTerminated(Thread thread, long timeout, TimeUnit timeUnit) {
+    if (stateOf(thread) == Thread.State.NEW) {
+      throw new IllegalArgumentException("Cannot wait for unstarted thread");
+    }
+
+    Thread.State state;
+
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    do {
+      // TODO: Handle the case where the thread hits a breakpoint. Should they be disabled while
+      // waiting?
+      if (isSuspended(thread)) {
+        throw new IllegalArgumentException("Cannot wait while " + thread + " is suspended");
+      }
+
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      state = stateOf(thread);
+      if (System.nanoTime() >= endTime) {
+        break;
+      }
+    } while (state != Thread.State.BLOCKED
+        && state != Thread.State.TERMINATED
+        && state != Thread.State.WAITING);
+
+    if (state != Thread.State.BLOCKED
+        && state != Thread.State.TERMINATED
+        && state != Thread.State.WAITING) {
+      ConTesterEvents.waitTimedOut(thread, "blocked or terminated", timeUnit.toMillis(timeout));
+      throw new AssertionError(
+          String.format(
+              Locale.US,
+              "Thread state (%s) is not %s nor %s nor %s after %d ms",
+              state,
+              Thread.State.BLOCKED,
+              Thread.State.TERMINATED,
+              Thread.State.WAITING,
+              timeUnit.toMillis(timeout)));
+    }
+
+    if (stateOf(thread) == Thread.State.TERMINATED) {
+      final Optional<Throwable> uncaughtThrowable = getUncaughtThrowable(thread);
+      if (uncaughtThrowable.isPresent()) {
+        throw new AssertionError(thread + " threw an uncaught exception", uncaughtThrowable.get());
+      }
+    }
+  }
+
+  /**
+   * Waits until every started thread registered in this session is suspended at a breakpoint,
+   * blocked, waiting or terminated, i.e. until no thread makes progress on its own.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs first,
+   * or a thread has thrown an uncaught exception, an {@link AssertionError} will be thrown.
+   */
+  public void waitForQuiescence() {
+    waitForQuiescence(STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until every started thread registered in this session is suspended at a breakpoint,
+   * blocked, waiting or terminated, i.e. until no thread makes progress on its own.
+   *
+   * <p>Threads that suspend or terminate are no longer waited for, as they can't continue without
+   * the driver. The remaining threads are counted in a single pass over their states, which is
+   * repeated whenever a thread suspends, and otherwise with a backoff from a few microseconds to a
+   * millisecond, as blocking and waiting can't be observed through callbacks.
+   *
+   * <p>If the timeout occurs first, or a thread has thrown an uncaught exception, an {@link
+   * AssertionError} will be thrown.
+   *
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForQuiescence(long timeout, TimeUnit timeUnit) {
+    final List<Map.Entry<Thread, ThreadData>> pending;
+    lock.lock();
+    try {
+      pending = new ArrayList<>(threadRegistry.entrySet());
+    } finally {
+      lock.unlock();
+    }
+
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    long backoff = QUIESCENCE_MIN_BACKOFF_NANOS;
+    quiescenceWaiter = Thread.currentThread();
+    try {
+      while (countProgressing(pending) > 0) {
+        final long remaining = endTime - System.nanoTime();
+        if (remaining <= 0) {
+          final StringBuilder progressing = new StringBuilder();
+          for (Map.Entry<Thread, ThreadData> entry : pending) {
+            progressing.append(progressing.length() == 0 ? "" : ", ");
+            progressing.append(entry.getKey().getName()).append(" (");
+            progressing.append(stateOf(entry.getKey())).append(')');
+          }
+          ConTesterEvents.waitTimedOut(
+              Thread.currentThread(), "quiescence", timeUnit.toMillis(timeout));
+          throw new AssertionError(
+              "Threads are still making progress after "
+                  + timeUnit.toMillis(timeout)
+                  + " ms: "
+                  + progressing);
+        }
+        LockSupport.parkNanos(this, Math.min(backoff, remaining));
+        backoff = Math.min(backoff * 2, PROGRESS_CHECK_INTERVAL_NANOS);
+      }
+    } finally {
+      quiescenceWaiter = null;
+    }
+  }
+
+  /**
+   * Makes the registered threads, and the calling thread, read a virtual clock through {@link
+   * ConTesterTime}, which only advances through {@link #advanceTime} and {@link
+   * #advanceTimeToNextDeadline}. Time starts at the current real time.
+   *
+   * <p>This lets time-dependent code such as retries, leases and caches be tested without actually
+   * waiting, as the threads sleeping through {@link ConTesterTime#sleep} are woken as soon as the
+   * virtual time reaches their deadlines. The clock is disabled when the session is closed.
+   */
+  public void enableVirtualClock() {
+    lock.lock();
+    try {
+      if (virtualClock != null) {
+        throw new IllegalStateException("The virtual clock is already enabled");
+      }
+      final VirtualClock clock = new VirtualClock();
+      final Thread driver = Thread.currentThread();
+      if (VIRTUAL_CLOCK_DRIVERS.putIfAbsent(driver, clock) != null) {
+        throw new IllegalStateException(
+            driver + " already drives a virtual clock in another session");
+      }
+      VIRTUAL_CLOCK_COUNT.incrementAndGet();
+      virtualClockDriver = driver;
+      virtualClock = clock;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Advances the virtual clock by the given duration, one deadline at a time.
+   *
+   * <p>Before each deadline is reached, the woken threads are allowed to run until every started
+   * thread registered in this session is quiescent, see {@link #waitForQuiescence}, so that they
+   * can sleep again before the clock moves on. A 30 second lease renewed every 10 seconds thereby
+   * sees three renewals, without any real waiting.
+   *
+   * <p>If the threads don't become quiescent within the timeout as specified by {@link
+   * ConTesterDriver#STANDARD_TIMEOUT_MS}, an {@link AssertionError} will be thrown.
+   *
+   * @param duration A non-negative duration.
+   * @param timeUnit The time unit of the given duration.
+   */
+  public void advanceTime(long duration, TimeUnit timeUnit) {
+    if (duration < 0) {
+      throw new IllegalArgumentException("Duration must not be negative: " + duration);
+    }
+    final VirtualClock clock = requireVirtualClock();
+    final long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STANDARD_TIMEOUT_MS);
+    long remaining = timeUnit.toNanos(duration);
+    while (true) {
+      awaitVirtualClockQuiescence(clock, endTime);
+      final long next = clock.nanosToNextDeadline();
+      if (next < 0 || next > remaining) {
+        clock.advance(remaining);
+        return;
+      }
+      clock.advance(next);
+      remaining -= next;
+    }
+  }
+
+  /**
+   * Waits until every started thread registered in this session is quiescent, see {@link
+   * #waitForQuiescence}, and then advances the virtual clock to the earliest deadline of the
+   * sleeping threads, waking them.
+   *
+   * <p>If the threads don't become quiescent within the timeout as specified by {@link
+   * ConTesterDriver#STANDARD_TIMEOUT_MS}, an {@link AssertionError} will be thrown.
+   *
+   * @return Whether any thread was sleeping.
+   */
+  public boolean advanceTimeToNextDeadline() {
+    final VirtualClock clock = requireVirtualClock();
+    awaitVirtualClockQuiescence(
+        clock, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STANDARD_TIMEOUT_MS));
+    final long next = clock.nanosToNextDeadline();
+    if (next < 0) {
+      return false;
+    }
+    clock.advance(next);
+    return true;
+  }
+
+  private VirtualClock requireVirtualClock() {
+    final VirtualClock clock = virtualClock;
+    if (clock == null) {
+      throw new IllegalStateException("The virtual clock is not enabled");
+    }
+    return clock;
+  }
+
+  /**
+   * Waits for the woken sleepers to be scheduled, as they are still parked until then, and then
+   * for quiescence.
+   */
+  private void awaitVirtualClockQuiescence(VirtualClock clock, long endTime) {
+    long backoff = QUIESCENCE_MIN_BACKOFF_NANOS;
+    while (clock.hasPendingWakeups()) {
+      final long remaining = endTime - System.nanoTime();
+      if (remaining <= 0) {
+        throw new AssertionError("Woken threads were not scheduled within the timeout");
+      }
+      LockSupport.parkNanos(this, Math.min(backoff, remaining));
+      backoff = Math.min(backoff * 2, PROGRESS_CHECK_INTERVAL_NANOS);
+    }
+    waitForQuiescence(Math.max(0, endTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Profiles how long, and how many times, the threads registered in this session are blocked or
+   * waiting between consecutive breakpoints, and on which locks, to be reported by {@link
+   * #getContentionProfile}. The thread contention monitoring of the JVM is enabled until the
+   * session is closed, unless it's already enabled.
+   *
+   * <p>The threads created by the session after this call are profiled from their start, and any
+   * other threads from the first breakpoint they visit.
+   *
+   * @throws UnsupportedOperationException If the JVM doesn't support thread contention monitoring.
+   */
+  public void enableContentionProfiling() {
+    final ContentionProfiler profiler = new ContentionProfiler();
+    lock.lock();
+    try {
+      if (contentionProfiler != null) {
+        throw new IllegalStateException("Contention profiling is already enabled");
+      }
+      profiler.start();
+      contentionProfiler = profiler;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the contention profile of the registered threads, typically after they have been joined.
+   *
+   * @return A snapshot of the profile.
+   */
+  public ConTesterContentionProfile getContentionProfile() {
+    final ContentionProfiler profiler = contentionProfiler;
+    if (profiler == null) {
+      throw new IllegalStateException("Contention profiling is not enabled");
+    }
+    return profiler.snapshot();
+  }
+
+  /**
+   * Counts the threads that are making progress, and removes the ones that can't continue without
+   * the driver from the given list.
+   */
+  private int countProgressing(List<Map.Entry<Thread, ThreadData>> pending) {
+    int progressing = 0;
+    for (Iterator<Map.Entry<Thread, ThreadData>> iterator = pending.iterator();
+        iterator.hasNext(); ) {
+      final Map.Entry<Thread, ThreadData> entry = iterator.next();
+      final Thread thread = entry.getKey();
+      final ThreadData threadData = entry.getValue();
+      final Thread.State state = stateOf(thread);
+      if (state == Thread.State.TERMINATED) {
+        final Optional<Throwable> uncaughtThrowable = threadData.getUncaughtThrowable();
+        if (uncaughtThrowable.isPresent()) {
+          throw new AssertionError(
+              thread + " threw an uncaught exception", uncaughtThrowable.get());
+        }
+        iterator.remove();
+      } else if (state == Thread.State.NEW || threadData.isSuspended()) {
+        iterator.remove();
+      } else if (!threadData.handoff.isIdle()
+          || lock.hasQueuedThread(thread)
+          || REGISTERED_THREADS.isQueued(thread)) {
+        // Resumed but still parked until it notices, or briefly waiting for a lock of the driver
+        progressing++;
+      } else if (state != Thread.State.BLOCKED && state != Thread.State.WAITING) {
+        progressing++;
+      }
+    }
+    return progressing;
+  }
+
+  /**
+   * Waits until the thread is blocked on the given monitor or lock.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs before
+   * the thread is blocked on the monitor or lock, the thread terminates, or it can never make
+   * progress, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   */
+  public void waitForBlockedOn(Thread thread, Object monitorOrLock) {
+    waitForBlockedOn(thread, monitorOrLock, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the thread is blocked on the given monitor or lock.
+   *
+   * <p>If the timeout occurs before the thread is blocked on the monitor or lock, the thread
+   * terminates, or it can never make progress, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrLock The object of a {@code synchronized} block, or a {@link
+   *     java.util.concurrent.locks.Lock}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForBlockedOn(
+      Thread thread, Object monitorOrLock, long timeout, TimeUnit timeUnit) {
+    requireNonNull(monitorOrLock);
+    waitForLockState(
+        thread,
+        () -> LockGraph.isBlockedOn(thread, monitorOrLock),
+        "blocked on " + monitorOrLock,
+        timeout,
+        timeUnit);
+  }
+
+  /**
+   * Waits until the thread is waiting on the given monitor or condition.
+   *
+   * <p>If the timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs before
+   * the thread is waiting on the monitor or condition, the thread terminates, or it can never make
+   * progress, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   */
+  public void waitForWaitingOn(Thread thread, Object monitorOrCondition) {
+    waitForWaitingOn(thread, monitorOrCondition, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the thread is waiting on the given monitor or condition.
+   *
+   * <p>If the timeout occurs before the thread is waiting on the monitor or condition, the thread
+   * terminates, or it can never make progress, an {@link AssertionError} will be thrown.
+   *
+   * @param thread A thread, registered or unregistered, different from the driver thread.
+   * @param monitorOrCondition The object of an {@link Object#wait()} call, or a {@link
+   *     java.util.concurrent.locks.Condition}.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void waitForWaitingOn(
+      Thread thread, Object monitorOrCondition, long timeout, TimeUnit timeUnit) {
+    requireNonNull(monitorOrCondition);
+    waitForLockState(
+        thread,
+        () -> LockGraph.isWaitingOn(thread, monitorOrCondition),
+        "waiting on " + monitorOrCondition,
+        timeout,
+        timeUnit);
+  }
+
+  /**
+   * Asynchronously waits until the thread is blocked or terminated.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs first, or if the
+   * thread throws an uncaught exception, and with an {@link IllegalArgumentException} if the thread
+   * suspends.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @return A future that completes when the thread is blocked or terminated.
+   */
+  public CompletableFuture<Void> waitForBlockedOrTerminatedAsync(Thread thread) {
+    return waitForBlockedOrTerminatedAsync(thread, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Asynchronously waits until the thread is blocked or terminated.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout occurs first, or if the thread throws an uncaught exception, and with an {@link
+   * IllegalArgumentException} if the thread suspends.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes when the thread is blocked or terminated.
+   */
+  public CompletableFuture<Void> waitForBlockedOrTerminatedAsync(
+      Thread thread, long timeout, TimeUnit timeUnit) {
+    final ThreadData threadData = getThreadData(thread);
+
+    if (stateOf(thread) == Thread.State.NEW) {
+      throw new IllegalArgumentException("Cannot wait for unstarted thread");
+    }
+
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    ThreadWatcher.watch(
+        future,
+        () -> {
+          final Thread.State state = stateOf(thread);
+          if (state == Thread.State.TERMINATED) {
+            if (threadData.getUncaughtThrowable().isPresent()) {
+              future.completeExceptionally(terminatedError(thread, threadData));
+            } else {
+              future.complete(null);
+            }
+          } else if (threadData.isSuspended()) {
+            future.completeExceptionally(
+                new IllegalArgumentException("Cannot wait while " + thread + " is suspended"));
+          } else if (state == Thread.State.BLOCKED || state == Thread.State.WAITING) {
+            future.complete(null);
+          } else if (System.nanoTime() >= endTime) {
+            ConTesterEvents.waitTimedOut(
+                thread, "blocked or terminated", timeUnit.toMillis(timeout));
+            future.completeExceptionally(
+                new AssertionError(
+                    String.format(
+                        Locale.US,
+                        "Thread state (%s) is not %s nor %s nor %s after %d ms",
+                        state,
+                        Thread.State.BLOCKED,
+                        Thread.State.TERMINATED,
+                        Thread.State.WAITING,
+                        timeUnit.toMillis(timeout))));
+          }
+        });
+    return future;
+  }
+
+  /**
+   * Resume execution after being suspended at a breakpoint.
+   *
+   * <p>It is considered an error to resume a thread if it is not suspended.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   */
+  public void resume(Thread thread) {
+    if (!resumeThread(thread, getThreadData(thread))) {
+      throw new AssertionError("Thread is not suspended");
+    }
+  }
+
+  /**
+   * Waits for a thread to finish executing.
+   *
+   * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
+   * automatically resumed.
+   *
+   * <p>If the thread is found to be deadlocked, or blocked by a lock held by a suspended thread or
+   * the driver thread, an {@link AssertionError} will be thrown without waiting for the timeout.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   */
+  public void join(final Thread thread) {
+    join(thread, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits for a thread to finish executing.
+   *
+   * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
+   * automatically resumed.
+   *
+   * <p>If the thread is found to be deadlocked, or blocked by a lock held by a suspended thread or
+   * the driver thread, an {@link AssertionError} will be thrown without waiting for the timeout.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   */
+  public void join(final Thread thread, long timeout, TimeUnit timeUnit) {
+    releaseForJoin(thread);
+
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    try {
+      while (isAlive(thread)) {
+        final long remaining = endTime - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        timedJoin(thread, Math.min(remaining, PROGRESS_CHECK_INTERVAL_NANOS));
+        if (isAlive(thread)) {
+          checkProgress(thread);
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    if (isAlive(thread)) {
+      ConTesterEvents.waitTimedOut(thread, "termination", timeUnit.toMillis(timeout));
+      throw new AssertionError(thread.getName() + " is still alive");
+    }
+
+    final Optional<Throwable> uncaughtThrowable = getUncaughtThrowable(thread);
+    if (uncaughtThrowable.isPresent()) {
+      throw new AssertionError(thread + " threw an uncaught exception", uncaughtThrowable.get());
+    }
+  }
+
+  /**
+   * Asynchronously waits for a thread to finish executing.
+   *
+   * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
+   * automatically resumed.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout (as specified by {@link ConTesterDriver#STANDARD_TIMEOUT_MS}) occurs first, or if the
+   * thread throws an uncaught exception.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @return A future that completes when the thread has terminated.
+   */
+  public CompletableFuture<Void> joinAsync(final Thread thread) {
+    return joinAsync(thread, STANDARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Asynchronously waits for a thread to finish executing.
+   *
+   * <p>All its breakpoints will be disabled and if it is currently suspended, it will be
+   * automatically resumed.
+   *
+   * <p>The returned future is completed exceptionally with an {@link AssertionError} if the
+   * timeout occurs first, or if the thread throws an uncaught exception.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return A future that completes when the thread has terminated.
+   */
+  public CompletableFuture<Void> joinAsync(final Thread thread, long timeout, TimeUnit timeUnit) {
+    final ThreadData threadData = releaseForJoin(thread);
+
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    ThreadWatcher.watch(
+        future,
+        () -> {
+          if (!isAlive(thread)) {
+            if (threadData.getUncaughtThrowable().isPresent()) {
+              future.completeExceptionally(terminatedError(thread, threadData));
+            } else {
+              future.complete(null);
+            }
+          } else if (System.nanoTime() >= endTime) {
+            ConTesterEvents.waitTimedOut(thread, "termination", timeUnit.toMillis(timeout));
+            future.completeExceptionally(new AssertionError(thread.getName() + " is still alive"));
+          }
+        });
+    return future;
+  }
+
+  /**
+   * Gets any uncaught {@link Throwable} from a registered and terminated {@link Thread}.
+   *
+   * @param thread A registered thread, different from the driver thread.
+   * @return The uncaught throwable or null if none was thrown.
+   */
+  public Optional<Throwable> getUncaughtThrowable(final Thread thread) {
+    final ThreadData threadData = getThreadData(thread);
+
+    if (isAlive(thread)) {
+      throw new IllegalStateException(thread + " is alive, must be terminated");
+    }
+
+    return threadData.getUncaughtThrowable();
+  }
+
+  /**
+   * Disables all breakpoints, resumes all suspended threads and unregisters all threads.
+   *
+   * <p>The session can be reused afterwards.
+   */
+  @Override
+  public void close() {
+    final List<Map.Entry<Thread, ThreadData>> entries;
+    final List<ConTesterTask> closedTasks;
+    final List<HeldStage> releasedStages;
+    final RunTo runTo;
+    final VirtualClock clock;
+    final ContentionProfiler profiler;
+    lock.lock();
+    try {
+      runTo = anyRunTo;
+      anyRunTo = null;
+      profiler = contentionProfiler;
+      contentionProfiler = null;
+      clock = virtualClock;
+      if (clock != null) {
+        virtualClock = null;
+        VIRTUAL_CLOCK_DRIVERS.remove(virtualClockDriver, clock);
+        VIRTUAL_CLOCK_COUNT.decrementAndGet();
+        virtualClockDriver = null;
+      }
+      entries = new ArrayList<>(threadRegistry.entrySet());
+      threadRegistry.clear();
+      threadDataById.clear();
+      for (Map.Entry<Thread, ThreadData> entry : entries) {
+        entry.getValue().disableAll();
+      }
+      closedTasks = new ArrayList<>(tasks);
+      tasks.clear();
+      for (ConTesterTask task : closedTasks) {
+        task.getState().disableAll();
+      }
+      releasedStages = new ArrayList<>(heldStages);
+      heldStages.clear();
+    } finally {
+      lock.unlock();
+    }
+    if (runTo != null) {
+      runTo.future.cancel(false);
+    }
+    if (clock != null) {
+      clock.wakeAll();
+    }
+    if (profiler != null) {
+      profiler.stop();
+    }
+    for (ConTesterTask task : closedTasks) {
+      resumeTask(task);
+    }
+    for (HeldStage heldStage : releasedStages) {
+      heldStage.stage.complete(null);
+    }
+
+    for (Map.Entry<Thread, ThreadData> entry : entries) {
+      final ThreadData threadData = entry.getValue();
+      cancelRunTo(threadData);
+      // MAYBE: Log a warning that a thread was suspended while tearing down
+      resumeThread(entry.getKey(), threadData);
+      UncaughtThrowableRecorder.uninstall(entry.getKey(), threadData);
+      REGISTERED_THREADS.remove(entry.getKey(), threadData);
+      if (entry.getKey() instanceof PooledThread) {
+        ((PooledThread) entry.getKey()).release();
+      }
+    }
+  }
+
+  /** Gets the virtual clock read by the calling thread, or null if it reads real time. */
+  static VirtualClock currentVirtualClock() {
+    if (VIRTUAL_CLOCK_COUNT.get() == 0) {
+      return null;
+    }
+    final Thread thread = Thread.currentThread();
+    final ThreadData threadData = REGISTERED_THREADS.get(thread);
+    if (threadData != null) {
+      final VirtualClock clock = threadData.session.virtualClock;
+      if (clock != null) {
+        return clock;
+      }
+    }
+    return VIRTUAL_CLOCK_DRIVERS.get(thread);
+  }
+
+  /** Called from production code. */
+  static long nanoTime() {
+    final VirtualClock clock = currentVirtualClock();
+    return clock != null ? clock.nanoTime() : System.nanoTime();
+  }
+
+  /** Called from production code. */
+  static void sleep(long nanos) throws InterruptedException {
+    final VirtualClock clock = currentVirtualClock();
+    if (clock != null) {
+      clock.sleep(nanos);
+    } else {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+  }
+
+  /**
+   * Called from production code. It only suspends if the given condition evaluates to {@code true}.
+   */
+  static void visitBreakpoint(String id, BooleanSupplier condition) {
+    final ThreadData threadData = REGISTERED_THREADS.get(Thread.currentThread());
+
+    if (threadData != null && threadData.session.visit(threadData, id, condition)) {
+      return;
+    }
+
+    final ConTesterTask task = ConTesterTask.current();
+    if (task != null) {
+      task.getSession().visit(task, id, condition);
+    }
+    // Otherwise, the thread is unknown, maybe because it's not a tested one
+  }
+
+  /** Returns whether the thread suspended. */
+  private boolean visit(ThreadData threadData, String id, BooleanSupplier condition) {
+    final ContentionProfiler profiler = contentionProfiler;
+    if (profiler != null) {
+      profiler.enter(id);
+    }
+    final ConTesterDelay delay = threadData.getDelay(id);
+    if (delay != null) {
+      delay.impose();
+    }
+
+    final boolean suspend;
+    final RunTo runTo;
+    if (threadData.runTo == null && anyRunTo == null && !threadData.mayBeEnabled(id)) {
+      // Most visits can't hit a breakpoint, and don't take the lock
+      suspend = false;
+      runTo = null;
+    } else {
+      // A hit is decided and the suspension published under the lock, so that the driver can't
+      // disable the breakpoint, join the thread or close the session in between
+      lock.lock();
+      try {
+        final boolean hit;
+        if (threadData.runTo != null) {
+          // Focus mode, i.e. all other breakpoints are ignored
+          runTo = threadData.runTo;
+          hit = runTo.id.equals(id) && condition.getAsBoolean() && --runTo.remainingHits == 0;
+        } else if (anyRunTo != null && anyRunTo.id.equals(id)) {
+          runTo = anyRunTo;
+          hit = condition.getAsBoolean();
+        } else {
+          runTo = null;
+          hit = threadData.isEnabled(id) && condition.getAsBoolean() && threadData.countHit(id);
+        }
+        if (hit) {
+          suspend = true;
+          threadData.handoff.suspend(id);
+          if (runTo != null && runTo == anyRunTo) {
+            runTo.thread = Thread.currentThread();
+            anyRunTo = null;
+          } else {
+            // This can only be mutation tested by injecting a custom wait time in waitForBreakpoint
+            threadData.runTo = null;
+          }
+        } else {
+          suspend = false;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    ConTesterEvents.breakpointVisited(id, suspend);
+    if (suspend) {
+      if (runTo != null) {
+        runTo.future.complete(null);
+      }
+      LockSupport.unpark(quiescenceWaiter);
+      awaitResume(threadData.handoff, id);
+    }
+    if (profiler != null) {
+      profiler.leave(id);
+    }
+    return suspend;
+  }
+
+  private void visit(ConTesterTask task, String id, BooleanSupplier condition) {
+    final BreakpointState state = task.getState();
+    final boolean suspend;
+    if (!state.mayBeEnabled(id)) {
+      suspend = false;
+    } else {
+      lock.lock();
+      try {
+        // Only one thread of the task can be suspended at a time
+        suspend =
+            state.isEnabled(id)
+                && state.handoff.isIdle()
+                && condition.getAsBoolean()
+                && state.countHit(id);
+        if (suspend) {
+          state.handoff.suspend(id);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    ConTesterEvents.breakpointVisited(id, suspend);
+    if (suspend) {
+      awaitResume(state.handoff, id);
+    }
+  }
+
+  /** Called from production code. */
+  static CompletionStage<Void> visitAsyncBreakpoint(String id) {
+    final ThreadData threadData = REGISTERED_THREADS.get(Thread.currentThread());
+    if (threadData != null) {
+      final CompletionStage<Void> stage = threadData.session.visitAsync(threadData, id);
+      if (stage != null) {
+        return stage;
+      }
+    }
+
+    final ConTesterTask task = ConTesterTask.current();
+    if (task != null) {
+      final CompletionStage<Void> stage = task.getSession().visitAsync(task.getState(), id);
+      if (stage != null) {
+        return stage;
+      }
+    }
+    return COMPLETED_STAGE;
+  }
+
+  /** Returns a held stage, or null if the breakpoint isn't enabled. */
+  private CompletionStage<Void> visitAsync(BreakpointState state, String id) {
+    final CompletableFuture<Void> stage;
+    if (!state.mayBeEnabled(id)) {
+      stage = null;
+    } else {
+      lock.lock();
+      try {
+        if (!state.isEnabled(id)) {
+          stage = null;
+        } else {
+          stage = new CompletableFuture<>();
+          heldStages.add(new HeldStage(id, stage));
+          heldStageAdded.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    ConTesterEvents.breakpointVisited(id, stage != null);
+    return stage;
+  }
+
+  private int indexOfHeldStage(String id) {
+    for (int i = 0; i < heldStages.size(); i++) {
+      if (heldStages.get(i).id.equals(id)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static void awaitResume(Handoff handoff, String id) {
+    final Object suspension = ConTesterEvents.suspensionBegun(id);
+    try {
+      handoff.awaitResume();
+    } finally {
+      ConTesterEvents.suspensionEnded(suspension);
+    }
+  }
+
+  /** Gets the data of a thread registered in this session. */
+  private ThreadData getThreadData(final Thread thread) {
+    lock.lock();
+    try {
+      final ThreadData threadData = threadRegistry.get(thread);
+      if (threadData == null) {
+        throw new IllegalArgumentException("The thread " + thread + " is not registered");
+      }
+      return threadData;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Associates metadata with a given thread that tracks its interactions with breakpoints, and any
+   * uncaught throwable.
+   */
+  private void registerIfNecessary(final Thread thread) {
+    final boolean registered;
+    lock.lock();
+    try {
+      registered = threadRegistry.containsKey(thread);
+    } finally {
+      lock.unlock();
+    }
+    if (!registered) {
+      register(thread);
+    }
+  }
+
+  private void startIfNecessary(final Thread thread) {
+    if (stateOf(thread) == Thread.State.NEW) {
+      start(thread);
+    }
+  }
+
+  /** Gets whether a registered thread is suspended at a breakpoint. */
+  boolean isSuspended(Thread thread) {
+    return getThreadData(thread).isSuspended();
+  }
+
+  private boolean isEnabled(ThreadData threadData, String id) {
+    lock.lock();
+    try {
+      return threadData.isEnabled(id);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Makes a thread ignore all breakpoints except the given one, until it has been hit.
+   *
+   * @return The pending {@link RunTo}.
+   */
+  private RunTo focus(Thread thread, ThreadData threadData, String id, int hitCount) {
+    if (hitCount < 1) {
+      throw new IllegalArgumentException("Hit count must be positive: " + hitCount);
+    }
+    final RunTo runTo = new RunTo(requireNonNull(id), hitCount);
+    lock.lock();
+    try {
+      if (threadData.runTo != null) {
+        throw new IllegalStateException(
+            thread.getName() + " is already running to breakpoint '" + threadData.runTo.id + "'");
+      }
+      threadData.runTo = runTo;
+    } finally {
+      lock.unlock();
+    }
+    return runTo;
+  }
+
+  /** Gets the state of a thread, where a pooled thread terminates when its task is done. */
+  static Thread.State stateOf(Thread thread) {
+    return thread instanceof PooledThread
+        ? ((PooledThread) thread).getTaskState()
+        : thread.getState();
+  }
+
+  private static boolean isAlive(Thread thread) {
+    final Thread.State state = stateOf(thread);
+    return state != Thread.State.NEW && state != Thread.State.TERMINATED;
+  }
+
+  private static void timedJoin(Thread thread, long nanos) throws InterruptedException {
+    if (thread instanceof PooledThread) {
+      ((PooledThread) thread).awaitTaskDone(nanos);
+    } else {
+      TimeUnit.NANOSECONDS.timedJoin(thread, nanos);
+    }
+  }
+
+  /** Waits until the thread suspends, which it is expected to do on the given breakpoint. */
+  private void awaitSuspension(
+      Thread thread, ThreadData threadData, String id, long timeout, TimeUnit timeUnit) {
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    String suspended = threadData.getSuspended();
+    while (suspended == null) {
+      final long remaining = endTime - System.nanoTime();
+      if (remaining <= 0) {
+        break;
+      }
+      // The thread unparks this one as it suspends, so the slices only bound the progress checks
+      suspended =
+          threadData.handoff.awaitSuspended(Math.min(remaining, PROGRESS_CHECK_INTERVAL_NANOS));
+      if (suspended == null) {
+        if (stateOf(thread) == Thread.State.TERMINATED) {
+          suspended = threadData.getSuspended();
+          if (suspended == null) {
+            throw terminatedError(thread, threadData);
+          }
+        } else {
+          checkProgress(thread);
+        }
+      }
+    }
+    if (suspended == null) {
+      ConTesterEvents.waitTimedOut(thread, "breakpoint '" + id + "'", timeUnit.toMillis(timeout));
+      throw new AssertionError(
+          "Breakpoint wasn't hit within "
+              + timeout
+              + " "
+              + timeUnit.toString().toLowerCase(Locale.ROOT));
+    } else if (!suspended.equals(id)) {
+      throw new AssertionError(
+          "Thread suspended on unexpected breakpoint '" + suspended + "', expected '" + id + "'");
+    }
+  }
+
+  /** Polls the state of a thread until it fulfills the given lock state. */
+  private void waitForLockState(
+      Thread thread,
+      BooleanSupplier lockState,
+      String description,
+      long timeout,
+      TimeUnit timeUnit) {
+    if (stateOf(thread) == Thread.State.NEW) {
+      throw new IllegalArgumentException("Cannot wait for unstarted thread");
+    }
+
+    final ThreadData threadData = getThreadData(thread);
+    final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+    long nextProgressCheck = System.nanoTime() + PROGRESS_CHECK_INTERVAL_NANOS;
+    while (!lockState.getAsBoolean()) {
+      if (threadData.isSuspended()) {
+        throw new IllegalArgumentException("Cannot wait while " + thread + " is suspended");
+      }
+
+      if (stateOf(thread) == Thread.State.TERMINATED) {
+        throw terminatedError(thread, threadData);
+      }
+
+      final long now = System.nanoTime();
+      if (now >= endTime) {
+        ConTesterEvents.waitTimedOut(thread, description, timeUnit.toMillis(timeout));
+        throw new AssertionError(
+            String.format(
+                Locale.US,
+                "%s is not %s after %d ms: %s",
+                thread.getName(),
+                description,
+                timeUnit.toMillis(timeout),
+                LockGraph.describeLockState(thread)));
+      }
+
+      if (now >= nextProgressCheck) {
+        try {
+          checkProgress(thread);
+        } catch (AssertionError e) {
+          // Being stuck on the lock might be the very state that is waited for
+          if (lockState.getAsBoolean()) {
+            return;
+          }
+          throw e;
+        }
+        nextProgressCheck = System.nanoTime() + PROGRESS_CHECK_INTERVAL_NANOS;
+      }
+
+      LockSupport.parkNanos(LOCK_STATE_POLL_INTERVAL_NANOS);
+    }
+  }
+
+  /**
+   * Fails fast if the thread can never make progress while the driver thread waits for it, i.e. if
+   * it is deadlocked, or blocked on a lock held by a suspended thread or by the driver thread.
+   */
+  private void checkProgress(final Thread thread) {
+    final Thread driverThread = Thread.currentThread();
+    final String deadEnd =
+        LockGraph.findDeadEnd(
+            thread,
+            ownerId -> {
+              if (ownerId == driverThread.getId()) {
+                return "is the driver thread";
+              }
+              final ThreadData ownerData = threadDataById.get(ownerId);
+              final String suspended = ownerData == null ? null : ownerData.getSuspended();
+              return suspended == null ? null : "is suspended at breakpoint '" + suspended + "'";
+            });
+    if (deadEnd != null) {
+      throw new AssertionError(deadEnd);
+    }
+  }
+
+  /** Disables all breakpoints of a thread that is about to be joined, and resumes it. */
+  private ThreadData releaseForJoin(final Thread thread) {
+    final ThreadData threadData = getThreadData(thread);
+    lock.lock();
+    try {
+      threadData.disableAll();
+    } finally {
+      lock.unlock();
+    }
+
+    cancelRunTo(threadData);
+
+    resumeThread(thread, threadData);
+    return threadData;
+  }
+
+  /**
+   * Resumes a thread if it is suspended.
+   *
+   * @return Whether it was suspended.
+   */
+  private static boolean resumeThread(final Thread thread, final ThreadData threadData) {
+    final String suspended = threadData.handoff.resume();
+    if (suspended == null) {
+      return false;
+    }
+    ConTesterEvents.resumed(thread, suspended);
+    return true;
+  }
+
+  private void checkTask(ConTesterTask task) {
+    if (task.getSession() != this) {
+      throw new IllegalArgumentException(task + " belongs to another session");
+    }
+  }
+
+  private static boolean resumeTask(ConTesterTask task) {
+    final Handoff handoff = task.getState().handoff;
+    final Thread thread = handoff.getOwner();
+    final String suspended = handoff.resume();
+    if (suspended == null) {
+      return false;
+    }
+    ConTesterEvents.resumed(thread, suspended);
+    return true;
+  }
+
+  /** Clears a pending {@link #runAnyToBreakpoint}, unless it has already been hit. */
+  private boolean clearAnyRunTo(final RunTo runTo) {
+    lock.lock();
+    try {
+      if (anyRunTo != runTo) {
+        return false;
+      }
+      anyRunTo = null;
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  /** Cancels the pending {@link RunTo} of a thread, if any. */
+  private void cancelRunTo(final ThreadData threadData) {
+    final RunTo runTo;
+    lock.lock();
+    try {
+      runTo = threadData.runTo;
+    } finally {
+      lock.unlock();
+    }
+    if (clearRunTo(threadData, runTo)) {
+      runTo.future.cancel(false);
+    }
+  }
+
+  /**
+   * Clears a pending {@link RunTo} of a thread, unless it has already been hit or replaced.
+   *
+   * @return Whether it was cleared, in which case the caller is responsible for completing its
+   *     future.
+   */
+  private boolean clearRunTo(final ThreadData threadData, final RunTo runTo) {
+    if (runTo == null) {
+      return false;
+    }
+    lock.lock();
+    try {
+      if (threadData.runTo != runTo) {
+        return false;
+      }
+      threadData.runTo = null;
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  private static AssertionError terminatedError(final Thread thread, final ThreadData threadData) {
+    final Optional<Throwable> uncaughtThrowable = threadData.getUncaughtThrowable();
+    if (uncaughtThrowable.isPresent()) {
+      return new AssertionError(thread + " threw an uncaught exception", uncaughtThrowable.get());
+    } else {
+      return new AssertionError(thread + " has terminated");
+    }
+  }
+
+  private void resumeIfNecessary(final Thread thread) {
+    if (isSuspended(thread)) {
+      resume(thread);
+    }
+  }
+
+  /** Records the uncaught throwable of a registered thread. */
+  private static final class UncaughtThrowableRecorder implements Thread.UncaughtExceptionHandler {
+
+    private final ThreadData threadData;
+    private final Thread.UncaughtExceptionHandler installedExceptionHandler;
+
+    UncaughtThrowableRecorder(
+        ThreadData threadData, Thread.UncaughtExceptionHandler installedExceptionHandler) {
+      this.threadData = threadData;
+      this.installedExceptionHandler = installedExceptionHandler;
+    }
+
+    @Override
+    public void uncaughtException(Thread t, Throwable e) {
+      threadData.setUncaughtThrowable(e);
+      // Only call through if there was a custom exception handler installed
+      if (!installedExceptionHandler.equals(t.getThreadGroup())) {
+        installedExceptionHandler.uncaughtException(t, e);
+      }
+    }
+
+    /**
+     * Restores the previously installed exception handler of a thread, so that handlers aren't
+     * nested if the thread is registered again.
+     */
+    static void uninstall(Thread thread, ThreadData threadData) {
+      final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+      if (handler instanceof UncaughtThrowableRecorder) {
+        final UncaughtThrowableRecorder recorder = (UncaughtThrowableRecorder) handler;
+        if (recorder.threadData == threadData) {
+          final Thread.UncaughtExceptionHandler installed = recorder.installedExceptionHandler;
+          // The thread group is the implicit handler, unless the thread has terminated
+          thread.setUncaughtExceptionHandler(
+              installed == null || installed.equals(thread.getThreadGroup()) ? null : installed);
+        }
+      }
+    }
+  }
+
+  /** A pending request to run a thread to a breakpoint, guarded by the session lock. */
+  private static final class RunTo {
+
+    private final String id;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    /** The number of hits left until the thread suspends. */
+    private int remainingHits;
+
+    /** The thread that hit the breakpoint of a {@link #runAnyToBreakpoint}. */
+    private Thread thread;
+
+    RunTo(String id) {
+      this(id, 1);
+    }
+
+    RunTo(String id, int hitCount) {
+      this.id = id;
+      this.remainingHits = hitCount;
+    }
+  }
+
+  private static final class HeldStage {
+
+    private final String id;
+    private final CompletableFuture<Void> stage;
+
+    HeldStage(String id, CompletableFuture<Void> stage) {
+      this.id = id;
+      this.stage = stage;
+    }
+  }
+
+  /** A fork join worker, which can only be created by a subclass. */
+  private static final class ControlledForkJoinWorkerThread extends ForkJoinWorkerThread {
+    ControlledForkJoinWorkerThread(ForkJoinPool pool) {
+      super(pool);
+    }
+  }
+
+  /**
+   * The state of a registered thread. Except for the uncaught throwable and the handoff, it is
+   * guarded by the session lock.
+   */
+  private static final class ThreadData extends BreakpointState {
+
+    private final ConTesterSession session;
+    private volatile Throwable uncaughtThrowable;
+
+    /** A pending run to a breakpoint, guarded by the lock, and volatile like {@link #anyRunTo}. */
+    private volatile RunTo runTo;
+
+    ThreadData(ConTesterSession session) {
+      this.session = session;
+    }
+
+    Optional<Throwable> getUncaughtThrowable() {
+      return Optional.ofNullable(uncaughtThrowable);
+    }
+
+    void setUncaughtThrowable(Throwable throwable) {
+      this.uncaughtThrowable = throwable;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Lets a {@link ConTesterRemoteDriver} in another JVM control the threads of this JVM through a
+ * memory-mapped file, see {@link ConTesterRemoteDriver#createSharedMemory}. This requires Java 11
+ * or later.
+ *
+ * <p>Unlike with {@link ConTesterRemoteAgent}, no driver thread is involved in this JVM. A thread
+ * that visits a breakpoint looks up the slot claimed for its name, which is cached until the driver
+ * claims or releases a slot, and reads its enabled breakpoints from the shared memory. If it hits
+ * one, it spins briefly and then parks in short intervals until the driver resumes it, as it cannot
+ * be unparked from another process. Only synchronous breakpoints are supported.
+ */
+public final class ConTesterSharedMemoryAgent implements AutoCloseable {
+
+  /** How long to spin before parking. */
+  private static final long SPIN_NANOS = 20_000;
+
+  /** How long to park at a time, which bounds the resume latency once spinning has ended. */
+  private static final long PARK_NANOS = 50_000;
+
+  private static final AtomicReference<ConTesterSharedMemoryAgent> ATTACHED =
+      new AtomicReference<>();
+
+  private final SharedChannel channel;
+
+  /** The slot and breakpoint ID indices of each thread, as last read from the shared memory. */
+  private final ThreadLocal<Visitor> visitors = ThreadLocal.withInitial(Visitor::new);
+
+  private ConTesterSharedMemoryAgent(SharedChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Attaches this JVM to a shared memory file. Only one agent can be attached at a time.
+   *
+   * @param file A file created by the driver.
+   * @return An agent, which detaches when closed.
+   */
+  public static ConTesterSharedMemoryAgent attach(Path file) {
+    final ConTesterSharedMemoryAgent agent =
+        new ConTesterSharedMemoryAgent(SharedChannel.open(file));
+    if (!ATTACHED.compareAndSet(null, agent)) {
+      throw new IllegalStateException("A shared memory agent is already attached");
+    }
+    return agent;
+  }
+
+  /** Detaches from the shared memory. Threads suspended by it must be resumed by the driver. */
+  @Override
+  public void close() {
+    ATTACHED.compareAndSet(this, null);
+  }
+
+  static boolean isAttached() {
+    return ATTACHED.get() != null;
+  }
+
+  /** Called on every breakpoint visit while attached. */
+  static void visitBreakpoint(String id, BooleanSupplier condition) {
+    final ConTesterSharedMemoryAgent agent = ATTACHED.get();
+    if (agent != null) {
+      agent.visit(id, condition);
+    }
+  }
+
+  private void visit(String id, BooleanSupplier condition) {
+    final Visitor visitor = visitors.get();
+    final int slot = visitor.slotOf(channel);
+    if (slot < 0) {
+      return;
+    }
+    final int index = visitor.indexOf(channel, id);
+    if (index < 0) {
+      return;
+    }
+
+    final int runTo = channel.getRunTo(slot);
+    final boolean hit;
+    if (runTo != 0) {
+      // Focus mode, i.e. all other breakpoints are ignored
+      hit =
+          runTo == index + 1 && condition.getAsBoolean() && channel.clearRunTo(slot, runTo);
+    } else {
+      hit = (channel.getEnabled(slot) & (1L << index)) != 0 && condition.getAsBoolean();
+    }
+    ConTesterEvents.breakpointVisited(id, hit);
+    if (hit) {
+      final Object suspension = ConTesterEvents.suspensionBegun(id);
+      try {
+        awaitResume(slot, index);
+      } finally {
+        ConTesterEvents.suspensionEnded(suspension);
+      }
+    }
+  }
+
+  private void awaitResume(int slot, int index) {
+    channel.suspend(slot, index);
+    final long spinEnd = System.nanoTime() + SPIN_NANOS;
+    while (channel.getState(slot) != SharedChannel.RESUMING) {
+      if (Thread.interrupted()) {
+        if (channel.compareAndSetState(slot, SharedChannel.SUSPENDED, SharedChannel.RUNNING)) {
+          throw new RuntimeException(new InterruptedException());
+        }
+        // It has been resumed concurrently, so the interrupt is kept for later
+        Thread.currentThread().interrupt();
+      } else if (System.nanoTime() - spinEnd < 0) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+    }
+    channel.resumed(slot);
+  }
+
+  private static final class Visitor {
+    private int generation = -1;
+    private int slot = -1;
+    private int idCount;
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    int slotOf(SharedChannel channel) {
+      final int current = channel.getGeneration();
+      if (current != generation) {
+        generation = current;
+        slot = channel.findSlot(Thread.currentThread().getName());
+      }
+      return slot;
+    }
+
+    int indexOf(SharedChannel channel, String id) {
+      Integer index = ids.get(id);
+      if (index == null) {
+        final int count = channel.getIdCount();
+        if (count == idCount) {
+          return -1;
+        }
+        for (int i = idCount; i < count; i++) {
+          ids.put(channel.getId(i), i);
+        }
+        idCount = count;
+        index = ids.get(id);
+      }
+      return index == null ? -1 : index;
+    }
+  }
+}
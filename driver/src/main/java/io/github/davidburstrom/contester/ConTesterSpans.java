@@ -0,0 +1,555 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static java.util.Objects.requireNonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Profiles the spans between pairs of breakpoints, such as {@code request.start} to {@code
+ * request.end}, from all threads, registered or not, without suspending them.
+ *
+ * <p>When a thread visits the end ID of a span after visiting its start ID, the wall time, the
+ * thread CPU time and the bytes allocated by the thread in between are recorded in histograms per
+ * span. The CPU time and allocated bytes are read from the {@link ThreadMXBean}, and aren't
+ * recorded if the JVM doesn't support measuring them. This lets breakpoint sites double as latency
+ * probes in load tests.
+ *
+ * <p>The profiling is disabled by default, and costs a single volatile read per visit while
+ * disabled. While enabled, recording a span doesn't allocate, as the histograms have fixed
+ * logarithmic buckets with a relative precision of about 6%.
+ */
+public final class ConTesterSpans {
+
+  /** Guards the configuration of spans. */
+  private static final ReentrantLock LOCK = new ReentrantLock();
+
+  /** The configured spans, by start and end ID, guarded by the lock. */
+  private static final Map<List<String>, Recorder> SPANS = new LinkedHashMap<>();
+
+  /**
+   * The open spans of each thread, indexed by {@link Recorder#index}. A span is open if its first
+   * element is the {@link Recorder#epoch} of the recorder, so that spans opened before the spans
+   * were removed aren't ended by the recorders that reuse their indices.
+   */
+  private static final ThreadLocal<long[]> OPEN_SPANS = ThreadLocal.withInitial(() -> new long[0]);
+
+  /** The recorders by start ID, replaced when the configuration changes. */
+  private static volatile Map<String, Recorder[]> starts = Collections.emptyMap();
+
+  /** The recorders by end ID, replaced when the configuration changes. */
+  private static volatile Map<String, Recorder[]> ends = Collections.emptyMap();
+
+  private static volatile boolean enabled;
+
+  /** The number of configured spans, guarded by the lock. */
+  private static int recorderCount;
+
+  /** Incremented when the spans are removed, guarded by the lock. */
+  private static long epoch = 1;
+
+  /** Prohibit instantiation */
+  private ConTesterSpans() {}
+
+  /** Starts profiling the configured spans. */
+  public static void enable() {
+    enabled = true;
+  }
+
+  /** Stops profiling. Already recorded spans are retained. */
+  public static void disable() {
+    enabled = false;
+  }
+
+  /**
+   * Configures a span to profile.
+   *
+   * @param startId The breakpoint ID where the span starts.
+   * @param endId The breakpoint ID where the span ends, on the same thread.
+   */
+  public static void addSpan(String startId, String endId) {
+    final List<String> key = Arrays.asList(requireNonNull(startId), requireNonNull(endId));
+    LOCK.lock();
+    try {
+      if (SPANS.containsKey(key)) {
+        throw new IllegalArgumentException(
+            "Span '" + startId + "' to '" + endId + "' has already been added");
+      }
+      SPANS.put(key, new Recorder(startId, endId, recorderCount++, epoch));
+      publish();
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /** Removes all configured spans, and their recordings. */
+  public static void removeSpans() {
+    LOCK.lock();
+    try {
+      SPANS.clear();
+      recorderCount = 0;
+      epoch++;
+      publish();
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /** Discards all recorded spans, but retains the configuration. */
+  public static void reset() {
+    LOCK.lock();
+    try {
+      for (Recorder recorder : SPANS.values()) {
+        recorder.reset();
+      }
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gets the recorded spans.
+   *
+   * @return Immutable snapshots of the configured spans, in the order they were added.
+   */
+  public static List<Span> getSpans() {
+    final List<Span> spans = new ArrayList<>();
+    LOCK.lock();
+    try {
+      for (Recorder recorder : SPANS.values()) {
+        spans.add(recorder.snapshot());
+      }
+    } finally {
+      LOCK.unlock();
+    }
+    return Collections.unmodifiableList(spans);
+  }
+
+  /**
+   * Gets a recorded span.
+   *
+   * @param startId The breakpoint ID where the span starts.
+   * @param endId The breakpoint ID where the span ends.
+   * @return An immutable snapshot of the span.
+   */
+  public static Span getSpan(String startId, String endId) {
+    LOCK.lock();
+    try {
+      final Recorder recorder = SPANS.get(Arrays.asList(startId, endId));
+      if (recorder == null) {
+        throw new IllegalArgumentException(
+            "Span '" + startId + "' to '" + endId + "' has not been added");
+      }
+      return recorder.snapshot();
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Called on every breakpoint visit while enabled, before the visit. */
+  static void visit(String id) {
+    final Recorder[] ending = ends.get(id);
+    final Recorder[] starting = starts.get(id);
+    if (ending == null && starting == null) {
+      return;
+    }
+    final long wallNanos = System.nanoTime();
+    final long cpuNanos = ThreadProbes.cpuNanos();
+    final long allocatedBytes = ThreadProbes.allocatedBytes();
+    long[] openSpans = OPEN_SPANS.get();
+
+    // Spans end before they start, so that a breakpoint can end a span and start the next one
+    if (ending != null) {
+      for (Recorder recorder : ending) {
+        final int offset = recorder.index * 4;
+        if (offset < openSpans.length && openSpans[offset] == recorder.epoch) {
+          openSpans[offset] = 0;
+          recorder.record(
+              wallNanos - openSpans[offset + 1],
+              cpuNanos < 0 ? -1 : cpuNanos - openSpans[offset + 2],
+              allocatedBytes < 0 ? -1 : allocatedBytes - openSpans[offset + 3]);
+        }
+      }
+    }
+    if (starting != null) {
+      for (Recorder recorder : starting) {
+        final int offset = recorder.index * 4;
+        if (offset >= openSpans.length) {
+          openSpans = Arrays.copyOf(openSpans, Math.max(openSpans.length * 2, offset + 4));
+          OPEN_SPANS.set(openSpans);
+        }
+        // A span that is started again before it ends is restarted
+        openSpans[offset] = recorder.epoch;
+        openSpans[offset + 1] = wallNanos;
+        openSpans[offset + 2] = cpuNanos;
+        openSpans[offset + 3] = allocatedBytes;
+      }
+    }
+  }
+
+  /** Rebuilds the lookup maps of the visiting threads, while holding the lock. */
+  private static void publish() {
+    final Map<String, List<Recorder>> newStarts = new HashMap<>();
+    final Map<String, List<Recorder>> newEnds = new HashMap<>();
+    for (Recorder recorder : SPANS.values()) {
+      newStarts.computeIfAbsent(recorder.startId, id -> new ArrayList<>()).add(recorder);
+      newEnds.computeIfAbsent(recorder.endId, id -> new ArrayList<>()).add(recorder);
+    }
+    ends = toArrays(newEnds);
+    starts = toArrays(newStarts);
+  }
+
+  private static Map<String, Recorder[]> toArrays(Map<String, List<Recorder>> recorders) {
+    final Map<String, Recorder[]> arrays = new HashMap<>();
+    recorders.forEach((id, list) -> arrays.put(id, list.toArray(new Recorder[0])));
+    return arrays;
+  }
+
+  /**
+   * Reads the resource usage of the current thread. It's initialized on the first recorded span,
+   * as it enables the measurements in the JVM if they're supported but disabled.
+   */
+  private static final class ThreadProbes {
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static final boolean CPU_TIME_SUPPORTED = isCpuTimeSupported();
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_MX_BEAN =
+        allocationMxBeanOrNull();
+
+    /** Returns the CPU time of the current thread, or -1 if it's not supported. */
+    static long cpuNanos() {
+      return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+    }
+
+    /** Returns the bytes allocated by the current thread, or -1 if it's not supported. */
+    static long allocatedBytes() {
+      if (ALLOCATION_MX_BEAN == null) {
+        return -1;
+      }
+      return ALLOCATION_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isCpuTimeSupported() {
+      try {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+            && !THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+          THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
+        }
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+            && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+      } catch (UnsupportedOperationException | SecurityException e) {
+        return false;
+      }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMxBeanOrNull() {
+      if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)) {
+        return null;
+      }
+      final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+      try {
+        if (bean.isThreadAllocatedMemorySupported() && !bean.isThreadAllocatedMemoryEnabled()) {
+          bean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()
+            ? bean
+            : null;
+      } catch (UnsupportedOperationException | SecurityException e) {
+        return null;
+      }
+    }
+  }
+
+  /** Records the spans between a pair of breakpoints. */
+  private static final class Recorder {
+    private final String startId;
+    private final String endId;
+    private final int index;
+    private final long epoch;
+    private final Histogram wallNanos = new Histogram();
+    private final Histogram cpuNanos = new Histogram();
+    private final Histogram allocatedBytes = new Histogram();
+
+    Recorder(String startId, String endId, int index, long epoch) {
+      this.startId = startId;
+      this.endId = endId;
+      this.index = index;
+      this.epoch = epoch;
+    }
+
+    void record(long wall, long cpu, long allocated) {
+      wallNanos.record(wall);
+      if (cpu >= 0) {
+        cpuNanos.record(cpu);
+      }
+      if (allocated >= 0) {
+        allocatedBytes.record(allocated);
+      }
+    }
+
+    void reset() {
+      wallNanos.reset();
+      cpuNanos.reset();
+      allocatedBytes.reset();
+    }
+
+    Span snapshot() {
+      return new Span(
+          startId,
+          endId,
+          wallNanos.snapshot(),
+          cpuNanos.snapshot(),
+          allocatedBytes.snapshot());
+    }
+  }
+
+  /**
+   * A concurrent histogram of non-negative values, with linear buckets below {@link #SUB_BUCKETS}
+   * and {@link #SUB_BUCKETS} buckets per power of two above.
+   */
+  private static final class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+      // The clocks are monotonic, but a measurement can still come out negative on some platforms
+      final long clamped = Math.max(0, value);
+      counts.incrementAndGet(indexOf(clamped));
+      sum.addAndGet(clamped);
+      max.accumulateAndGet(clamped, Math::max);
+    }
+
+    void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts.set(i, 0);
+      }
+      sum.set(0);
+      max.set(0);
+    }
+
+    Distribution snapshot() {
+      final long[] snapshot = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = counts.get(i);
+      }
+      return new Distribution(snapshot, sum.get(), max.get());
+    }
+
+    static int indexOf(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      final int exponent = 63 - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** The highest value that falls into the given bucket. */
+    static long highestValueOf(int index) {
+      if (index < SUB_BUCKETS) {
+        return index;
+      }
+      final int shift = index / SUB_BUCKETS - 1;
+      final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+      return lowest + (1L << shift) - 1;
+    }
+  }
+
+  /** The recorded spans between a pair of breakpoints. */
+  public static final class Span {
+    private final String startId;
+    private final String endId;
+    private final Distribution wallNanos;
+    private final Distribution cpuNanos;
+    private final Distribution allocatedBytes;
+
+    Span(
+        String startId,
+        String endId,
+        Distribution wallNanos,
+        Distribution cpuNanos,
+        Distribution allocatedBytes) {
+      this.startId = startId;
+      this.endId = endId;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Gets the breakpoint ID where the span starts.
+     *
+     * @return A breakpoint ID.
+     */
+    public String getStartId() {
+      return startId;
+    }
+
+    /**
+     * Gets the breakpoint ID where the span ends.
+     *
+     * @return A breakpoint ID.
+     */
+    public String getEndId() {
+      return endId;
+    }
+
+    /**
+     * Gets the wall time of the spans.
+     *
+     * @return A distribution of nanoseconds.
+     */
+    public Distribution getWallNanos() {
+      return wallNanos;
+    }
+
+    /**
+     * Gets the thread CPU time of the spans, which is empty if it's not supported by the JVM.
+     *
+     * @return A distribution of nanoseconds.
+     */
+    public Distribution getCpuNanos() {
+      return cpuNanos;
+    }
+
+    /**
+     * Gets the bytes allocated by the thread during the spans, which is empty if it's not
+     * supported by the JVM.
+     *
+     * @return A distribution of bytes.
+     */
+    public Distribution getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return startId
+          + " -> "
+          + endId
+          + ": wall "
+          + wallNanos
+          + " ns, cpu "
+          + cpuNanos
+          + " ns, allocated "
+          + allocatedBytes
+          + " B";
+    }
+  }
+
+  /** A snapshot of a histogram of recorded values. */
+  public static final class Distribution {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Distribution(long[] counts, long sum, long max) {
+      this.counts = counts;
+      long total = 0;
+      for (long bucketCount : counts) {
+        total += bucketCount;
+      }
+      this.count = total;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return A count.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return The mean, or zero if there are none.
+     */
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The exact maximum, or zero if there are none.
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Gets the value that the given percentage of the recorded values are less than or equal to.
+     *
+     * @param percentile A percentile between 0 and 100.
+     * @return An upper bound of the value, within the precision of the histogram, or zero if there
+     *     are none.
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+      }
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(Histogram.highestValueOf(i), max);
+        }
+      }
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.ROOT,
+          "count=%d mean=%.1f p50=%d p99=%d max=%d",
+          count,
+          getMean(),
+          getValueAtPercentile(50),
+          getValueAtPercentile(99),
+          max);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics about breakpoint visits from all threads, registered or not.
+ *
+ * <p>This is typically used by profilers, e.g. to find out how many breakpoints a benchmark
+ * visits. The collection is disabled by default, and costs a single volatile read per visit while
+ * disabled.
+ */
+public final class ConTesterStatistics {
+
+  private static final Map<String, LongAdder> VISITS = new ConcurrentHashMap<>();
+  private static final LongAdder VISIT_NANOS = new LongAdder();
+  private static volatile boolean enabled;
+
+  /** Prohibit instantiation */
+  private ConTesterStatistics() {}
+
+  /** Starts collecting statistics. */
+  public static void enable() {
+    enabled = true;
+  }
+
+  /** Stops collecting statistics. Already collected statistics are retained. */
+  public static void disable() {
+    enabled = false;
+  }
+
+  /** Discards all collected statistics. */
+  public static void reset() {
+    VISITS.clear();
+    VISIT_NANOS.reset();
+  }
+
+  /**
+   * Gets the number of visits per breakpoint ID.
+   *
+   * @return An immutable snapshot of the visit counts.
+   */
+  public static Map<String, Long> getVisitCounts() {
+    final Map<String, Long> visitCounts = new HashMap<>();
+    VISITS.forEach((id, count) -> visitCounts.put(id, count.sum()));
+    return Collections.unmodifiableMap(visitCounts);
+  }
+
+  /**
+   * Gets the total time spent visiting breakpoints, including any time spent suspended.
+   *
+   * @return The time in nanoseconds.
+   */
+  public static long getVisitNanos() {
+    return VISIT_NANOS.sum();
+  }
+
+  static boolean isEnabled() {
+    return enabled;
+  }
+
+  static void recordVisit(String id, long nanos) {
+    VISITS.computeIfAbsent(id, k -> new LongAdder()).increment();
+    VISIT_NANOS.add(nanos);
+  }
+}
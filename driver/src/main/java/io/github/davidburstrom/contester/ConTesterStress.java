@@ -0,0 +1,371 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a scenario of concurrent actors a large number of times, and aggregates the observed
+ * outcomes into a histogram, to find interleavings that are too rare to be found by hand.
+ *
+ * <p>Each iteration creates a fresh state, which all actors act on concurrently, after which an
+ * arbiter observes the outcome. If any actor throws, the outcome is the class names of the
+ * throwables instead. For example, for a producer and a consumer:
+ *
+ * <pre>{@code
+ * ConTesterStress.Histogram histogram =
+ *     ConTesterStress.of(Underflow.Broken::new)
+ *         .actor(Underflow::produce)
+ *         .actor(Underflow::consume)
+ *         .jitter("produce")
+ *         .run(1_000_000);
+ * }</pre>
+ *
+ * <p>The actors run on pooled threads registered in a session of their own, and a group of actor
+ * threads is run per available core. Rather than creating threads or synchronizing per iteration,
+ * the actors of a group step through a batch of states in lockstep, and only synchronize between
+ * batches. To perturb the interleavings, each actor can impose a random micro-pause on itself at
+ * given breakpoints, see {@link ConTesterDelay#jitter}.
+ *
+ * @param <S> The type of the state the actors act on.
+ */
+public final class ConTesterStress<S> {
+
+  /** The number of states the actors of a group step through between synchronizations. */
+  private static final int BATCH_SIZE = 1024;
+
+  private static final String COMPLETED = "completed";
+
+  private final Supplier<? extends S> stateFactory;
+  private final List<Consumer<? super S>> actors = new ArrayList<>();
+  private final Map<String, ConTesterDelay> jitters = new LinkedHashMap<>();
+  private Function<? super S, ?> arbiter = state -> COMPLETED;
+  private int parallelism;
+
+  private ConTesterStress(Supplier<? extends S> stateFactory) {
+    this.stateFactory = requireNonNull(stateFactory);
+  }
+
+  /**
+   * Creates a stress runner without any actors.
+   *
+   * @param stateFactory Creates a fresh state for each iteration.
+   * @param <S> The type of the state.
+   * @return A stress runner.
+   */
+  public static <S> ConTesterStress<S> of(Supplier<? extends S> stateFactory) {
+    return new ConTesterStress<>(stateFactory);
+  }
+
+  /**
+   * Adds an actor, which runs concurrently with the other actors in each iteration.
+   *
+   * @param actor Acts on the state of an iteration.
+   * @return This runner.
+   */
+  public ConTesterStress<S> actor(Consumer<? super S> actor) {
+    actors.add(requireNonNull(actor));
+    return this;
+  }
+
+  /**
+   * Sets the arbiter, which observes the state once all actors of an iteration are done. By
+   * default, the outcome is {@code "completed"} unless an actor throws.
+   *
+   * @param arbiter Gets the outcome of the state, which is aggregated by its string value.
+   * @return This runner.
+   */
+  public ConTesterStress<S> arbiter(Function<? super S, ?> arbiter) {
+    this.arbiter = requireNonNull(arbiter);
+    return this;
+  }
+
+  /**
+   * Makes the actors impose a random micro-pause of at most a microsecond on themselves at a
+   * breakpoint, or no pause at all.
+   *
+   * @param id A breakpoint ID.
+   * @return This runner.
+   */
+  public ConTesterStress<S> jitter(String id) {
+    return jitter(id, ConTesterDelay.jitter(1, TimeUnit.MICROSECONDS));
+  }
+
+  /**
+   * Makes the actors impose a delay on themselves at a breakpoint.
+   *
+   * @param id A breakpoint ID.
+   * @param delay A delay, typically created by {@link ConTesterDelay#jitter}.
+   * @return This runner.
+   */
+  public ConTesterStress<S> jitter(String id, ConTesterDelay delay) {
+    jitters.put(requireNonNull(id), requireNonNull(delay));
+    return this;
+  }
+
+  /**
+   * Sets the number of groups of actor threads that run concurrently. By default, it's the number
+   * of available processors divided by the number of actors, but at least one.
+   *
+   * @param parallelism A positive number of groups.
+   * @return This runner.
+   */
+  public ConTesterStress<S> parallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Runs the scenario until it has been iterated the given number of times, without a timeout.
+   *
+   * <p>If the actors are found to be deadlocked, or if the arbiter throws, an {@link
+   * AssertionError} is thrown.
+   *
+   * @param iterations A positive number of iterations.
+   * @return The observed outcomes.
+   */
+  public Histogram run(long iterations) {
+    return run(iterations, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Runs the scenario until it has been iterated the given number of times.
+   *
+   * <p>If the timeout occurs first, if the actors are found to be deadlocked, or if the arbiter
+   * throws, an {@link AssertionError} is thrown.
+   *
+   * @param iterations A positive number of iterations.
+   * @param timeout A duration.
+   * @param timeUnit The time unit of the given timeout.
+   * @return The observed outcomes.
+   */
+  public Histogram run(long iterations, long timeout, TimeUnit timeUnit) {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+    }
+    if (actors.isEmpty()) {
+      throw new IllegalStateException("There are no actors");
+    }
+    final int groupCount =
+        parallelism > 0
+            ? parallelism
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / actors.size());
+    final AtomicLong remaining = new AtomicLong(iterations);
+    final List<Group> groups = new ArrayList<>(groupCount);
+    final List<Thread> threads = new ArrayList<>(groupCount * actors.size());
+
+    final ConTesterSession session = new ConTesterSession("ConTester Stress");
+    boolean joined = false;
+    try {
+      for (int i = 0; i < groupCount; i++) {
+        final Group group = new Group(remaining);
+        groups.add(group);
+        for (int actor = 0; actor < actors.size(); actor++) {
+          final int index = actor;
+          final Thread thread = session.pooledThread(() -> group.runActor(index));
+          for (Map.Entry<String, ConTesterDelay> jitter : jitters.entrySet()) {
+            session.injectDelay(thread, jitter.getKey(), jitter.getValue());
+          }
+          threads.add(thread);
+        }
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+
+      final long endTime = System.nanoTime() + timeUnit.toNanos(timeout);
+      for (Thread thread : threads) {
+        session.join(thread, endTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+      joined = true;
+    } finally {
+      if (!joined) {
+        // Unblocks the actors waiting for a batch that will never come
+        for (Thread thread : threads) {
+          thread.interrupt();
+        }
+      }
+      session.close();
+    }
+
+    final Map<String, Long> counts = new HashMap<>();
+    for (Group group : groups) {
+      group.counts.forEach((outcome, count) -> counts.merge(outcome, count, Long::sum));
+    }
+    return new Histogram(counts);
+  }
+
+  /** A group of actor threads, which step through batches of states in lockstep. */
+  private final class Group {
+    private final AtomicLong remaining;
+    private final CyclicBarrier barrier;
+    private final List<S> states = new ArrayList<>(BATCH_SIZE);
+    private final Throwable[][] throwables = new Throwable[actors.size()][BATCH_SIZE];
+    private final Map<String, Long> counts = new HashMap<>();
+
+    Group(AtomicLong remaining) {
+      this.remaining = remaining;
+      this.barrier = new CyclicBarrier(actors.size(), this::nextBatch);
+    }
+
+    void runActor(int index) {
+      final Consumer<? super S> actor = actors.get(index);
+      final Throwable[] actorThrowables = throwables[index];
+      try {
+        while (true) {
+          barrier.await();
+          if (states.isEmpty()) {
+            return;
+          }
+          for (int i = 0; i < states.size(); i++) {
+            try {
+              actor.accept(states.get(i));
+            } catch (Throwable t) { // NOPMD
+              actorThrowables[i] = t;
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (BrokenBarrierException e) {
+        // Another actor of the group has failed, and is reported by its thread
+      }
+    }
+
+    /** Called by the last actor to arrive at the barrier, while the others wait. */
+    private void nextBatch() {
+      for (int i = 0; i < states.size(); i++) {
+        counts.merge(outcomeOf(i), 1L, Long::sum);
+      }
+
+      states.clear();
+      final long claimed = Math.min(BATCH_SIZE, remaining.getAndAdd(-BATCH_SIZE));
+      for (int i = 0; i < claimed; i++) {
+        states.add(stateFactory.get());
+      }
+    }
+
+    private String outcomeOf(int i) {
+      StringBuilder thrown = null;
+      for (Throwable[] actorThrowables : throwables) {
+        final Throwable throwable = actorThrowables[i];
+        if (throwable != null) {
+          actorThrowables[i] = null;
+          if (thrown == null) {
+            thrown = new StringBuilder();
+          } else {
+            thrown.append(", ");
+          }
+          thrown.append(throwable.getClass().getName());
+        }
+      }
+      return thrown != null ? thrown.toString() : String.valueOf(arbiter.apply(states.get(i)));
+    }
+  }
+
+  /** The outcomes observed by a stress run, with their frequencies. */
+  public static final class Histogram {
+    private final Map<String, Long> counts;
+    private final long total;
+
+    Histogram(Map<String, Long> counts) {
+      final List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+      entries.sort(
+          Map.Entry.<String, Long>comparingByValue()
+              .reversed()
+              .thenComparing(Map.Entry.comparingByKey()));
+      final Map<String, Long> sorted = new LinkedHashMap<>();
+      long sum = 0;
+      for (Map.Entry<String, Long> entry : entries) {
+        sorted.put(entry.getKey(), entry.getValue());
+        sum += entry.getValue();
+      }
+      this.counts = Collections.unmodifiableMap(sorted);
+      this.total = sum;
+    }
+
+    /**
+     * Gets the observed outcomes.
+     *
+     * @return The number of times each outcome was observed, most frequent first.
+     */
+    public Map<String, Long> getCounts() {
+      return counts;
+    }
+
+    /**
+     * Gets the number of times an outcome was observed.
+     *
+     * @param outcome An outcome.
+     * @return A count, which is zero if it was never observed.
+     */
+    public long getCount(String outcome) {
+      return counts.getOrDefault(outcome, 0L);
+    }
+
+    /**
+     * Gets the fraction of iterations that had an outcome.
+     *
+     * @param outcome An outcome.
+     * @return A frequency between 0 and 1.
+     */
+    public double getFrequency(String outcome) {
+      return (double) getCount(outcome) / total;
+    }
+
+    /**
+     * Gets the total number of iterations.
+     *
+     * @return A count.
+     */
+    public long getTotal() {
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      for (Map.Entry<String, Long> entry : counts.entrySet()) {
+        builder.append(
+            String.format(
+                Locale.ROOT,
+                "%12d %8.4f%% %s%n",
+                entry.getValue(),
+                100.0 * entry.getValue() / total,
+                entry.getKey()));
+      }
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * A logical task, such as a request, whose breakpoints follow it across the threads that execute
+ * it, for example through the stages of a {@link java.util.concurrent.CompletableFuture}.
+ *
+ * <p>The task is current while work submitted through an executor wrapped by {@link #executor} is
+ * running, or a {@link Runnable} or {@link Supplier} wrapped by {@link #wrap} or {@link
+ * #wrapSupplier}. An executor wrapped by {@link #propagatingExecutor} carries the current task over
+ * to the work submitted to it. Use {@link ConTesterSession#task} to create a task, and {@link
+ * ConTesterSession#enableBreakpoint(ConTesterTask, String)} to enable breakpoints for it.
+ *
+ * <p>A task is suspended on one thread at a time. If other threads visit an enabled breakpoint
+ * while it's suspended, they continue.
+ *
+ * <pre>{@code
+ * ConTesterTask request = session.task("request 42");
+ * session.enableBreakpoint(request, "parse");
+ * CompletableFuture.runAsync(this::receive, request.executor(io))
+ *     .thenRunAsync(this::parse, request.executor(workers));
+ * session.waitForBreakpoint(request, "parse");
+ * session.resume(request);
+ * }</pre>
+ */
+public final class ConTesterTask {
+
+  private static final ThreadLocal<ConTesterTask> CURRENT = new ThreadLocal<>();
+
+  /** Avoids looking up the current task until any task has been used. */
+  private static volatile boolean used;
+
+  private final ConTesterSession session;
+  private final String name;
+
+  /** The breakpoint state, guarded by the session lock. */
+  private final BreakpointState state = new BreakpointState();
+
+  ConTesterTask(ConTesterSession session, String name) {
+    this.session = session;
+    this.name = name;
+  }
+
+  /**
+   * Gets the name of the task.
+   *
+   * @return The name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Wraps a {@link Runnable} so that this task is current while it runs.
+   *
+   * @param runnable A runnable.
+   * @return A runnable that runs the given one as part of this task.
+   */
+  public Runnable wrap(Runnable runnable) {
+    used = true;
+    return () -> {
+      final ConTesterTask previous = CURRENT.get();
+      CURRENT.set(this);
+      try {
+        runnable.run();
+      } finally {
+        restore(previous);
+      }
+    };
+  }
+
+  /**
+   * Wraps a {@link Supplier} so that this task is current while it runs.
+   *
+   * @param supplier A supplier.
+   * @param <T> The type of the supplied value.
+   * @return A supplier that runs the given one as part of this task.
+   */
+  public <T> Supplier<T> wrapSupplier(Supplier<T> supplier) {
+    used = true;
+    return () -> {
+      final ConTesterTask previous = CURRENT.get();
+      CURRENT.set(this);
+      try {
+        return supplier.get();
+      } finally {
+        restore(previous);
+      }
+    };
+  }
+
+  /**
+   * Wraps an {@link Executor} so that this task is current while the work submitted to it runs.
+   *
+   * @param executor An executor.
+   * @return An executor that runs work as part of this task.
+   */
+  public Executor executor(Executor executor) {
+    return runnable -> executor.execute(wrap(runnable));
+  }
+
+  /**
+   * Wraps an {@link Executor} so that any task that is current when work is submitted is also
+   * current while the work runs, regardless of which thread runs it.
+   *
+   * <p>Note that a {@link java.util.concurrent.CompletableFuture} submits a dependent stage from
+   * the thread that completes the previous stage, after the work of that stage has returned. Use
+   * {@link #executor} to run such stages as part of a task.
+   *
+   * @param executor An executor.
+   * @return An executor that propagates the current task to the given one.
+   */
+  public static Executor propagatingExecutor(Executor executor) {
+    return runnable -> {
+      final ConTesterTask task = current();
+      executor.execute(task == null ? runnable : task.wrap(runnable));
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "ConTesterTask[" + name + "]";
+  }
+
+  ConTesterSession getSession() {
+    return session;
+  }
+
+  BreakpointState getState() {
+    return state;
+  }
+
+  /**
+   * Gets the task of the current thread.
+   *
+   * @return The task, or null if there is none.
+   */
+  static ConTesterTask current() {
+    return used ? CURRENT.get() : null;
+  }
+
+  private static void restore(ConTesterTask previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+}
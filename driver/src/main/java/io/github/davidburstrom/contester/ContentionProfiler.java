@@ -0,0 +1,242 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Attributes the time and number of times that the threads of a session are blocked or waiting to
+ * the segments between consecutive breakpoints, using the contention monitoring of the {@link
+ * ThreadMXBean}.
+ *
+ * <p>Each thread reads its own counters as it visits a breakpoint, and closes the segment since the
+ * previous one. The time a thread is suspended by the driver is left out, by reading the counters
+ * again once it's resumed. The locks are found by sampling the profiled threads on the shared
+ * {@link ThreadWatcher} thread, as only the current lock of a thread can be observed.
+ */
+final class ContentionProfiler {
+
+  static final String START = "<start>";
+  static final String END = "<end>";
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  /** Guards the contention monitoring state of the JVM, which is shared by all profilers. */
+  private static final ReentrantLock MONITORING_LOCK = new ReentrantLock();
+
+  private static int profilerCount;
+  private static boolean enabledByProfilers;
+
+  private final Map<Thread, ThreadProfile> profiles = new ConcurrentHashMap<>();
+  private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+  /**
+   * Enables contention monitoring unless already enabled, and starts sampling the locks.
+   *
+   * @throws UnsupportedOperationException If the JVM doesn't support contention monitoring.
+   */
+  void start() {
+    if (!THREAD_MX_BEAN.isThreadContentionMonitoringSupported()) {
+      throw new UnsupportedOperationException("Thread contention monitoring is not supported");
+    }
+    MONITORING_LOCK.lock();
+    try {
+      if (profilerCount++ == 0 && !THREAD_MX_BEAN.isThreadContentionMonitoringEnabled()) {
+        THREAD_MX_BEAN.setThreadContentionMonitoringEnabled(true);
+        enabledByProfilers = true;
+      }
+    } finally {
+      MONITORING_LOCK.unlock();
+    }
+    ThreadWatcher.watch(stopped, this::sample);
+  }
+
+  /** Stops sampling, and disables contention monitoring unless it was enabled by someone else. */
+  void stop() {
+    stopped.complete(null);
+    MONITORING_LOCK.lock();
+    try {
+      if (--profilerCount == 0 && enabledByProfilers) {
+        THREAD_MX_BEAN.setThreadContentionMonitoringEnabled(false);
+        enabledByProfilers = false;
+      }
+    } finally {
+      MONITORING_LOCK.unlock();
+    }
+  }
+
+  /** Called by a thread of the session as it starts running its task. */
+  void begin() {
+    final Thread thread = Thread.currentThread();
+    final ThreadProfile profile = new ThreadProfile();
+    profile.open(START);
+    profiles.put(thread, profile);
+  }
+
+  /** Called by a thread of the session as it finishes running its task. */
+  void end() {
+    final ThreadProfile profile = profiles.get(Thread.currentThread());
+    if (profile != null) {
+      profile.close(END);
+    }
+  }
+
+  /** Called by a thread of the session as it visits a breakpoint, before it may suspend. */
+  void enter(String id) {
+    final ThreadProfile profile = profiles.get(Thread.currentThread());
+    if (profile != null) {
+      profile.close(id);
+    } else {
+      // The thread was started before profiling, so it's profiled from its first breakpoint
+      profiles.put(Thread.currentThread(), new ThreadProfile());
+    }
+  }
+
+  /** Called by a thread of the session as it leaves a breakpoint, after it may have suspended. */
+  void leave(String id) {
+    final ThreadProfile profile = profiles.get(Thread.currentThread());
+    if (profile != null) {
+      profile.open(id);
+    }
+  }
+
+  ConTesterContentionProfile snapshot() {
+    final List<ConTesterContentionProfile.ThreadSegments> threads = new ArrayList<>();
+    profiles.forEach(
+        (thread, profile) -> {
+          final List<ConTesterContentionProfile.Segment> segments = new ArrayList<>();
+          profile.segments.forEach(
+              (fromTo, segment) -> segments.add(segment.snapshot(fromTo.get(0), fromTo.get(1))));
+          threads.add(new ConTesterContentionProfile.ThreadSegments(thread, segments));
+        });
+    return new ConTesterContentionProfile(threads);
+  }
+
+  /** Samples the locks of the threads that are blocked or waiting within a segment. */
+  private void sample() {
+    profiles.forEach(
+        (thread, profile) -> {
+          final OpenSegment open = profile.open;
+          if (open == null) {
+            return;
+          }
+          final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(thread.getId());
+          if (threadInfo == null || threadInfo.getLockName() == null) {
+            return;
+          }
+          switch (threadInfo.getThreadState()) {
+            case BLOCKED:
+            case WAITING:
+            case TIMED_WAITING:
+              open.lockSamples
+                  .computeIfAbsent(threadInfo.getLockName(), lockName -> new AtomicLong())
+                  .incrementAndGet();
+              break;
+            default:
+              break;
+          }
+        });
+  }
+
+  /** The segments of a thread, which are only updated by the thread itself. */
+  private static final class ThreadProfile {
+    private final Map<List<String>, SegmentCounters> segments = new ConcurrentHashMap<>();
+
+    /** The segment being run, or null while suspended. */
+    private volatile OpenSegment open;
+
+    void open(String from) {
+      final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(Thread.currentThread().getId());
+      open = new OpenSegment(from, threadInfo);
+    }
+
+    void close(String to) {
+      final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(Thread.currentThread().getId());
+      final OpenSegment closed = open;
+      open = null;
+      if (closed != null && threadInfo != null) {
+        segments
+            .computeIfAbsent(Arrays.asList(closed.from, to), fromTo -> new SegmentCounters())
+            .add(closed, threadInfo);
+      }
+    }
+  }
+
+  /** The counters of a thread at the start of a segment, and the locks sampled since. */
+  private static final class OpenSegment {
+    private final String from;
+    private final long blockedCount;
+    private final long blockedTime;
+    private final long waitedCount;
+    private final long waitedTime;
+    private final Map<String, AtomicLong> lockSamples = new ConcurrentHashMap<>();
+
+    OpenSegment(String from, ThreadInfo threadInfo) {
+      this.from = from;
+      this.blockedCount = threadInfo != null ? threadInfo.getBlockedCount() : 0;
+      this.blockedTime = threadInfo != null ? Math.max(0, threadInfo.getBlockedTime()) : 0;
+      this.waitedCount = threadInfo != null ? threadInfo.getWaitedCount() : 0;
+      this.waitedTime = threadInfo != null ? Math.max(0, threadInfo.getWaitedTime()) : 0;
+    }
+  }
+
+  /** The totals of all the passes of a thread through a segment. */
+  private static final class SegmentCounters {
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong blockedTime = new AtomicLong();
+    private final AtomicLong waitedCount = new AtomicLong();
+    private final AtomicLong waitedTime = new AtomicLong();
+    private final Map<String, AtomicLong> lockSamples = new ConcurrentHashMap<>();
+
+    void add(OpenSegment open, ThreadInfo closing) {
+      passes.incrementAndGet();
+      blockedCount.addAndGet(closing.getBlockedCount() - open.blockedCount);
+      blockedTime.addAndGet(Math.max(0, closing.getBlockedTime()) - open.blockedTime);
+      waitedCount.addAndGet(closing.getWaitedCount() - open.waitedCount);
+      waitedTime.addAndGet(Math.max(0, closing.getWaitedTime()) - open.waitedTime);
+      open.lockSamples.forEach(
+          (lockName, samples) ->
+              lockSamples
+                  .computeIfAbsent(lockName, name -> new AtomicLong())
+                  .addAndGet(samples.get()));
+    }
+
+    ConTesterContentionProfile.Segment snapshot(String from, String to) {
+      final Map<String, Long> samples = new ConcurrentHashMap<>();
+      lockSamples.forEach((lockName, count) -> samples.put(lockName, count.get()));
+      return new ConTesterContentionProfile.Segment(
+          from,
+          to,
+          passes.get(),
+          blockedCount.get(),
+          blockedTime.get(),
+          waitedCount.get(),
+          waitedTime.get(),
+          samples);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands off control between a suspending thread and the thread that resumes it, without locks.
+ *
+ * <p>A single atomic state word is either null while running, the breakpoint ID while suspended,
+ * or {@link #RESUMING} once resumed but before the suspended thread has noticed. Only the owning
+ * thread moves the state from running to suspended and from resuming to running, and only a
+ * resuming thread moves it from suspended to resuming, so a compare-and-set suffices.
+ *
+ * <p>Both sides spin briefly before parking, as a thread is often resumed right after it
+ * suspended, and parking and unparking adds tens of microseconds of latency.
+ */
+final class Handoff {
+
+  /** How long to spin before parking. */
+  private static final long SPIN_NANOS = 20_000;
+
+  private static final Object RESUMING = new Object();
+
+  private static final AtomicReferenceFieldUpdater<Handoff, Object> STATE =
+      AtomicReferenceFieldUpdater.newUpdater(Handoff.class, Object.class, "state");
+
+  /** Null, a breakpoint ID, or {@link #RESUMING}. */
+  private volatile Object state;
+
+  /** The suspended thread, to unpark when resumed. */
+  private volatile Thread owner;
+
+  /** A thread waiting for the owner to suspend, to unpark when it does. */
+  private volatile Thread waiter;
+
+  /**
+   * Marks the current thread as suspended on a breakpoint. It must subsequently call {@link
+   * #awaitResume}.
+   *
+   * @param id A breakpoint ID.
+   */
+  void suspend(String id) {
+    owner = Thread.currentThread();
+    state = id;
+    LockSupport.unpark(waiter);
+  }
+
+  /**
+   * Blocks the current thread, which has called {@link #suspend}, until it's resumed.
+   *
+   * @throws RuntimeException If the thread is interrupted while suspended, in which case it resumes
+   *     itself.
+   */
+  void awaitResume() {
+    final long spinEnd = System.nanoTime() + SPIN_NANOS;
+    while (state != RESUMING) {
+      if (Thread.interrupted()) {
+        final Object suspended = state;
+        if (suspended != RESUMING && STATE.compareAndSet(this, suspended, null)) {
+          owner = null;
+          throw new RuntimeException(new InterruptedException());
+        }
+        // It has been resumed concurrently, so the interrupt is kept for later
+        Thread.currentThread().interrupt();
+      } else if (System.nanoTime() - spinEnd < 0) {
+        Thread.yield();
+      } else {
+        LockSupport.park(this);
+      }
+    }
+    owner = null;
+    state = null;
+  }
+
+  /**
+   * Resumes the owning thread, if it is suspended.
+   *
+   * @return The ID of the breakpoint it was suspended on, or null if it wasn't suspended.
+   */
+  String resume() {
+    final Object suspended = state;
+    if (!(suspended instanceof String) || !STATE.compareAndSet(this, suspended, RESUMING)) {
+      return null;
+    }
+    LockSupport.unpark(owner);
+    return (String) suspended;
+  }
+
+  /**
+   * Gets the thread that is suspended, or was most recently suspended.
+   *
+   * @return A thread, or null if none has suspended.
+   */
+  Thread getOwner() {
+    return owner;
+  }
+
+  /**
+   * Checks whether no thread is suspended, nor about to continue after having been resumed.
+   *
+   * @return Whether the handoff can be used by a suspending thread.
+   */
+  boolean isIdle() {
+    return state == null;
+  }
+
+  /**
+   * Gets the breakpoint ID the owning thread is suspended on.
+   *
+   * @return A breakpoint ID, or null if it is not suspended.
+   */
+  String getSuspended() {
+    final Object suspended = state;
+    return suspended instanceof String ? (String) suspended : null;
+  }
+
+  /**
+   * Waits a while for the owning thread to suspend, unless it already is.
+   *
+   * @param nanos The maximum time to wait.
+   * @return The ID of the breakpoint it's suspended on, or null if it isn't suspended yet.
+   */
+  String awaitSuspended(long nanos) {
+    String suspended = getSuspended();
+    if (suspended != null) {
+      return suspended;
+    }
+    final long now = System.nanoTime();
+    final long spinEnd = now + Math.min(nanos, SPIN_NANOS);
+    while (System.nanoTime() - spinEnd < 0) {
+      Thread.yield();
+      suspended = getSuspended();
+      if (suspended != null) {
+        return suspended;
+      }
+    }
+    waiter = Thread.currentThread();
+    try {
+      suspended = getSuspended();
+      final long remaining = now + nanos - System.nanoTime();
+      if (suspended == null && remaining > 0) {
+        LockSupport.parkNanos(this, remaining);
+        suspended = getSuspended();
+      }
+      return suspended;
+    } finally {
+      waiter = null;
+    }
+  }
+}
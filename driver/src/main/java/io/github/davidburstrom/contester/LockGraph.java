@@ -0,0 +1,225 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+
+/** Inspects the graph of lock owners, as reported by the {@link ThreadMXBean}. */
+final class LockGraph {
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  /** Prohibit instantiation */
+  private LockGraph() {}
+
+  /**
+   * Checks whether a thread can never make progress, by following the chain of lock owners from
+   * the thread.
+   *
+   * <p>This is the case if the chain contains a deadlock, or if it ends in a thread that is stuck,
+   * e.g. because it's suspended at a breakpoint.
+   *
+   * @param thread The thread to check.
+   * @param stuckReason Given the ID of a lock owner, returns the reason why it cannot release its
+   *     locks, or null if it can.
+   * @return A description of the lock owner graph if the thread can never make progress, otherwise
+   *     null.
+   */
+  static String findDeadEnd(Thread thread, LongFunction<String> stuckReason) {
+    final List<ThreadInfo> chain = new ArrayList<>();
+    final Set<Long> visited = new HashSet<>();
+    long threadId = thread.getId();
+    while (threadId != -1 && visited.add(threadId)) {
+      final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(threadId);
+      if (threadInfo == null) {
+        // The thread has terminated
+        return null;
+      }
+      if (!chain.isEmpty()) {
+        final String reason = stuckReason.apply(threadId);
+        if (reason != null && isUnchanged(chain)) {
+          return describe(
+              thread.getName() + " cannot make progress",
+              chain,
+              "\"" + threadInfo.getThreadName() + "\" " + reason);
+        }
+      }
+      chain.add(threadInfo);
+      threadId = threadInfo.getLockOwnerId();
+    }
+
+    if (threadId != -1 && isDeadlocked(threadId)) {
+      final List<ThreadInfo> cycle = new ArrayList<>();
+      for (ThreadInfo threadInfo : chain) {
+        if (threadInfo.getThreadId() == threadId || !cycle.isEmpty()) {
+          cycle.add(threadInfo);
+        }
+      }
+      return describe("Deadlock detected while waiting for " + thread.getName(), cycle, null);
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether a thread is blocked on a given monitor or lock.
+   *
+   * <p>For {@link ReentrantLock}s and {@link ReentrantReadWriteLock}s, the thread is blocked if it
+   * is queued to acquire the lock. For other objects, the thread is blocked if it is waiting to
+   * enter the object's monitor, or if it is parked with the object as blocker.
+   *
+   * @param thread The thread to check.
+   * @param monitorOrLock A monitor or a lock.
+   * @return Whether the thread is blocked on the given monitor or lock.
+   */
+  static boolean isBlockedOn(Thread thread, Object monitorOrLock) {
+    final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(thread.getId(), 1);
+    if (threadInfo == null) {
+      return false;
+    }
+    switch (threadInfo.getThreadState()) {
+      case BLOCKED:
+        return isLock(threadInfo.getLockInfo(), monitorOrLock);
+      case WAITING:
+      case TIMED_WAITING:
+        if (monitorOrLock instanceof ReentrantLock) {
+          return ((ReentrantLock) monitorOrLock).hasQueuedThread(thread);
+        } else if (monitorOrLock instanceof ReentrantReadWriteLock) {
+          return ((ReentrantReadWriteLock) monitorOrLock).hasQueuedThread(thread);
+        } else {
+          return isParked(threadInfo) && isLock(threadInfo.getLockInfo(), monitorOrLock);
+        }
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Checks whether a thread is waiting on a given monitor, i.e. in {@link Object#wait()}, or on a
+   * given {@link java.util.concurrent.locks.Condition}.
+   *
+   * @param thread The thread to check.
+   * @param monitorOrCondition A monitor or a condition.
+   * @return Whether the thread is waiting on the given monitor or condition.
+   */
+  static boolean isWaitingOn(Thread thread, Object monitorOrCondition) {
+    final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(thread.getId());
+    if (threadInfo == null) {
+      return false;
+    }
+    final Thread.State state = threadInfo.getThreadState();
+    return (state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING)
+        && isLock(threadInfo.getLockInfo(), monitorOrCondition);
+  }
+
+  /**
+   * Describes what lock a thread is currently waiting for, if any, and who owns it.
+   *
+   * @param thread A thread.
+   * @return A description of the thread state.
+   */
+  static String describeLockState(Thread thread) {
+    final ThreadInfo threadInfo = THREAD_MX_BEAN.getThreadInfo(thread.getId());
+    if (threadInfo == null) {
+      return thread.getName() + " has terminated";
+    }
+    final StringBuilder description =
+        new StringBuilder(thread.getName()).append(" is ").append(threadInfo.getThreadState());
+    if (threadInfo.getLockName() != null) {
+      description.append(" on ").append(threadInfo.getLockName());
+      if (threadInfo.getLockOwnerName() != null) {
+        description.append(" owned by \"").append(threadInfo.getLockOwnerName()).append('"');
+      }
+    }
+    return description.toString();
+  }
+
+  private static boolean isLock(LockInfo lockInfo, Object lock) {
+    return lockInfo != null
+        && lockInfo.getIdentityHashCode() == System.identityHashCode(lock)
+        && lockInfo.getClassName().equals(lock.getClass().getName());
+  }
+
+  /** Whether the thread is parked, as opposed to waiting in {@link Object#wait()}. */
+  private static boolean isParked(ThreadInfo threadInfo) {
+    final StackTraceElement[] stackTrace = threadInfo.getStackTrace();
+    return stackTrace.length == 0
+        || !Object.class.getName().equals(stackTrace[0].getClassName())
+        || !stackTrace[0].getMethodName().startsWith("wait");
+  }
+
+  /**
+   * Verifies that the chain of lock owners is still the same, as the thread infos are not
+   * necessarily a consistent snapshot.
+   */
+  private static boolean isUnchanged(List<ThreadInfo> chain) {
+    for (ThreadInfo threadInfo : chain) {
+      final ThreadInfo current = THREAD_MX_BEAN.getThreadInfo(threadInfo.getThreadId());
+      if (current == null
+          || current.getLockOwnerId() != threadInfo.getLockOwnerId()
+          || !String.valueOf(current.getLockName()).equals(threadInfo.getLockName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isDeadlocked(long threadId) {
+    long[] deadlockedThreadIds;
+    if (THREAD_MX_BEAN.isSynchronizerUsageSupported()) {
+      deadlockedThreadIds = THREAD_MX_BEAN.findDeadlockedThreads();
+    } else {
+      deadlockedThreadIds = THREAD_MX_BEAN.findMonitorDeadlockedThreads();
+    }
+    if (deadlockedThreadIds != null) {
+      for (long deadlockedThreadId : deadlockedThreadIds) {
+        if (deadlockedThreadId == threadId) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static String describe(String headline, List<ThreadInfo> chain, String tail) {
+    final StringBuilder description = new StringBuilder(headline).append(':');
+    for (ThreadInfo threadInfo : chain) {
+      description
+          .append("\n  \"")
+          .append(threadInfo.getThreadName())
+          .append("\" is ")
+          .append(threadInfo.getThreadState())
+          .append(" on ")
+          .append(threadInfo.getLockName())
+          .append(" owned by \"")
+          .append(threadInfo.getLockOwnerName())
+          .append('"');
+    }
+    if (tail != null) {
+      description.append("\n  ").append(tail);
+    }
+    return description.toString();
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reusable worker thread, which runs one task per scenario instead of terminating.
+ *
+ * <p>To the sessions, it appears as a new thread when a task has been assigned, and as a terminated
+ * thread once the task is done. Overriding {@link #start} makes it possible to start it like any
+ * other thread, even though the underlying thread is already running. When its session is closed,
+ * it's returned to a global pool of idle workers, as soon as its task is done.
+ */
+final class PooledThread extends Thread {
+
+  /** The maximum number of idle workers, beyond which released workers terminate. */
+  private static final int MAX_IDLE = 1024;
+
+  /** The idle workers, most recently used first, as those are the most likely to be warm. */
+  private static final Deque<PooledThread> IDLE = new ConcurrentLinkedDeque<>();
+  private static final AtomicInteger IDLE_COUNT = new AtomicInteger();
+  private static final AtomicInteger ID_GENERATOR = new AtomicInteger(1);
+
+  private enum TaskState {
+    /** In the pool, or released. */
+    IDLE,
+    /** Assigned a task, but not started. */
+    ASSIGNED,
+    /** Started, but the task hasn't been picked up yet. */
+    DISPATCHED,
+    RUNNING,
+    DONE,
+    /** The worker has terminated, or will terminate. */
+    RETIRED
+  }
+
+  private final String idleName;
+
+  /** Guards the state transitions. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition changed = lock.newCondition();
+
+  private volatile TaskState taskState = TaskState.IDLE;
+  private Runnable task;
+  private boolean started;
+  private boolean released;
+
+  private PooledThread() {
+    super("ConTester Pooled Thread " + ID_GENERATOR.getAndIncrement());
+    idleName = getName();
+    setDaemon(true);
+  }
+
+  /**
+   * Takes an idle worker from the pool, or creates a new one, and assigns it a task.
+   *
+   * @param runnable The task.
+   * @param name The name of the worker while running the task.
+   * @return A worker that isn't started.
+   */
+  static PooledThread acquire(Runnable runnable, String name) {
+    PooledThread thread = IDLE.pollFirst();
+    if (thread == null) {
+      thread = new PooledThread();
+    } else {
+      IDLE_COUNT.decrementAndGet();
+    }
+    thread.assign(runnable, name);
+    return thread;
+  }
+
+  private void assign(Runnable runnable, String name) {
+    lock.lock();
+    try {
+      setName(name);
+      task = runnable;
+      taskState = TaskState.ASSIGNED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Starts the assigned task. */
+  @Override
+  public void start() {
+    lock.lock();
+    try {
+      if (taskState != TaskState.ASSIGNED) {
+        throw new IllegalThreadStateException(getName() + " has no task to start");
+      }
+      taskState = TaskState.DISPATCHED;
+      if (started) {
+        changed.signalAll();
+        return;
+      }
+      started = true;
+    } finally {
+      lock.unlock();
+    }
+    super.start();
+  }
+
+  @Override
+  public void run() {
+    for (Runnable runnable = awaitTask(); runnable != null; runnable = awaitTask()) {
+      // Any interrupt is left over from the previous task, or sent while idle
+      Thread.interrupted();
+      try {
+        runnable.run();
+      } catch (Throwable throwable) { // NOPMD - a thread reports any throwable as uncaught
+        reportUncaught(throwable);
+      }
+      Thread.interrupted();
+      lock.lock();
+      try {
+        taskState = TaskState.DONE;
+        changed.signalAll();
+        if (released) {
+          recycle();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** Waits until a task is started, or returns null if the worker is retired. */
+  private Runnable awaitTask() {
+    lock.lock();
+    try {
+      while (taskState != TaskState.DISPATCHED) {
+        if (taskState == TaskState.RETIRED) {
+          return null;
+        }
+        changed.awaitUninterruptibly();
+      }
+      taskState = TaskState.RUNNING;
+      final Runnable runnable = task;
+      task = null;
+      return runnable;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void reportUncaught(Throwable throwable) {
+    final UncaughtExceptionHandler handler = getUncaughtExceptionHandler();
+    try {
+      handler.uncaughtException(this, throwable);
+    } catch (RuntimeException e) {
+      // Like for a terminating thread, an exception thrown by the handler is ignored
+    }
+  }
+
+  /**
+   * Returns the worker to the pool, as soon as its task is done. Any task that hasn't been started
+   * is discarded.
+   */
+  void release() {
+    lock.lock();
+    try {
+      if (taskState == TaskState.DISPATCHED || taskState == TaskState.RUNNING) {
+        released = true;
+      } else if (taskState != TaskState.IDLE && taskState != TaskState.RETIRED) {
+        recycle();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Resets the worker and puts it in the pool, or retires it if the pool is full. */
+  private void recycle() {
+    released = false;
+    task = null;
+    setName(idleName);
+    if (IDLE_COUNT.incrementAndGet() <= MAX_IDLE) {
+      taskState = TaskState.IDLE;
+      IDLE.addFirst(this);
+    } else {
+      IDLE_COUNT.decrementAndGet();
+      taskState = TaskState.RETIRED;
+      changed.signalAll();
+    }
+  }
+
+  /**
+   * Gets the state of the worker, as seen by a session.
+   *
+   * @return {@link Thread.State#NEW} until the task is started, {@link Thread.State#TERMINATED}
+   *     once it is done, and the state of the underlying thread in between.
+   */
+  Thread.State getTaskState() {
+    switch (taskState) {
+      case ASSIGNED:
+        return Thread.State.NEW;
+      case DISPATCHED:
+        return Thread.State.RUNNABLE;
+      case RUNNING:
+        return getState();
+      default:
+        return Thread.State.TERMINATED;
+    }
+  }
+
+  /**
+   * Waits for the task to be done.
+   *
+   * @param nanos The maximum time to wait.
+   * @throws InterruptedException If the current thread is interrupted.
+   */
+  void awaitTaskDone(long nanos) throws InterruptedException {
+    lock.lock();
+    try {
+      while ((taskState == TaskState.DISPATCHED || taskState == TaskState.RUNNING) && nanos > 0) {
+        nanos = changed.awaitNanos(nanos);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+/** Encodes the commands given to it as a request frame, see {@link RemoteProtocol}. */
+final class RemoteBatch implements ConTesterRemoteCommands {
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(bytes);
+  private int count;
+
+  @Override
+  public void enableBreakpoint(String thread, String id) {
+    write(RemoteProtocol.ENABLE_BREAKPOINT, thread, requireNonNull(id));
+  }
+
+  @Override
+  public void disableBreakpoint(String thread, String id) {
+    write(RemoteProtocol.DISABLE_BREAKPOINT, thread, requireNonNull(id));
+  }
+
+  @Override
+  public void runToBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit) {
+    write(RemoteProtocol.RUN_TO_BREAKPOINT, thread, requireNonNull(id), timeUnit.toNanos(timeout));
+  }
+
+  @Override
+  public void waitForBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit) {
+    write(
+        RemoteProtocol.WAIT_FOR_BREAKPOINT, thread, requireNonNull(id), timeUnit.toNanos(timeout));
+  }
+
+  @Override
+  public void resume(String thread) {
+    write(RemoteProtocol.RESUME, thread);
+  }
+
+  /**
+   * Gets the encoded request.
+   *
+   * @return The number of commands, followed by the commands.
+   */
+  byte[] toRequest() {
+    final byte[] commands = bytes.toByteArray();
+    final byte[] request = new byte[4 + commands.length];
+    request[0] = (byte) (count >>> 24);
+    request[1] = (byte) (count >>> 16);
+    request[2] = (byte) (count >>> 8);
+    request[3] = (byte) count;
+    System.arraycopy(commands, 0, request, 4, commands.length);
+    return request;
+  }
+
+  /** Writes a command with only a thread operand. */
+  private void write(byte opcode, String thread) {
+    try {
+      out.writeByte(opcode);
+      out.writeUTF(requireNonNull(thread));
+    } catch (IOException e) {
+      // A ByteArrayOutputStream doesn't throw
+      throw new UncheckedIOException(e);
+    }
+    count++;
+  }
+
+  /** Writes a command with a thread and a breakpoint ID operand. */
+  private void write(byte opcode, String thread, String id) {
+    try {
+      out.writeByte(opcode);
+      out.writeUTF(requireNonNull(thread));
+      out.writeUTF(id);
+    } catch (IOException e) {
+      // A ByteArrayOutputStream doesn't throw
+      throw new UncheckedIOException(e);
+    }
+    count++;
+  }
+
+  /** Writes a command with a thread, a breakpoint ID and a timeout operand, even if negative. */
+  private void write(byte opcode, String thread, String id, long timeoutNanos) {
+    try {
+      out.writeByte(opcode);
+      out.writeUTF(requireNonNull(thread));
+      out.writeUTF(id);
+      out.writeLong(timeoutNanos);
+    } catch (IOException e) {
+      // A ByteArrayOutputStream doesn't throw
+      throw new UncheckedIOException(e);
+    }
+    count++;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The binary protocol between a {@link ConTesterRemoteDriver} and a {@link ConTesterRemoteAgent}.
+ *
+ * <p>A connection starts with the token of the agent, which is answered by {@link #OK}, or by
+ * {@link #FAILED} before the connection is closed.
+ *
+ * <p>A request is a frame with its length in bytes, followed by the number of commands and the
+ * commands. A command is an opcode followed by its operands: a thread name, a breakpoint ID and a
+ * timeout in nanoseconds, where applicable. A response is {@link #OK}, or {@link #FAILED} followed
+ * by the index of the failed command, and the type and message of the throwable.
+ */
+final class RemoteProtocol {
+
+  static final byte ENABLE_BREAKPOINT = 1;
+  static final byte DISABLE_BREAKPOINT = 2;
+  static final byte RUN_TO_BREAKPOINT = 3;
+  static final byte WAIT_FOR_BREAKPOINT = 4;
+  static final byte RESUME = 5;
+
+  static final byte OK = 0;
+  static final byte FAILED = 1;
+
+  /** The maximum length of a request, to fail fast on a corrupt stream. */
+  static final int MAX_FRAME_LENGTH = 16 << 20;
+
+  /** Prohibit instantiation */
+  private RemoteProtocol() {}
+
+  static void writeFailure(DataOutputStream out, int index, Throwable throwable)
+      throws IOException {
+    out.writeByte(FAILED);
+    out.writeInt(index);
+    out.writeUTF(throwable.getClass().getName());
+    out.writeUTF(String.valueOf(throwable.getMessage()));
+  }
+
+  /** Reads a response, and throws if a command failed. */
+  static void readResponse(DataInputStream in) throws IOException {
+    final byte status = in.readByte();
+    if (status == OK) {
+      return;
+    }
+    if (status != FAILED) {
+      throw new IOException("Unknown response status " + status);
+    }
+    final int index = in.readInt();
+    final String type = in.readUTF();
+    final String message = "Remote command " + index + " failed: " + in.readUTF();
+    if (type.equals(AssertionError.class.getName())) {
+      throw new AssertionError(message);
+    } else if (type.equals(IllegalArgumentException.class.getName())) {
+      throw new IllegalArgumentException(message);
+    } else if (type.equals(IllegalStateException.class.getName())) {
+      throw new IllegalStateException(message);
+    } else {
+      throw new IllegalStateException(message + " (" + type + ")");
+    }
+  }
+}
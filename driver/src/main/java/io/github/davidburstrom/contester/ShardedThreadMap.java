@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A map with weakly referenced {@link Thread} keys, striped over independently locked shards.
+ *
+ * <p>Threads are spread over the shards by identity hash code, so that concurrent test workers
+ * rarely contend for the same lock. A {@link WeakHashMap} cannot be replaced by a concurrent map,
+ * as registered threads must not be kept alive by the registry.
+ *
+ * @param <V> The value type.
+ */
+final class ShardedThreadMap<V> {
+
+  private final Shard<V>[] shards;
+  private final int mask;
+
+  /** An upper bound of the number of entries, as garbage collected entries are not subtracted. */
+  private final AtomicInteger maxSize = new AtomicInteger();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  ShardedThreadMap() {
+    final int shardCount =
+        Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+    shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard<>();
+    }
+    mask = shardCount - 1;
+  }
+
+  /**
+   * Gets the value of a thread.
+   *
+   * @param thread A thread.
+   * @return The value, or null if there is none.
+   */
+  V get(Thread thread) {
+    if (maxSize.get() == 0) {
+      return null;
+    }
+    final Shard<V> shard = shardOf(thread);
+    shard.lock.lock();
+    try {
+      return shard.map.get(thread);
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  /**
+   * Associates a value with a thread, unless it already has one.
+   *
+   * @param thread A thread.
+   * @param value A value.
+   * @return The previous value, or null if the given value was associated.
+   */
+  V putIfAbsent(Thread thread, V value) {
+    final Shard<V> shard = shardOf(thread);
+    shard.lock.lock();
+    try {
+      final V previous = shard.map.putIfAbsent(thread, value);
+      if (previous == null) {
+        maxSize.incrementAndGet();
+      }
+      return previous;
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the value of a thread, if it is the given value.
+   *
+   * @param thread A thread.
+   * @param value The expected value.
+   */
+  void remove(Thread thread, V value) {
+    final Shard<V> shard = shardOf(thread);
+    shard.lock.lock();
+    try {
+      if (shard.map.remove(thread, value)) {
+        maxSize.decrementAndGet();
+      }
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  /**
+   * Checks whether a thread is waiting to look up its own value, which the thread states can't
+   * distinguish from waiting in the code under test.
+   *
+   * @param thread A thread.
+   * @return Whether the thread is queued for the lock of its shard.
+   */
+  boolean isQueued(Thread thread) {
+    return shardOf(thread).lock.hasQueuedThread(thread);
+  }
+
+  private Shard<V> shardOf(Thread thread) {
+    final int hash = System.identityHashCode(thread);
+    return shards[(hash ^ (hash >>> 16)) & mask];
+  }
+
+  private static final class Shard<V> {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Thread, V> map = new WeakHashMap<>();
+  }
+}
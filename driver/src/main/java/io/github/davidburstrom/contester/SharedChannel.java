@@ -0,0 +1,230 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The layout of the shared memory between a {@link ConTesterRemoteDriver} and a {@link
+ * ConTesterSharedMemoryAgent}.
+ *
+ * <p>A header is followed by a table of breakpoint IDs, which are only ever appended, and a table
+ * of thread slots. A slot is claimed by the driver for a thread name, and holds a bit mask of the
+ * enabled breakpoints, indexed like the ID table, the breakpoint to run to, and the suspension
+ * state of the thread. The fields are only written by one side at a time, with release semantics,
+ * except for the state, which is handed back and forth with compare-and-set.
+ */
+final class SharedChannel {
+
+  /** The maximum number of breakpoint IDs, which is the number of bits of an enabled mask. */
+  static final int MAX_IDS = 64;
+
+  static final int MAX_SLOTS = 256;
+
+  static final int RUNNING = 0;
+  static final int SUSPENDED = 1;
+  static final int RESUMING = 2;
+
+  private static final int MAGIC = 0x436f6e54;
+  private static final int VERSION = 1;
+
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int ID_COUNT_OFFSET = 8;
+  private static final int GENERATION_OFFSET = 12;
+
+  private static final int IDS_OFFSET = 64;
+  private static final int ID_SIZE = 64;
+
+  private static final int SLOTS_OFFSET = IDS_OFFSET + MAX_IDS * ID_SIZE;
+  private static final int SLOT_SIZE = 128;
+  private static final int ENABLED = 0;
+  private static final int STATE = 8;
+  private static final int SUSPENDED_ID = 12;
+  private static final int RUN_TO = 16;
+  private static final int NAME_LENGTH = 20;
+  private static final int NAME = 24;
+
+  private static final int SIZE = SLOTS_OFFSET + MAX_SLOTS * SLOT_SIZE;
+
+  private final SharedMemory memory;
+
+  private SharedChannel(SharedMemory memory) {
+    this.memory = memory;
+  }
+
+  /**
+   * Creates the shared memory file, replacing any existing one.
+   *
+   * @param file A file.
+   * @return A channel without any IDs or claimed slots.
+   */
+  static SharedChannel create(Path file) {
+    final SharedMemory memory = SharedMemory.create(file, SIZE);
+    memory.setIntRelease(VERSION_OFFSET, VERSION);
+    memory.setIntRelease(MAGIC_OFFSET, MAGIC);
+    return new SharedChannel(memory);
+  }
+
+  /**
+   * Opens a shared memory file created by {@link #create}.
+   *
+   * @param file A file.
+   * @return A channel.
+   */
+  static SharedChannel open(Path file) {
+    final SharedMemory memory = SharedMemory.open(file, SIZE);
+    if (memory.getIntAcquire(MAGIC_OFFSET) != MAGIC
+        || memory.getIntAcquire(VERSION_OFFSET) != VERSION) {
+      throw new IllegalStateException(file + " has not been created by a compatible driver");
+    }
+    return new SharedChannel(memory);
+  }
+
+  int getIdCount() {
+    return memory.getIntAcquire(ID_COUNT_OFFSET);
+  }
+
+  String getId(int index) {
+    return readString(IDS_OFFSET + index * ID_SIZE);
+  }
+
+  /** Appends a breakpoint ID, and returns its index. Only called by the driver. */
+  int addId(String id) {
+    final int index = getIdCount();
+    if (index == MAX_IDS) {
+      throw new IllegalStateException("At most " + MAX_IDS + " breakpoint IDs can be shared");
+    }
+    writeString(IDS_OFFSET + index * ID_SIZE, ID_SIZE, id, "Breakpoint ID");
+    memory.setIntRelease(ID_COUNT_OFFSET, index + 1);
+    return index;
+  }
+
+  /** Returns a number that changes whenever a slot is claimed or released. */
+  int getGeneration() {
+    return memory.getIntAcquire(GENERATION_OFFSET);
+  }
+
+  /** Finds the slot claimed for a thread name, or returns -1. */
+  int findSlot(String threadName) {
+    final byte[] name = threadName.getBytes(StandardCharsets.UTF_8);
+    for (int slot = 0; slot < MAX_SLOTS; slot++) {
+      final int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+      if (memory.getIntAcquire(offset + NAME_LENGTH) == name.length
+          && name.length > 0
+          && Arrays.equals(name, readBytes(offset + NAME, name.length))) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /** Claims a free slot for a thread name. Only called by the driver. */
+  int claimSlot(String threadName) {
+    for (int slot = 0; slot < MAX_SLOTS; slot++) {
+      final int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+      if (memory.getIntAcquire(offset + NAME_LENGTH) == 0) {
+        final int length =
+            writeString(offset + NAME_LENGTH, SLOT_SIZE - NAME_LENGTH, threadName, "Thread name");
+        if (length == 0) {
+          throw new IllegalArgumentException("A thread name cannot be empty");
+        }
+        memory.getAndAddInt(GENERATION_OFFSET, 1);
+        return slot;
+      }
+    }
+    throw new IllegalStateException("At most " + MAX_SLOTS + " threads can be shared");
+  }
+
+  /** Frees a slot, after resetting it. Only called by the driver. */
+  void releaseSlot(int slot) {
+    final int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+    memory.setLongRelease(offset + ENABLED, 0);
+    memory.setIntRelease(offset + RUN_TO, 0);
+    memory.setIntRelease(offset + NAME_LENGTH, 0);
+    memory.getAndAddInt(GENERATION_OFFSET, 1);
+  }
+
+  long getEnabled(int slot) {
+    return memory.getLongOpaque(SLOTS_OFFSET + slot * SLOT_SIZE + ENABLED);
+  }
+
+  void setEnabled(int slot, long mask) {
+    memory.setLongRelease(SLOTS_OFFSET + slot * SLOT_SIZE + ENABLED, mask);
+  }
+
+  /** Returns the index of the breakpoint to run to, plus one, or 0 if there is none. */
+  int getRunTo(int slot) {
+    return memory.getIntAcquire(SLOTS_OFFSET + slot * SLOT_SIZE + RUN_TO);
+  }
+
+  void setRunTo(int slot, int runTo) {
+    memory.setIntRelease(SLOTS_OFFSET + slot * SLOT_SIZE + RUN_TO, runTo);
+  }
+
+  boolean clearRunTo(int slot, int runTo) {
+    return memory.compareAndSetInt(SLOTS_OFFSET + slot * SLOT_SIZE + RUN_TO, runTo, 0);
+  }
+
+  int getState(int slot) {
+    return memory.getIntAcquire(SLOTS_OFFSET + slot * SLOT_SIZE + STATE);
+  }
+
+  boolean compareAndSetState(int slot, int expected, int state) {
+    return memory.compareAndSetInt(SLOTS_OFFSET + slot * SLOT_SIZE + STATE, expected, state);
+  }
+
+  /** Marks the thread of a slot as suspended on a breakpoint. Only called by that thread. */
+  void suspend(int slot, int index) {
+    final int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+    memory.setIntRelease(offset + SUSPENDED_ID, index);
+    memory.setIntRelease(offset + STATE, SUSPENDED);
+  }
+
+  /** Marks the thread of a slot as running again after having been resumed. */
+  void resumed(int slot) {
+    memory.setIntRelease(SLOTS_OFFSET + slot * SLOT_SIZE + STATE, RUNNING);
+  }
+
+  int getSuspendedId(int slot) {
+    return memory.getIntAcquire(SLOTS_OFFSET + slot * SLOT_SIZE + SUSPENDED_ID);
+  }
+
+  /** Writes a length-prefixed string, and returns its length in bytes. */
+  private int writeString(int offset, int size, String string, String description) {
+    final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > size - 4) {
+      throw new IllegalArgumentException(
+          description + " '" + string + "' exceeds " + (size - 4) + " bytes");
+    }
+    memory.putBytes(offset + 4, bytes);
+    memory.setIntRelease(offset, bytes.length);
+    return bytes.length;
+  }
+
+  private String readString(int offset) {
+    return new String(
+        readBytes(offset + 4, memory.getIntAcquire(offset)), StandardCharsets.UTF_8);
+  }
+
+  private byte[] readBytes(int offset, int length) {
+    final byte[] bytes = new byte[length];
+    memory.getBytes(offset, bytes);
+    return bytes;
+  }
+}
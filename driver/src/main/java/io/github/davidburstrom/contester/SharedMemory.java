@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.nio.file.Path;
+
+/**
+ * A file that is memory-mapped by several JVMs, with atomic access to its aligned ints and longs.
+ *
+ * <p>This is the Java 8 implementation, which is unsupported, as atomic access to mapped memory
+ * requires {@code VarHandle}. The multi-release jar contains a Java 11 implementation in {@code
+ * META-INF/versions/11}.
+ */
+final class SharedMemory {
+
+  /** Prohibit instantiation */
+  private SharedMemory() {}
+
+  /**
+   * Creates a file, replacing any existing one, and maps it.
+   *
+   * @param file A file.
+   * @param size The size of the file, in bytes.
+   * @return The mapped memory, initially zeroed.
+   */
+  static SharedMemory create(Path file, int size) {
+    throw unsupported();
+  }
+
+  /**
+   * Maps an existing file.
+   *
+   * @param file A file, created by {@link #create}.
+   * @param size The size of the file, in bytes.
+   * @return The mapped memory.
+   */
+  static SharedMemory open(Path file, int size) {
+    throw unsupported();
+  }
+
+  int getIntAcquire(int offset) {
+    throw unsupported();
+  }
+
+  void setIntRelease(int offset, int value) {
+    throw unsupported();
+  }
+
+  boolean compareAndSetInt(int offset, int expected, int value) {
+    throw unsupported();
+  }
+
+  int getAndAddInt(int offset, int delta) {
+    throw unsupported();
+  }
+
+  /** Reads a long without ordering constraints, which is a plain load on common platforms. */
+  long getLongOpaque(int offset) {
+    throw unsupported();
+  }
+
+  void setLongRelease(int offset, long value) {
+    throw unsupported();
+  }
+
+  void getBytes(int offset, byte[] bytes) {
+    throw unsupported();
+  }
+
+  void putBytes(int offset, byte[] bytes) {
+    throw unsupported();
+  }
+
+  private static UnsupportedOperationException unsupported() {
+    return new UnsupportedOperationException("Shared memory requires Java 11 or later");
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Controls the threads of a {@link ConTesterSharedMemoryAgent} through a memory-mapped file,
+ * without any system calls per command. Commands are executed immediately, so a batch is no faster
+ * than separate commands.
+ */
+final class SharedMemoryRemoteDriver implements ConTesterRemoteDriver {
+
+  /** How long to spin before parking while waiting for a thread to suspend. */
+  private static final long SPIN_NANOS = 20_000;
+
+  /** How long to park at a time while waiting for a thread to suspend. */
+  private static final long PARK_NANOS = 50_000;
+
+  private final SharedChannel channel;
+
+  /** Guards the channel and the maps, so that concurrent commands don't interleave. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** The claimed slots, by thread name, guarded by the lock. */
+  private final Map<String, Integer> slots = new HashMap<>();
+
+  /** The breakpoint ID indices, guarded by the lock. */
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  private SharedMemoryRemoteDriver(SharedChannel channel) {
+    this.channel = channel;
+  }
+
+  static SharedMemoryRemoteDriver create(Path file) {
+    return new SharedMemoryRemoteDriver(SharedChannel.create(file));
+  }
+
+  @Override
+  public void enableBreakpoint(String thread, String id) {
+    lock.lock();
+    try {
+      final int slot = slotOf(thread);
+      final long mask = maskOf(id);
+      final long enabled = channel.getEnabled(slot);
+      if ((enabled & mask) != 0) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' is already enabled");
+      }
+      channel.setEnabled(slot, enabled | mask);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void disableBreakpoint(String thread, String id) {
+    lock.lock();
+    try {
+      final int slot = slotOf(thread);
+      final long mask = maskOf(id);
+      final long enabled = channel.getEnabled(slot);
+      if ((enabled & mask) == 0) {
+        throw new IllegalArgumentException("Breakpoint '" + id + "' is already disabled");
+      }
+      channel.setEnabled(slot, enabled & ~mask);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void runToBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit) {
+    lock.lock();
+    try {
+      final int slot = slotOf(thread);
+      final int index = indexOf(id);
+      channel.setRunTo(slot, index + 1);
+      try {
+        channel.compareAndSetState(slot, SharedChannel.SUSPENDED, SharedChannel.RESUMING);
+        awaitSuspension(slot, index, timeout, timeUnit);
+      } finally {
+        channel.clearRunTo(slot, index + 1);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void waitForBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit) {
+    lock.lock();
+    try {
+      final int slot = slotOf(thread);
+      if ((channel.getEnabled(slot) & maskOf(id)) == 0) {
+        throw new IllegalArgumentException(
+            "Breakpoint '" + id + "' is not enabled for " + thread);
+      }
+      awaitSuspension(slot, indexOf(id), timeout, timeUnit);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void resume(String thread) {
+    lock.lock();
+    try {
+      if (!channel.compareAndSetState(
+          slotOf(thread), SharedChannel.SUSPENDED, SharedChannel.RESUMING)) {
+        throw new AssertionError("Thread is not suspended");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void batch(Consumer<ConTesterRemoteCommands> commands) {
+    commands.accept(this);
+  }
+
+  /** Disables all breakpoints, resumes all suspended threads and releases their slots. */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      for (int slot : slots.values()) {
+        channel.setEnabled(slot, 0);
+        channel.setRunTo(slot, 0);
+        channel.compareAndSetState(slot, SharedChannel.SUSPENDED, SharedChannel.RESUMING);
+        channel.releaseSlot(slot);
+      }
+      slots.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void awaitSuspension(int slot, int index, long timeout, TimeUnit timeUnit) {
+    final long now = System.nanoTime();
+    final long spinEnd = now + SPIN_NANOS;
+    final long endTime = now + timeUnit.toNanos(timeout);
+    while (channel.getState(slot) != SharedChannel.SUSPENDED) {
+      final long time = System.nanoTime();
+      if (time - endTime >= 0) {
+        throw new AssertionError(
+            "Breakpoint wasn't hit within "
+                + timeout
+                + " "
+                + timeUnit.toString().toLowerCase(Locale.ROOT));
+      } else if (time - spinEnd < 0) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, Math.min(PARK_NANOS, endTime - time));
+      }
+    }
+    final int suspended = channel.getSuspendedId(slot);
+    if (suspended != index) {
+      throw new AssertionError(
+          "Thread suspended on unexpected breakpoint '"
+              + channel.getId(suspended)
+              + "', expected '"
+              + channel.getId(index)
+              + "'");
+    }
+  }
+
+  private int slotOf(String thread) {
+    return slots.computeIfAbsent(requireNonNull(thread), channel::claimSlot);
+  }
+
+  private int indexOf(String id) {
+    return ids.computeIfAbsent(requireNonNull(id), channel::addId);
+  }
+
+  private long maskOf(String id) {
+    return 1L << indexOf(id);
+  }
+}
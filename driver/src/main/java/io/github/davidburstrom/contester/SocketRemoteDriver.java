@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Sends commands to a {@link ConTesterRemoteAgent} over a loopback socket, with one request and one
+ * response per round trip. Nagle's algorithm is disabled, as every request is flushed at once.
+ */
+final class SocketRemoteDriver implements ConTesterRemoteDriver {
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  /** Guards the socket streams, so that concurrent round trips don't interleave. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private SocketRemoteDriver(Socket socket) throws IOException {
+    this.socket = socket;
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  static SocketRemoteDriver connect(int port, String token) {
+    try {
+      final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      try {
+        final SocketRemoteDriver driver = new SocketRemoteDriver(socket);
+        driver.authenticate(token);
+        return driver;
+      } catch (IOException | RuntimeException e) {
+        socket.close();
+        throw e;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void enableBreakpoint(String thread, String id) {
+    batch(batch -> batch.enableBreakpoint(thread, id));
+  }
+
+  @Override
+  public void disableBreakpoint(String thread, String id) {
+    batch(batch -> batch.disableBreakpoint(thread, id));
+  }
+
+  @Override
+  public void runToBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit) {
+    batch(batch -> batch.runToBreakpoint(thread, id, timeout, timeUnit));
+  }
+
+  @Override
+  public void waitForBreakpoint(String thread, String id, long timeout, TimeUnit timeUnit) {
+    batch(batch -> batch.waitForBreakpoint(thread, id, timeout, timeUnit));
+  }
+
+  @Override
+  public void resume(String thread) {
+    batch(batch -> batch.resume(thread));
+  }
+
+  @Override
+  public void batch(Consumer<ConTesterRemoteCommands> commands) {
+    final RemoteBatch batch = new RemoteBatch();
+    commands.accept(batch);
+    final byte[] request = batch.toRequest();
+
+    lock.lock();
+    try {
+      out.writeInt(request.length);
+      out.write(request);
+      out.flush();
+      RemoteProtocol.readResponse(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void authenticate(String token) throws IOException {
+    out.writeUTF(requireNonNull(token));
+    out.flush();
+    if (in.readByte() != RemoteProtocol.OK) {
+      throw new IllegalArgumentException("The agent rejected the token");
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the state of threads on behalf of asynchronous driver operations.
+ *
+ * <p>Thread states such as BLOCKED or TERMINATED cannot be observed through callbacks, so a single
+ * shared daemon thread polls all pending operations, instead of every operation blocking a thread
+ * of its own.
+ */
+final class ThreadWatcher {
+
+  private static final long POLL_INTERVAL_MS = 1;
+
+  private static final Map<CompletableFuture<?>, Runnable> WATCHES = new ConcurrentHashMap<>();
+
+  private static final ScheduledExecutorService EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "ConTester Watcher");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  static {
+    EXECUTOR.scheduleWithFixedDelay(
+        ThreadWatcher::poll, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Prohibit instantiation */
+  private ThreadWatcher() {}
+
+  /**
+   * Repeatedly runs the given poll action until the future is done.
+   *
+   * @param future A future, typically completed by the poll action.
+   * @param poll An action that completes the future once the watched condition holds.
+   */
+  static void watch(CompletableFuture<?> future, Runnable poll) {
+    WATCHES.put(future, poll);
+    future.whenComplete((result, throwable) -> WATCHES.remove(future));
+  }
+
+  private static void poll() {
+    WATCHES.forEach(
+        (future, poll) -> {
+          try {
+            poll.run();
+          } catch (Throwable throwable) { // NOPMD - an escaping throwable would end the polling
+            future.completeExceptionally(throwable);
+          }
+        });
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A clock that only advances when told to by the driver, and which wakes the threads sleeping on
+ * it as their deadlines are reached.
+ *
+ * <p>Time starts at the real {@link System#nanoTime} and wall-clock time of its creation, so that
+ * code comparing virtual with real readings still sees sensible values.
+ */
+final class VirtualClock {
+
+  /** A {@link Clock} that reads the virtual clock of the calling thread, if any. */
+  static final Clock SYSTEM_CLOCK = new DispatchingClock(ZoneOffset.UTC);
+
+  /** Guards the sleepers and the advancement of time. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final PriorityQueue<Sleeper> sleepers = new PriorityQueue<>();
+
+  /** The number of sleepers that have been woken, but have yet to be scheduled. */
+  private final AtomicInteger pendingWakeups = new AtomicInteger();
+
+  private final long epochOffsetNanos;
+  private volatile long nanoTime;
+  private long sequence;
+
+  VirtualClock() {
+    final long start = System.nanoTime();
+    this.epochOffsetNanos = System.currentTimeMillis() * 1_000_000L - start;
+    this.nanoTime = start;
+  }
+
+  long nanoTime() {
+    return nanoTime;
+  }
+
+  Instant instant() {
+    return Instant.ofEpochSecond(0, epochOffsetNanos + nanoTime);
+  }
+
+  /** Parks the calling thread until the clock has advanced by the given duration. */
+  void sleep(long nanos) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException("sleep interrupted");
+    }
+    if (nanos <= 0) {
+      return;
+    }
+    final Sleeper sleeper;
+    lock.lock();
+    try {
+      sleeper = new Sleeper(nanoTime + nanos, sequence++, Thread.currentThread());
+      sleepers.add(sleeper);
+    } finally {
+      lock.unlock();
+    }
+
+    while (!sleeper.woken) {
+      LockSupport.park(this);
+      if (Thread.interrupted()) {
+        final boolean removed;
+        lock.lock();
+        try {
+          removed = sleepers.remove(sleeper);
+        } finally {
+          lock.unlock();
+        }
+        if (removed) {
+          throw new InterruptedException("sleep interrupted");
+        }
+        // It was woken concurrently, so the interrupt is left for the caller to observe
+        Thread.currentThread().interrupt();
+      }
+    }
+    pendingWakeups.decrementAndGet();
+  }
+
+  /** Advances the clock, and wakes the sleepers whose deadlines have been reached. */
+  void advance(long nanos) {
+    lock.lock();
+    try {
+      nanoTime += nanos;
+      wakeDueSleepers();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets how far the clock must advance to reach the earliest deadline of the sleepers.
+   *
+   * @return A non-negative duration, or -1 if there are no sleepers.
+   */
+  long nanosToNextDeadline() {
+    lock.lock();
+    try {
+      final Sleeper next = sleepers.peek();
+      return next == null ? -1 : Math.max(0, next.deadline - nanoTime);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean hasPendingWakeups() {
+    return pendingWakeups.get() > 0;
+  }
+
+  /** Wakes all sleepers regardless of their deadlines, without advancing the clock. */
+  void wakeAll() {
+    lock.lock();
+    try {
+      while (!sleepers.isEmpty()) {
+        wake(sleepers.poll());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void wakeDueSleepers() {
+    while (!sleepers.isEmpty() && sleepers.peek().deadline - nanoTime <= 0) {
+      wake(sleepers.poll());
+    }
+  }
+
+  private void wake(Sleeper sleeper) {
+    pendingWakeups.incrementAndGet();
+    sleeper.woken = true;
+    LockSupport.unpark(sleeper.thread);
+  }
+
+  private static final class Sleeper implements Comparable<Sleeper> {
+    private final long deadline;
+    private final long sequence;
+    private final Thread thread;
+    private volatile boolean woken;
+
+    Sleeper(long deadline, long sequence, Thread thread) {
+      this.deadline = deadline;
+      this.sequence = sequence;
+      this.thread = thread;
+    }
+
+    @Override
+    public int compareTo(Sleeper other) {
+      final int byDeadline = Long.compare(deadline - other.deadline, 0);
+      return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  /** Reads the virtual clock of the calling thread, and the system clock otherwise. */
+  private static final class DispatchingClock extends Clock {
+    private final ZoneId zone;
+
+    DispatchingClock(ZoneId zone) {
+      this.zone = zone;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return zone.equals(this.zone) ? this : new DispatchingClock(zone);
+    }
+
+    @Override
+    public Instant instant() {
+      final VirtualClock clock = ConTesterSession.currentVirtualClock();
+      return clock != null ? clock.instant() : Instant.now();
+    }
+
+    @Override
+    public String toString() {
+      return "ConTesterClock[" + zone + "]";
+    }
+  }
+}
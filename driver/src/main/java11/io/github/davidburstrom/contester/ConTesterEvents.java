@@ -0,0 +1,137 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits JDK Flight Recorder events for breakpoint activity.
+ *
+ * <p>All events are disabled by default, and have to be enabled explicitly in the recording
+ * settings, e.g. {@code +io.github.davidburstrom.contester.BreakpointVisit#enabled=true}. A
+ * disabled event is never populated nor committed, so the JIT can eliminate it entirely.
+ */
+final class ConTesterEvents {
+
+  /** Prohibit instantiation */
+  private ConTesterEvents() {}
+
+  static void breakpointVisited(String id, boolean suspending) {
+    final BreakpointVisitEvent event = new BreakpointVisitEvent();
+    if (event.isEnabled()) {
+      event.id = id;
+      event.suspending = suspending;
+      event.commit();
+    }
+  }
+
+  static Object suspensionBegun(String id) {
+    final BreakpointSuspendEvent event = new BreakpointSuspendEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.id = id;
+    event.begin();
+    return event;
+  }
+
+  static void suspensionEnded(Object suspension) {
+    if (suspension != null) {
+      ((BreakpointSuspendEvent) suspension).commit();
+    }
+  }
+
+  static void resumed(Thread thread, String id) {
+    final BreakpointResumeEvent event = new BreakpointResumeEvent();
+    if (event.isEnabled()) {
+      event.resumedThread = thread;
+      event.id = id;
+      event.commit();
+    }
+  }
+
+  static void waitTimedOut(Thread thread, String condition, long timeoutMillis) {
+    final WaitTimeoutEvent event = new WaitTimeoutEvent();
+    if (event.isEnabled()) {
+      event.waitedThread = thread;
+      event.condition = condition;
+      event.timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      event.commit();
+    }
+  }
+
+  @Name("io.github.davidburstrom.contester.BreakpointVisit")
+  @Label("Breakpoint Visit")
+  @Description("A registered thread visited a breakpoint")
+  @Category("ConTester")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class BreakpointVisitEvent extends Event {
+    @Label("Breakpoint ID")
+    String id;
+
+    @Label("Suspending")
+    boolean suspending;
+  }
+
+  @Name("io.github.davidburstrom.contester.BreakpointSuspend")
+  @Label("Breakpoint Suspend")
+  @Description("A registered thread was suspended at a breakpoint")
+  @Category("ConTester")
+  @Enabled(false)
+  static final class BreakpointSuspendEvent extends Event {
+    @Label("Breakpoint ID")
+    String id;
+  }
+
+  @Name("io.github.davidburstrom.contester.BreakpointResume")
+  @Label("Breakpoint Resume")
+  @Description("The driver resumed a suspended thread")
+  @Category("ConTester")
+  @Enabled(false)
+  static final class BreakpointResumeEvent extends Event {
+    @Label("Resumed Thread")
+    Thread resumedThread;
+
+    @Label("Breakpoint ID")
+    String id;
+  }
+
+  @Name("io.github.davidburstrom.contester.WaitTimeout")
+  @Label("Wait Timeout")
+  @Description("The driver timed out while waiting for a thread")
+  @Category("ConTester")
+  @Enabled(false)
+  static final class WaitTimeoutEvent extends Event {
+    @Label("Waited Thread")
+    Thread waitedThread;
+
+    @Label("Condition")
+    String condition;
+
+    @Label("Timeout")
+    @Timespan(Timespan.NANOSECONDS)
+    long timeout;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file that is memory-mapped by several JVMs, with atomic access to its aligned ints and longs.
+ *
+ * <p>The atomic access modes of {@link VarHandle} views of a direct buffer apply to the underlying
+ * memory, and thereby to other processes that map the same file.
+ */
+final class SharedMemory {
+
+  private static final VarHandle INTS =
+      MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final MappedByteBuffer buffer;
+
+  private SharedMemory(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  static SharedMemory create(Path file, int size) {
+    try {
+      // A new file, rather than a truncated one, doesn't affect processes that mapped the old file
+      Files.deleteIfExists(file);
+      return map(file, size, StandardOpenOption.CREATE_NEW);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static SharedMemory open(Path file, int size) {
+    return map(file, size, StandardOpenOption.READ);
+  }
+
+  private static SharedMemory map(Path file, int size, StandardOpenOption option) {
+    try (FileChannel channel =
+        FileChannel.open(file, option, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      if (option == StandardOpenOption.READ && channel.size() < size) {
+        throw new IllegalStateException(file + " is not a shared memory file");
+      }
+      return new SharedMemory(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  int getIntAcquire(int offset) {
+    return (int) INTS.getAcquire((ByteBuffer) buffer, offset);
+  }
+
+  void setIntRelease(int offset, int value) {
+    INTS.setRelease((ByteBuffer) buffer, offset, value);
+  }
+
+  boolean compareAndSetInt(int offset, int expected, int value) {
+    return INTS.compareAndSet((ByteBuffer) buffer, offset, expected, value);
+  }
+
+  int getAndAddInt(int offset, int delta) {
+    return (int) INTS.getAndAdd((ByteBuffer) buffer, offset, delta);
+  }
+
+  long getLongOpaque(int offset) {
+    return (long) LONGS.getOpaque((ByteBuffer) buffer, offset);
+  }
+
+  void setLongRelease(int offset, long value) {
+    LONGS.setRelease((ByteBuffer) buffer, offset, value);
+  }
+
+  void getBytes(int offset, byte[] bytes) {
+    buffer.duplicate().position(offset).get(bytes);
+  }
+
+  void putBytes(int offset, byte[] bytes) {
+    buffer.duplicate().position(offset).put(bytes);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.Test;
+
+class ConTesterContentionProfileTest {
+
+  private static ConTesterContentionProfile.Segment find(
+      List<ConTesterContentionProfile.Segment> segments, String fromId, String toId) {
+    for (ConTesterContentionProfile.Segment segment : segments) {
+      if (segment.getFromId().equals(fromId) && segment.getToId().equals(toId)) {
+        return segment;
+      }
+    }
+    throw new AssertionError("No segment " + fromId + " -> " + toId + " in " + segments);
+  }
+
+  @Test
+  void blockedTimeIsAttributedToSegment() {
+    final Object monitor = new Object();
+    try (ConTesterSession session = new ConTesterSession()) {
+      session.enableContentionProfiling();
+      final Thread holder =
+          session.thread(
+              () -> {
+                synchronized (monitor) {
+                  visitBreakpoint("contention-held");
+                }
+              });
+      final Thread contender =
+          session.thread(
+              () -> {
+                visitBreakpoint("contention-before");
+                synchronized (monitor) {
+                  visitBreakpoint("contention-after");
+                }
+              });
+      session.runToBreakpoint(holder, "contention-held");
+      session.start(contender);
+      session.waitForBlockedOn(contender, monitor);
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+      session.resume(holder);
+      session.join(holder);
+      session.join(contender);
+
+      final ConTesterContentionProfile profile = session.getContentionProfile();
+      final ConTesterContentionProfile.Segment blocked =
+          find(profile.getSegments(contender), "contention-before", "contention-after");
+      assertEquals(1L, blocked.getPasses());
+      assertEquals(1L, blocked.getBlockedCount());
+      assertTrue(blocked.getBlockedMillis() >= 10, blocked.toString());
+      final String lockName =
+          monitor.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(monitor));
+      assertTrue(blocked.getLockSamples().containsKey(lockName), blocked.toString());
+      assertEquals(blocked.toString(), profile.getSegments().get(0).toString());
+
+      // The time suspended by the driver is left out
+      for (ConTesterContentionProfile.Segment segment : profile.getSegments(holder)) {
+        assertEquals(0L, segment.getWaitedCount(), segment.toString());
+      }
+      find(profile.getSegments(holder), "<start>", "contention-held");
+      find(profile.getSegments(holder), "contention-held", "<end>");
+    }
+  }
+
+  @Test
+  void profilingMustBeEnabled() {
+    final ConTesterSession session = new ConTesterSession();
+    try {
+      assertThrows(IllegalStateException.class, session::getContentionProfile);
+      session.enableContentionProfiling();
+      assertThrows(IllegalStateException.class, session::enableContentionProfiling);
+
+      final Thread first = session.thread(() -> visitBreakpoint("contention-merged"));
+      final Thread second = session.thread(() -> visitBreakpoint("contention-merged"));
+      session.start(first);
+      session.start(second);
+      session.join(first);
+      session.join(second);
+      final List<ConTesterContentionProfile.Segment> merged =
+          session.getContentionProfile().getSegments();
+      assertEquals(2L, find(merged, "<start>", "contention-merged").getPasses());
+    } finally {
+      session.close();
+    }
+    assertThrows(IllegalStateException.class, session::getContentionProfile);
+  }
+}
@@ -19,14 +19,19 @@ import static io.github.davidburstrom.contester.ConTesterDriver.disableBreakpoin
 import static io.github.davidburstrom.contester.ConTesterDriver.enableBreakpoint;
 import static io.github.davidburstrom.contester.ConTesterDriver.getUncaughtThrowable;
 import static io.github.davidburstrom.contester.ConTesterDriver.join;
+import static io.github.davidburstrom.contester.ConTesterDriver.joinAsync;
 import static io.github.davidburstrom.contester.ConTesterDriver.register;
 import static io.github.davidburstrom.contester.ConTesterDriver.resume;
 import static io.github.davidburstrom.contester.ConTesterDriver.runToBreakpoint;
+import static io.github.davidburstrom.contester.ConTesterDriver.runToBreakpointAsync;
+import static io.github.davidburstrom.contester.ConTesterDriver.runUntilBlockedOn;
 import static io.github.davidburstrom.contester.ConTesterDriver.runUntilBlockedOrTerminated;
+import static io.github.davidburstrom.contester.ConTesterDriver.runUntilWaitingOn;
 import static io.github.davidburstrom.contester.ConTesterDriver.start;
 import static io.github.davidburstrom.contester.ConTesterDriver.thread;
 import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
 import static io.github.davidburstrom.contester.ConTesterDriver.waitForBlockedOrTerminated;
+import static io.github.davidburstrom.contester.ConTesterDriver.waitForBlockedOrTerminatedAsync;
 import static io.github.davidburstrom.contester.ConTesterDriver.waitForBreakpoint;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -34,11 +39,14 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -542,9 +550,9 @@ class ConTesterDriverTest {
               visitBreakpoint("id1");
               visitBreakpoint("id2");
             });
-    start(thread);
     enableBreakpoint(thread, "id1");
     enableBreakpoint(thread, "id2");
+    start(thread);
 
     // should fail
     assertThrows(AssertionError.class, () -> waitForBreakpoint(thread, "id2"));
@@ -605,4 +613,327 @@ class ConTesterDriverTest {
           runToBreakpoint(outer, "id");
         });
   }
+
+  @SuppressWarnings("PMD.AvoidSynchronizedStatement")
+  @Test
+  void runToBreakpointFailsFastIfBlockedBySuspendedThread() {
+    final Object lock = new Object();
+    final Thread thread1 =
+        thread(
+            () -> {
+              synchronized (lock) {
+                visitBreakpoint("id1");
+              }
+            });
+    final Thread thread2 =
+        thread(
+            () -> {
+              synchronized (lock) {
+                visitBreakpoint("id2");
+              }
+            });
+    runToBreakpoint(thread1, "id1");
+
+    final long start = System.nanoTime();
+    final AssertionError assertionError =
+        assertThrows(AssertionError.class, () -> runToBreakpoint(thread2, "id2"));
+    assertTrue(
+        System.nanoTime() - start
+            < TimeUnit.MILLISECONDS.toNanos(ConTesterDriver.STANDARD_TIMEOUT_MS / 2));
+    assertTrue(assertionError.getMessage().contains(" cannot make progress"));
+    assertTrue(assertionError.getMessage().contains("is suspended at breakpoint 'id1'"));
+
+    join(thread1);
+    join(thread2);
+  }
+
+  @SuppressWarnings("PMD.AvoidSynchronizedStatement")
+  @Test
+  void joinFailsFastIfBlockedByDriverThread() {
+    final Object lock = new Object();
+    final Thread thread =
+        thread(
+            () -> {
+              synchronized (lock) {
+                visitBreakpoint("id");
+              }
+            });
+    synchronized (lock) {
+      start(thread);
+      final AssertionError assertionError = assertThrows(AssertionError.class, () -> join(thread));
+      assertTrue(assertionError.getMessage().contains("is the driver thread"));
+    }
+    join(thread);
+  }
+
+  @Test
+  void joinFailsFastIfDeadlocked() {
+    final ReentrantLock lock1 = new ReentrantLock();
+    final ReentrantLock lock2 = new ReentrantLock();
+    final Thread thread1 = thread(() -> lockInOrder(lock1, lock2, "id1"));
+    final Thread thread2 = thread(() -> lockInOrder(lock2, lock1, "id2"));
+    runToBreakpoint(thread1, "id1");
+    runToBreakpoint(thread2, "id2");
+    resume(thread1);
+    resume(thread2);
+
+    final AssertionError assertionError = assertThrows(AssertionError.class, () -> join(thread1));
+    assertTrue(assertionError.getMessage().startsWith("Deadlock detected"));
+    assertTrue(assertionError.getMessage().contains(thread1.getName()));
+    assertTrue(assertionError.getMessage().contains(thread2.getName()));
+
+    // break the deadlock
+    thread1.interrupt();
+    join(thread2);
+  }
+
+  private static void lockInOrder(ReentrantLock first, ReentrantLock second, String id) {
+    first.lock();
+    try {
+      visitBreakpoint(id);
+      second.lockInterruptibly();
+      second.unlock();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      first.unlock();
+    }
+  }
+
+  @SuppressWarnings("PMD.AvoidSynchronizedStatement")
+  @Test
+  void runUntilBlockedOnMonitor() {
+    final Object lock = new Object();
+    final Thread thread1 =
+        thread(
+            () -> {
+              synchronized (lock) {
+                visitBreakpoint("id");
+              }
+            });
+    final Thread thread2 =
+        thread(
+            () -> {
+              synchronized (lock) {
+                visitBreakpoint("dummy");
+              }
+            });
+    runToBreakpoint(thread1, "id");
+    runUntilBlockedOn(thread2, lock);
+    assertEquals(Thread.State.BLOCKED, thread2.getState());
+    join(thread1);
+    join(thread2);
+  }
+
+  @Test
+  void runUntilBlockedOnLock() {
+    final ReentrantLock lock = new ReentrantLock();
+    final Thread thread1 =
+        thread(
+            () -> {
+              lock.lock();
+              try {
+                visitBreakpoint("id");
+              } finally {
+                lock.unlock();
+              }
+            });
+    final Thread thread2 =
+        thread(
+            () -> {
+              lock.lock();
+              lock.unlock();
+            });
+    runToBreakpoint(thread1, "id");
+    runUntilBlockedOn(thread2, lock);
+    assertTrue(lock.hasQueuedThread(thread2));
+    join(thread1);
+    join(thread2);
+  }
+
+  @SuppressWarnings({"PMD.AvoidSynchronizedStatement", "WaitNotInLoop"})
+  @Test
+  void runUntilBlockedOnFailsIfWaitingOnOtherObject() {
+    final Object lock = new Object();
+    final Object other = new Object();
+    final Thread thread =
+        thread(
+            () -> {
+              synchronized (other) {
+                try {
+                  other.wait();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+              synchronized (lock) {
+                visitBreakpoint("dummy");
+              }
+            });
+    runUntilWaitingOn(thread, other);
+    final AssertionError assertionError =
+        assertThrows(
+            AssertionError.class,
+            () -> runUntilBlockedOn(thread, lock, 10, TimeUnit.MILLISECONDS));
+    assertTrue(assertionError.getMessage().contains(" is WAITING on java.lang.Object@"));
+    synchronized (other) {
+      other.notifyAll();
+    }
+    join(thread);
+  }
+
+  @SuppressWarnings({"PMD.AvoidSynchronizedStatement", "WaitNotInLoop"})
+  @Test
+  void runUntilWaitingOnMonitor() {
+    final Object monitor = new Object();
+    final Thread thread =
+        thread(
+            () -> {
+              synchronized (monitor) {
+                try {
+                  monitor.wait();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+            });
+    runUntilWaitingOn(thread, monitor);
+    synchronized (monitor) {
+      monitor.notifyAll();
+    }
+    join(thread);
+  }
+
+  @Test
+  void runUntilWaitingOnCondition() {
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition condition = lock.newCondition();
+    final Thread thread =
+        thread(
+            () -> {
+              lock.lock();
+              try {
+                condition.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              } finally {
+                lock.unlock();
+              }
+            });
+    runUntilWaitingOn(thread, condition);
+    lock.lock();
+    try {
+      condition.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    join(thread);
+  }
+
+  @Test
+  void runToBreakpointAsyncCompletesWhenSuspended() throws Exception {
+    AtomicBoolean first = new AtomicBoolean();
+    AtomicBoolean second = new AtomicBoolean();
+    final Thread thread =
+        thread(
+            () -> {
+              first.set(true);
+              visitBreakpoint("id");
+              second.set(true);
+            });
+    runToBreakpointAsync(thread, "id").get(1, TimeUnit.SECONDS);
+    assertTrue(first.get());
+    assertFalse(second.get());
+    joinAsync(thread).get(1, TimeUnit.SECONDS);
+    assertTrue(second.get());
+  }
+
+  @Test
+  void runToBreakpointAsyncDrivesThreadsConcurrently() throws Exception {
+    final AtomicInteger counter = new AtomicInteger();
+    final Thread thread1 =
+        thread(
+            () -> {
+              visitBreakpoint("id1");
+              counter.incrementAndGet();
+            });
+    final Thread thread2 =
+        thread(
+            () -> {
+              visitBreakpoint("id2");
+              counter.incrementAndGet();
+            });
+    CompletableFuture.allOf(
+            runToBreakpointAsync(thread1, "id1"), runToBreakpointAsync(thread2, "id2"))
+        .get(1, TimeUnit.SECONDS);
+    assertEquals(0, counter.get());
+    CompletableFuture.allOf(joinAsync(thread1), joinAsync(thread2)).get(1, TimeUnit.SECONDS);
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  void runToBreakpointAsyncFailsIfThreadTerminates() {
+    final Thread thread = thread(() -> visitBreakpoint("other"));
+    final CompletableFuture<Void> future = runToBreakpointAsync(thread, "id");
+    final ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+    assertTrue(exception.getCause() instanceof AssertionError);
+    assertTrue(exception.getCause().getMessage().contains(" has terminated"));
+  }
+
+  @Test
+  void runToBreakpointAsyncFailsOnTimeout() {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final Thread thread =
+        thread(
+            () -> {
+              try {
+                latch.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              visitBreakpoint("id");
+            });
+    final CompletableFuture<Void> future =
+        runToBreakpointAsync(thread, "id", 1, TimeUnit.MILLISECONDS);
+    final ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+    assertEquals(
+        "Breakpoint wasn't hit within 1 milliseconds", exception.getCause().getMessage());
+    latch.countDown();
+    join(thread);
+  }
+
+  @Test
+  void joinAsyncFailsOnUncaughtException() {
+    final Thread thread =
+        thread(
+            () -> {
+              throw new IllegalStateException();
+            });
+    start(thread);
+    final ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> joinAsync(thread).get(1, TimeUnit.SECONDS));
+    assertTrue(exception.getCause().getCause() instanceof IllegalStateException);
+  }
+
+  @Test
+  void waitForBlockedOrTerminatedAsyncCompletesWhenBlocked() throws Exception {
+    final ReentrantLock lock = new ReentrantLock();
+    final Thread thread =
+        thread(
+            () -> {
+              lock.lock();
+              lock.unlock();
+            });
+    lock.lock();
+    try {
+      start(thread);
+      waitForBlockedOrTerminatedAsync(thread).get(1, TimeUnit.SECONDS);
+      assertEquals(Thread.State.WAITING, thread.getState());
+    } finally {
+      lock.unlock();
+    }
+    join(thread);
+  }
 }
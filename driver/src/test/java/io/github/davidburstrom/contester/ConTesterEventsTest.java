@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.enableBreakpoint;
+import static io.github.davidburstrom.contester.ConTesterDriver.join;
+import static io.github.davidburstrom.contester.ConTesterDriver.resume;
+import static io.github.davidburstrom.contester.ConTesterDriver.runToBreakpoint;
+import static io.github.davidburstrom.contester.ConTesterDriver.start;
+import static io.github.davidburstrom.contester.ConTesterDriver.thread;
+import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
+import static io.github.davidburstrom.contester.ConTesterDriver.waitForBreakpoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConTesterEventsTest {
+
+  private static final String PREFIX = "io.github.davidburstrom.contester.";
+
+  @AfterEach
+  void tearDown() {
+    ConTesterDriver.cleanUp();
+  }
+
+  private static List<RecordedEvent> eventsOf(List<RecordedEvent> events, String name) {
+    final List<RecordedEvent> matching = new ArrayList<>();
+    for (RecordedEvent event : events) {
+      if (event.getEventType().getName().equals(PREFIX + name)) {
+        matching.add(event);
+      }
+    }
+    return matching;
+  }
+
+  @Test
+  void eventsAreRecordedWhenEnabled() throws IOException, InterruptedException {
+    // The threads are kept alive until the recording is dumped, so that their names are recorded
+    final CountDownLatch latch = new CountDownLatch(1);
+    final Runnable await =
+        () -> {
+          try {
+            latch.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        };
+    final Thread suspended =
+        thread(
+            () -> {
+              visitBreakpoint("jfr-suspend");
+              await.run();
+            });
+    final Thread waiting = thread(await);
+
+    final Path file = Files.createTempFile("contester", ".jfr");
+    final Recording recording = new Recording();
+    try {
+      recording.enable(PREFIX + "BreakpointVisit");
+      recording.enable(PREFIX + "BreakpointSuspend");
+      recording.enable(PREFIX + "BreakpointResume");
+      recording.enable(PREFIX + "WaitTimeout");
+      recording.start();
+
+      runToBreakpoint(suspended, "jfr-suspend");
+      Thread.sleep(1);
+      resume(suspended);
+
+      enableBreakpoint(waiting, "jfr-never");
+      start(waiting);
+      assertThrows(
+          AssertionError.class,
+          () -> waitForBreakpoint(waiting, "jfr-never", 10, TimeUnit.MILLISECONDS));
+
+      recording.stop();
+      recording.dump(file);
+    } finally {
+      recording.close();
+      latch.countDown();
+    }
+    join(suspended);
+    join(waiting);
+
+    final List<RecordedEvent> events;
+    try {
+      events = RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+
+    final List<RecordedEvent> visits = eventsOf(events, "BreakpointVisit");
+    assertEquals(1, visits.size(), visits.toString());
+    assertEquals("jfr-suspend", visits.get(0).getString("id"));
+    assertTrue(visits.get(0).getBoolean("suspending"));
+    assertEquals(suspended.getName(), visits.get(0).getThread().getJavaName());
+
+    final List<RecordedEvent> suspensions = eventsOf(events, "BreakpointSuspend");
+    assertEquals(1, suspensions.size(), suspensions.toString());
+    assertEquals("jfr-suspend", suspensions.get(0).getString("id"));
+    assertTrue(suspensions.get(0).getDuration().compareTo(Duration.ZERO) > 0);
+
+    final List<RecordedEvent> resumptions = eventsOf(events, "BreakpointResume");
+    assertEquals(1, resumptions.size(), resumptions.toString());
+    assertEquals("jfr-suspend", resumptions.get(0).getString("id"));
+    assertEquals(
+        suspended.getName(), resumptions.get(0).getThread("resumedThread").getJavaName());
+
+    final List<RecordedEvent> timeouts = eventsOf(events, "WaitTimeout");
+    assertEquals(1, timeouts.size(), timeouts.toString());
+    assertEquals("breakpoint 'jfr-never'", timeouts.get(0).getString("condition"));
+    assertEquals(waiting.getName(), timeouts.get(0).getThread("waitedThread").getJavaName());
+    assertEquals(Duration.ofMillis(10), timeouts.get(0).getDuration("timeout"));
+  }
+}
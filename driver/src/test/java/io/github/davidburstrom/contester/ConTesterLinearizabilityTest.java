@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ConTesterLinearizabilityTest {
+
+  private static final class RacyCounter {
+    private int value;
+
+    int incrementAndGet() {
+      final int read = value;
+      ConTesterBreakpoint.defineBreakpoint("counter.read");
+      value = read + 1;
+      return value;
+    }
+  }
+
+  private static int increment(List<Integer> model) {
+    model.set(0, model.get(0) + 1);
+    return model.get(0);
+  }
+
+  private static List<Integer> zero() {
+    return new ArrayList<>(Collections.singletonList(0));
+  }
+
+  @Test
+  void lostUpdateIsFoundByExploration() {
+    final ConTesterLinearizability.Result result =
+        ConTesterLinearizability.<RacyCounter, List<Integer>>of(
+                RacyCounter::new, ConTesterLinearizabilityTest::zero, ArrayList::new)
+            .operation(
+                "incrementAndGet",
+                RacyCounter::incrementAndGet,
+                ConTesterLinearizabilityTest::increment)
+            .actor("incrementAndGet")
+            .actor("incrementAndGet")
+            .breakpoint("counter.read")
+            .explore()
+            .check(1000);
+
+    assertFalse(result.isLinearizable());
+    assertTrue(result.getHistoryCount() < 1000, "All schedules should have been explored");
+    assertTrue(result.getViolationCount() > 0);
+    assertTrue(result.toString().contains("incrementAndGet -> 1"), result.toString());
+  }
+
+  @Test
+  void atomicCounterIsLinearizable() {
+    final ConTesterLinearizability.Result result =
+        ConTesterLinearizability.<AtomicInteger, List<Integer>>of(
+                AtomicInteger::new, ConTesterLinearizabilityTest::zero, ArrayList::new)
+            .operation(
+                "incrementAndGet",
+                counter -> {
+                  ConTesterBreakpoint.defineBreakpoint("counter.read");
+                  return counter.incrementAndGet();
+                },
+                ConTesterLinearizabilityTest::increment)
+            .operation("get", AtomicInteger::get, model -> model.get(0))
+            .actor("incrementAndGet", "get")
+            .actor("incrementAndGet", "incrementAndGet")
+            .actor("get")
+            .breakpoint("counter.read")
+            .seed(42)
+            .parallelism(2)
+            .check(200);
+
+    assertTrue(result.isLinearizable(), result.toString());
+    assertEquals(200, result.getHistoryCount());
+  }
+
+  @Test
+  void invalidConfigurationIsRejected() {
+    final ConTesterLinearizability<AtomicInteger, List<Integer>> checker =
+        ConTesterLinearizability.<AtomicInteger, List<Integer>>of(
+                AtomicInteger::new, ConTesterLinearizabilityTest::zero, ArrayList::new)
+            .operation("get", AtomicInteger::get, model -> model.get(0));
+
+    assertThrows(IllegalArgumentException.class, () -> checker.actor("unknown"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> checker.operation("get", AtomicInteger::get, model -> model.get(0)));
+    assertThrows(IllegalStateException.class, () -> checker.check(1));
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.JarURLConnection;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Drives threads through an agent in the same JVM, which works like one in another JVM. */
+class ConTesterRemoteDriverTest {
+
+  private ConTesterRemoteAgent agent;
+  private ConTesterRemoteDriver remote;
+
+  @BeforeEach
+  void setUp() {
+    agent = ConTesterRemoteAgent.listen(0);
+    remote = ConTesterRemoteDriver.connect(agent.getPort(), agent.getToken());
+  }
+
+  @AfterEach
+  void tearDown() {
+    remote.close();
+    agent.close();
+  }
+
+  @Test
+  void remoteThreadCanBeSuspendedAndResumed() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final AtomicInteger progress = new AtomicInteger();
+    final Thread thread =
+        new Thread(
+            () -> {
+              awaitUninterruptibly(started);
+              visitBreakpoint("remote-1");
+              progress.incrementAndGet();
+              visitBreakpoint("remote-2");
+              progress.incrementAndGet();
+            },
+            "remote-worker-1");
+    thread.start();
+
+    remote.batch(
+        batch -> {
+          batch.enableBreakpoint("remote-worker-1", "remote-1");
+          batch.enableBreakpoint("remote-worker-1", "remote-2");
+        });
+    started.countDown();
+    remote.waitForBreakpoint("remote-worker-1", "remote-1");
+    assertEquals(0, progress.get());
+    remote.batch(
+        batch -> {
+          batch.resume("remote-worker-1");
+          batch.waitForBreakpoint("remote-worker-1", "remote-2");
+        });
+    assertEquals(1, progress.get());
+    remote.resume("remote-worker-1");
+    thread.join();
+    assertEquals(2, progress.get());
+  }
+
+  @Test
+  void negativeTimeoutIsEncodedInBatch() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final Thread thread =
+        new Thread(
+            () -> {
+              awaitUninterruptibly(started);
+              visitBreakpoint("remote-5");
+            },
+            "remote-worker-4");
+    thread.start();
+
+    remote.enableBreakpoint("remote-worker-4", "remote-5");
+    started.countDown();
+    remote.waitForBreakpoint("remote-worker-4", "remote-5");
+    // The thread is already suspended, so the wait succeeds without any time left
+    remote.batch(
+        batch -> {
+          batch.waitForBreakpoint("remote-worker-4", "remote-5", -1, TimeUnit.MILLISECONDS);
+          batch.resume("remote-worker-4");
+        });
+    thread.join();
+  }
+
+  @Test
+  void remoteThreadIsResumedWhenDriverDisconnects() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final Thread thread =
+        new Thread(
+            () -> {
+              awaitUninterruptibly(started);
+              visitBreakpoint("remote-3");
+            },
+            "remote-worker-2");
+    thread.start();
+
+    remote.enableBreakpoint("remote-worker-2", "remote-3");
+    started.countDown();
+    remote.waitForBreakpoint("remote-worker-2", "remote-3");
+    remote.close();
+    thread.join();
+  }
+
+  @Test
+  void remoteFailuresAreRethrown() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final Thread thread = new Thread(() -> awaitUninterruptibly(started), "remote-worker-3");
+    thread.start();
+
+    assertThrows(IllegalArgumentException.class, () -> remote.resume("no-such-thread"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            remote.batch(
+                batch -> {
+                  batch.enableBreakpoint("remote-worker-3", "remote-4");
+                  batch.enableBreakpoint("remote-worker-3", "remote-4");
+                }));
+    started.countDown();
+    thread.join();
+  }
+
+  @Test
+  void driverWithoutTokenIsRejected() {
+    final IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> ConTesterRemoteDriver.connect(agent.getPort(), "not-the-token"));
+    assertEquals("The agent rejected the token", e.getMessage());
+  }
+
+  @Test
+  void unknownOpcodeIsRejected() throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), agent.getPort())) {
+      final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+      out.writeUTF(agent.getToken());
+      out.flush();
+      RemoteProtocol.readResponse(in);
+      out.writeInt(5);
+      out.writeInt(1);
+      out.writeByte(99);
+      out.flush();
+      final IllegalArgumentException e =
+          assertThrows(IllegalArgumentException.class, () -> RemoteProtocol.readResponse(in));
+      assertEquals("Remote command 0 failed: Unknown opcode 99", e.getMessage());
+    }
+  }
+
+  @Test
+  void sharedMemoryThreadCanBeSuspendedAndResumed() throws Exception {
+    final Path file = Files.createTempFile("contester", ".shm");
+    final AtomicInteger progress = new AtomicInteger();
+    final Thread thread =
+        new Thread(
+            () -> {
+              for (int i = 0; i < 3; i++) {
+                visitBreakpoint("shared-1");
+                progress.incrementAndGet();
+              }
+              visitBreakpoint("shared-2");
+            },
+            "shared-worker-1");
+    final ConTesterRemoteDriver shared = ConTesterRemoteDriver.createSharedMemory(file);
+    final ConTesterSharedMemoryAgent sharedAgent = ConTesterSharedMemoryAgent.attach(file);
+    try {
+      shared.enableBreakpoint("shared-worker-1", "shared-1");
+      thread.start();
+      shared.waitForBreakpoint("shared-worker-1", "shared-1");
+      assertEquals(0, progress.get());
+      shared.resume("shared-worker-1");
+      shared.waitForBreakpoint("shared-worker-1", "shared-1");
+      assertEquals(1, progress.get());
+      shared.disableBreakpoint("shared-worker-1", "shared-1");
+      shared.runToBreakpoint("shared-worker-1", "shared-2");
+      assertEquals(3, progress.get());
+      assertThrows(AssertionError.class, () -> shared.resume("shared-worker-2"));
+    } finally {
+      shared.close();
+      sharedAgent.close();
+      Files.delete(file);
+    }
+    thread.join();
+  }
+
+  @Test
+  void sharedMemoryIsUnsupportedOnJava8() throws Exception {
+    final Path file = Files.createTempDirectory("contester").resolve("unsupported.shm");
+    final ClassLoader java8 = new BaseLayerClassLoader();
+    final Method createSharedMemory =
+        Class.forName(ConTesterRemoteDriver.class.getName(), true, java8)
+            .getMethod("createSharedMemory", Path.class);
+    final Method attach =
+        Class.forName(ConTesterSharedMemoryAgent.class.getName(), true, java8)
+            .getMethod("attach", Path.class);
+    for (Method method : new Method[] {createSharedMemory, attach}) {
+      final InvocationTargetException e =
+          assertThrows(InvocationTargetException.class, () -> method.invoke(null, file));
+      assertTrue(e.getCause() instanceof UnsupportedOperationException);
+      assertEquals("Shared memory requires Java 11 or later", e.getCause().getMessage());
+    }
+    assertFalse(Files.exists(file));
+    Files.delete(file.getParent());
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Loads the classes of the driver from the Java 8 base layer of the multi-release jar, or of the
+   * class directories, like a Java 8 runtime would.
+   */
+  private static final class BaseLayerClassLoader extends ClassLoader {
+    private static final String PACKAGE = ConTesterRemoteDriver.class.getPackage().getName() + ".";
+
+    BaseLayerClassLoader() {
+      super(ClassLoader.getPlatformClassLoader());
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      if (!name.startsWith(PACKAGE)) {
+        throw new ClassNotFoundException(name);
+      }
+      try {
+        final byte[] bytecode = readBaseLayer(name.replace('.', '/') + ".class");
+        return defineClass(name, bytecode, 0, bytecode.length);
+      } catch (IOException | URISyntaxException e) {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+
+    private static byte[] readBaseLayer(String resource) throws IOException, URISyntaxException {
+      final ClassLoader loader = BaseLayerClassLoader.class.getClassLoader();
+      for (URL url : Collections.list(loader.getResources(resource))) {
+        final byte[] bytecode;
+        final URLConnection connection = url.openConnection();
+        if (connection instanceof JarURLConnection) {
+          // A jar file opened without a runtime version only sees the base layer
+          final URL jarUrl = ((JarURLConnection) connection).getJarFileURL();
+          try (JarFile jar = new JarFile(new File(jarUrl.toURI()))) {
+            try (InputStream in = jar.getInputStream(jar.getJarEntry(resource))) {
+              bytecode = in.readAllBytes();
+            }
+          }
+        } else {
+          try (InputStream in = connection.getInputStream()) {
+            bytecode = in.readAllBytes();
+          }
+        }
+        // The major version of Java 8 class files, while the Java 11 layer has 55
+        if (bytecode[7] == 52) {
+          return bytecode;
+        }
+      }
+      throw new IOException("No Java 8 class file of " + resource);
+    }
+  }
+}
@@ -0,0 +1,745 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class ConTesterSessionTest {
+
+  private static void runScenario(ConTesterSession session) {
+    final AtomicBoolean first = new AtomicBoolean();
+    final AtomicBoolean second = new AtomicBoolean();
+    final Thread thread =
+        session.thread(
+            () -> {
+              first.set(true);
+              visitBreakpoint("id");
+              second.set(true);
+            });
+    session.runToBreakpoint(thread, "id");
+    assertTrue(first.get());
+    assertFalse(second.get());
+    session.join(thread);
+    assertTrue(second.get());
+  }
+
+  @Test
+  void sessionCanBeDrivenFromAnyThread() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (ConTesterSession session = new ConTesterSession()) {
+      final AtomicBoolean check = new AtomicBoolean();
+      final Thread thread =
+          session.thread(
+              () -> {
+                visitBreakpoint("id");
+                check.set(true);
+              });
+      CompletableFuture.runAsync(() -> session.runToBreakpoint(thread, "id"), executor)
+          .get(1, TimeUnit.SECONDS);
+      assertFalse(check.get());
+      CompletableFuture.runAsync(() -> session.join(thread), executor).get(1, TimeUnit.SECONDS);
+      assertTrue(check.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void sessionsRunInParallelOnForkJoinPool() throws Exception {
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      pool.submit(
+              () ->
+                  IntStream.range(0, 32)
+                      .parallel()
+                      .forEach(
+                          i -> {
+                            try (ConTesterSession session = new ConTesterSession()) {
+                              runScenario(session);
+                            }
+                          }))
+          .get(10, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void threadCannotBeRegisteredInTwoSessions() {
+    try (ConTesterSession session1 = new ConTesterSession();
+        ConTesterSession session2 = new ConTesterSession()) {
+      final Thread thread = session1.thread(() -> {});
+      assertThrows(IllegalArgumentException.class, () -> session2.register(thread));
+      assertThrows(IllegalArgumentException.class, () -> session2.enableBreakpoint(thread, "id"));
+    }
+  }
+
+  @Test
+  void closeResumesAndUnregistersThreads() throws InterruptedException {
+    final Thread thread;
+    try (ConTesterSession session = new ConTesterSession("session")) {
+      thread = session.thread(() -> visitBreakpoint("id"));
+      assertEquals("session / ConTester Thread 1", thread.getName());
+      session.runToBreakpoint(thread, "id");
+    }
+    thread.join(1000);
+    assertFalse(thread.isAlive());
+    try (ConTesterSession session = new ConTesterSession()) {
+      session.register(thread);
+    }
+  }
+
+  @Test
+  void closeRestoresUncaughtExceptionHandler() {
+    final Thread.UncaughtExceptionHandler handler = (t, e) -> {};
+    final Thread thread = new Thread(() -> {});
+    final Thread threadWithHandler = new Thread(() -> {});
+    threadWithHandler.setUncaughtExceptionHandler(handler);
+    try (ConTesterSession session = new ConTesterSession()) {
+      session.register(thread);
+      session.register(threadWithHandler);
+    }
+    assertSame(thread.getThreadGroup(), thread.getUncaughtExceptionHandler());
+    assertSame(handler, threadWithHandler.getUncaughtExceptionHandler());
+  }
+
+  @Test
+  void focusedThreadsIgnoreOtherBreakpoints() {
+    final int threadCount = 1000;
+    try (ConTesterSession session = new ConTesterSession()) {
+      final List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        final Thread thread =
+            session.thread(
+                () -> {
+                  visitBreakpoint("first");
+                  visitBreakpoint("second");
+                });
+        session.enableBreakpoint(thread, "first");
+        threads.add(thread);
+      }
+      for (Thread thread : threads) {
+        session.runToBreakpoint(thread, "second");
+      }
+      for (Thread thread : threads) {
+        session.join(thread);
+        assertNull(session.getUncaughtThrowable(thread).orElse(null));
+      }
+    }
+  }
+
+  @Test
+  void pooledThreadIsReusedAfterClose() {
+    final Thread thread;
+    try (ConTesterSession session = new ConTesterSession("first")) {
+      thread = session.pooledThread(() -> visitBreakpoint("id"));
+      session.enableBreakpoint(thread, "id");
+      session.start(thread);
+      session.waitForBreakpoint(thread, "id");
+      session.join(thread);
+    }
+    try (ConTesterSession session = new ConTesterSession("second")) {
+      final AtomicBoolean check = new AtomicBoolean();
+      final Thread reused = session.pooledThread(() -> check.set(true));
+      assertSame(thread, reused);
+      assertEquals("second / ConTester Thread 1", reused.getName());
+      reused.start();
+      session.join(reused);
+      assertTrue(check.get());
+      assertNull(session.getUncaughtThrowable(reused).orElse(null));
+    }
+  }
+
+  @Test
+  void pooledThreadRecordsUncaughtThrowable() {
+    final RuntimeException exception = new RuntimeException();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.pooledThread(
+              () -> {
+                throw exception;
+              });
+      session.start(thread);
+      final AssertionError error = assertThrows(AssertionError.class, () -> session.join(thread));
+      assertSame(exception, error.getCause());
+      assertSame(exception, session.getUncaughtThrowable(thread).orElse(null));
+    }
+  }
+
+  @Test
+  void unstartedPooledThreadIsDiscardedOnClose() {
+    final AtomicBoolean check = new AtomicBoolean();
+    final Thread thread;
+    try (ConTesterSession session = new ConTesterSession()) {
+      thread = session.pooledThread(() -> check.set(true));
+    }
+    assertThrows(IllegalThreadStateException.class, thread::start);
+    assertFalse(check.get());
+  }
+
+  @Test
+  void executorWorkerRunsToBreakpoint() throws Exception {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final ExecutorService executor = Executors.newFixedThreadPool(4, session.threadFactory());
+      try {
+        final AtomicBoolean check = new AtomicBoolean();
+        final CompletableFuture<Thread> suspended = session.runAnyToBreakpointAsync("id");
+        final Future<?> future =
+            executor.submit(
+                () -> {
+                  visitBreakpoint("id");
+                  check.set(true);
+                });
+        final Thread worker = suspended.get(1, TimeUnit.SECONDS);
+        assertTrue(worker.getName().startsWith(session.getName() + " / ConTester Pool Thread "));
+        assertFalse(check.get());
+        session.resume(worker);
+        future.get(1, TimeUnit.SECONDS);
+        assertTrue(check.get());
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Test
+  void forkJoinWorkerRunsToBreakpoint() throws Exception {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final ForkJoinPool pool =
+          new ForkJoinPool(4, session.forkJoinWorkerThreadFactory(), null, false);
+      try {
+        final CompletableFuture<Thread> suspended = session.runAnyToBreakpointAsync("id");
+        final ForkJoinTask<Integer> task =
+            pool.submit(
+                () ->
+                    IntStream.range(0, 100)
+                        .parallel()
+                        .map(
+                            i -> {
+                              visitBreakpoint(i == 42 ? "id" : "other");
+                              return i;
+                            })
+                        .sum());
+        final Thread worker = suspended.get(1, TimeUnit.SECONDS);
+        assertTrue(worker instanceof ForkJoinWorkerThread);
+        session.resume(worker);
+        assertEquals(4950, task.get(1, TimeUnit.SECONDS));
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  void runAnyToBreakpointTimesOut() {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread = session.thread(() -> visitBreakpoint("other"));
+      session.start(thread);
+      assertThrows(
+          AssertionError.class,
+          () -> session.runAnyToBreakpoint("id", 10, TimeUnit.MILLISECONDS));
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void taskBreakpointFollowsTaskAcrossThreads() throws Exception {
+    final ExecutorService first = Executors.newSingleThreadExecutor();
+    final ExecutorService second = Executors.newSingleThreadExecutor();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final ConTesterTask request = session.task("request 42");
+      final ConTesterTask other = session.task("request 43");
+      session.enableBreakpoint(request, "parse");
+      final List<String> events = new CopyOnWriteArrayList<>();
+      CompletableFuture.runAsync(() -> events.add("other received"), other.executor(first))
+          .thenRunAsync(
+              () -> {
+                visitBreakpoint("parse");
+                events.add("other parsed");
+              },
+              other.executor(second))
+          .get(1, TimeUnit.SECONDS);
+      final CompletableFuture<Void> future =
+          CompletableFuture.runAsync(() -> events.add("received"), request.executor(first))
+              .thenRunAsync(
+                  () -> {
+                    visitBreakpoint("parse");
+                    events.add("parsed");
+                  },
+                  request.executor(second));
+      session.waitForBreakpoint(request, "parse");
+      assertFalse(future.isDone());
+      assertEquals(Arrays.asList("other received", "other parsed", "received"), events);
+      session.resume(request);
+      future.get(1, TimeUnit.SECONDS);
+      assertEquals("parsed", events.get(3));
+    } finally {
+      first.shutdown();
+      second.shutdown();
+    }
+  }
+
+  @Test
+  void propagatingExecutorCarriesCurrentTask() throws Exception {
+    final ExecutorService first = Executors.newSingleThreadExecutor();
+    final ExecutorService secondService = Executors.newSingleThreadExecutor();
+    final Executor second = ConTesterTask.propagatingExecutor(secondService);
+    try (ConTesterSession session = new ConTesterSession()) {
+      final ConTesterTask request = session.task("request 42");
+      session.enableBreakpoint(request, "parse");
+      final CompletableFuture<String> parsed = new CompletableFuture<>();
+      first.execute(
+          request.wrap(
+              () ->
+                  second.execute(
+                      () -> {
+                        visitBreakpoint("parse");
+                        parsed.complete(Thread.currentThread().getName());
+                      })));
+      session.waitForBreakpoint(request, "parse");
+      assertFalse(parsed.isDone());
+      session.resume(request);
+      assertTrue(parsed.get(1, TimeUnit.SECONDS).startsWith("pool-"));
+    } finally {
+      first.shutdown();
+      secondService.shutdown();
+    }
+  }
+
+  @Test
+  void taskCannotBeUsedInAnotherSession() {
+    try (ConTesterSession session1 = new ConTesterSession();
+        ConTesterSession session2 = new ConTesterSession()) {
+      final ConTesterTask task = session1.task("task");
+      assertThrows(IllegalArgumentException.class, () -> session2.enableBreakpoint(task, "id"));
+      assertThrows(AssertionError.class, () -> session1.resume(task));
+    }
+  }
+
+  @Test
+  void asyncBreakpointReordersContinuations() throws Exception {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final ExecutorService loop = Executors.newSingleThreadExecutor(session.threadFactory());
+      try {
+        final ConTesterTask first = session.task("first");
+        final ConTesterTask second = session.task("second");
+        session.enableBreakpoint(first, "write");
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final Executor firstLoop = first.executor(loop);
+        final Executor secondLoop = second.executor(loop);
+        firstLoop.execute(
+            () ->
+                ConTesterBreakpoint.defineAsyncBreakpoint("write")
+                    .thenRunAsync(() -> events.add("first"), firstLoop));
+        session.waitForAsyncBreakpoint("write");
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        secondLoop.execute(
+            () ->
+                ConTesterBreakpoint.defineAsyncBreakpoint("write")
+                    .thenRunAsync(
+                        () -> {
+                          events.add("second");
+                          written.complete(null);
+                        },
+                        secondLoop));
+        written.get(1, TimeUnit.SECONDS);
+        session.releaseAsyncBreakpoint("write");
+        CompletableFuture.runAsync(() -> {}, loop).get(1, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("second", "first"), events);
+      } finally {
+        loop.shutdown();
+      }
+    }
+  }
+
+  @Test
+  void asyncBreakpointIsCompletedUnlessEnabled() {
+    assertTrue(ConTesterBreakpoint.defineAsyncBreakpoint("id").toCompletableFuture().isDone());
+    final ConTesterSession session = new ConTesterSession();
+    final ConTesterTask task = session.task("task");
+    session.enableBreakpoint(task, "id");
+    final CompletableFuture<Void> stage =
+        task.wrapSupplier(() -> ConTesterBreakpoint.defineAsyncBreakpoint("id"))
+            .get()
+            .toCompletableFuture();
+    assertFalse(stage.isDone());
+    assertThrows(AssertionError.class, () -> session.releaseAsyncBreakpoint("other"));
+    session.close();
+    assertTrue(stage.isDone());
+  }
+
+  @Test
+  void runToNthHitOfBreakpoint() {
+    final AtomicInteger iteration = new AtomicInteger();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                for (int i = 1; i <= 2000; i++) {
+                  iteration.set(i);
+                  visitBreakpoint("loop");
+                }
+              });
+      session.runToBreakpoint(thread, "loop", 1000);
+      assertEquals(1000, iteration.get());
+      session.runToBreakpoint(thread, "loop", 500);
+      assertEquals(1500, iteration.get());
+      assertThrows(
+          IllegalArgumentException.class, () -> session.runToBreakpoint(thread, "loop", 0));
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void breakpointSuspendsOnEveryNthHit() {
+    final AtomicInteger iteration = new AtomicInteger();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                for (int i = 1; i <= 10; i++) {
+                  iteration.set(i);
+                  visitBreakpoint("loop");
+                  visitBreakpoint("other");
+                }
+              });
+      session.enableBreakpoint(thread, "other");
+      session.enableBreakpoint(thread, "loop", 4);
+      session.disableBreakpoint(thread, "other");
+      session.start(thread);
+      session.waitForBreakpoint(thread, "loop");
+      assertEquals(4, iteration.get());
+      session.resume(thread);
+      session.waitForBreakpoint(thread, "loop");
+      assertEquals(8, iteration.get());
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void breakpointEnabledWhileVisitingIsHit() {
+    final AtomicBoolean stopped = new AtomicBoolean();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                while (!stopped.get()) {
+                  visitBreakpoint("late");
+                }
+              });
+      session.start(thread);
+      // The visits don't take the lock until the breakpoint is enabled
+      session.enableBreakpoint(thread, "late");
+      session.waitForBreakpoint(thread, "late");
+      stopped.set(true);
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void unexpectedBreakpointIsReported() {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                visitBreakpoint("unexpected-first");
+                visitBreakpoint("unexpected-second");
+              });
+      session.enableBreakpoint(thread, "unexpected-first");
+      session.enableBreakpoint(thread, "unexpected-second");
+      session.start(thread);
+      final AssertionError error =
+          assertThrows(
+              AssertionError.class, () -> session.waitForBreakpoint(thread, "unexpected-second"));
+      assertEquals(
+          "Thread suspended on unexpected breakpoint 'unexpected-first', expected"
+              + " 'unexpected-second'",
+          error.getMessage());
+      session.resume(thread);
+      session.waitForBreakpoint(thread, "unexpected-second");
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void breakpointPatternsEnableSubsystems() {
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                visitBreakpoint("wal.fsync");
+                visitBreakpoint("cache");
+                visitBreakpoint("cache.load");
+                visitBreakpoint("cache.evict.lru");
+                visitBreakpoint("wal.fsync");
+              });
+      session.enableBreakpoints(thread, "cache.*");
+      assertThrows(
+          IllegalArgumentException.class, () -> session.enableBreakpoints(thread, "cache.*"));
+      assertThrows(
+          IllegalArgumentException.class, () -> session.enableBreakpoints(thread, "cache*"));
+      assertThrows(
+          IllegalArgumentException.class, () -> session.enableBreakpoints(thread, "*.load"));
+      assertThrows(IllegalArgumentException.class, () -> session.enableBreakpoints(thread, ""));
+      assertThrows(
+          IllegalArgumentException.class, () -> session.enableBreakpoints(thread, "cache"));
+      assertThrows(IllegalArgumentException.class, () -> session.disableBreakpoints(thread, ""));
+      session.start(thread);
+      session.waitForBreakpoint(thread, "cache.load");
+      session.resume(thread);
+      session.waitForBreakpoint(thread, "cache.evict.lru");
+      session.disableBreakpoints(thread, "cache.*");
+      session.enableBreakpoints(thread, "*");
+      session.resume(thread);
+      session.waitForBreakpoint(thread, "wal.fsync");
+      session.disableBreakpoints(thread, "*");
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void injectedDelaysAreImposedAndReported() {
+    final ConTesterDelay parked = ConTesterDelay.fixed(5, TimeUnit.MILLISECONDS);
+    final ConTesterDelay spun = ConTesterDelay.spin(100, TimeUnit.MICROSECONDS);
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                visitBreakpoint("wal.fsync");
+                visitBreakpoint("wal.fsync");
+                visitBreakpoint("cpu");
+                visitBreakpoint("wal.fsync");
+              });
+      session.injectDelay(thread, "wal.fsync", parked);
+      session.injectDelay(thread, "cpu", spun);
+      session.enableBreakpoint(thread, "cpu");
+      session.start(thread);
+      session.waitForBreakpoint(thread, "cpu");
+      assertEquals(2, parked.getCount());
+      assertTrue(parked.getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+      assertTrue(parked.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(5));
+      assertEquals(1, spun.getCount());
+      assertTrue(spun.getTotalNanos() >= TimeUnit.MICROSECONDS.toNanos(100));
+      session.removeDelay(thread, "wal.fsync");
+      assertThrows(IllegalArgumentException.class, () -> session.removeDelay(thread, "wal.fsync"));
+      session.join(thread);
+      assertEquals(2, parked.getCount());
+    }
+  }
+
+  @Test
+  void distributedDelaysStayWithinBounds() {
+    assertThrows(
+        IllegalArgumentException.class, () -> ConTesterDelay.uniform(2, 1, TimeUnit.MILLISECONDS));
+    final ConTesterDelay uniform = ConTesterDelay.uniform(100, 200, TimeUnit.MICROSECONDS);
+    final ConTesterDelay exponential = ConTesterDelay.exponential(50, TimeUnit.MICROSECONDS);
+    for (int i = 0; i < 20; i++) {
+      uniform.impose();
+      exponential.impose();
+    }
+    assertEquals(20, uniform.getCount());
+    assertTrue(uniform.getTotalNanos() >= TimeUnit.MICROSECONDS.toNanos(2000));
+    assertEquals(20, exponential.getCount());
+  }
+
+  @Test
+  void quiescenceIsReachedWhenNoThreadMakesProgress() throws Exception {
+    final Object monitor = new Object();
+    final CountDownLatch latch = new CountDownLatch(1);
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread suspended = session.thread(() -> visitBreakpoint("quiescence"));
+      final Thread blocked =
+          session.thread(
+              () -> {
+                synchronized (monitor) {
+                  visitBreakpoint("unused");
+                }
+              });
+      final Thread waiting =
+          session.thread(
+              () -> {
+                try {
+                  latch.await();
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      final Thread terminated = session.thread(() -> {});
+      session.enableBreakpoint(suspended, "quiescence");
+      synchronized (monitor) {
+        for (Thread thread : Arrays.asList(suspended, blocked, waiting, terminated)) {
+          session.start(thread);
+        }
+        session.waitForQuiescence();
+        assertEquals(Thread.State.BLOCKED, blocked.getState());
+        assertEquals(Thread.State.WAITING, waiting.getState());
+        assertEquals(Thread.State.TERMINATED, terminated.getState());
+        session.resume(suspended);
+      }
+      latch.countDown();
+      for (Thread thread : Arrays.asList(suspended, blocked, waiting)) {
+        session.join(thread);
+      }
+    }
+  }
+
+  @Test
+  void quiescenceAwaitsResumedThread() {
+    final AtomicInteger steps = new AtomicInteger();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread thread =
+          session.thread(
+              () -> {
+                for (int i = 0; i < 1000; i++) {
+                  visitBreakpoint("quiescence-step");
+                  steps.incrementAndGet();
+                }
+              });
+      session.enableBreakpoint(thread, "quiescence-step");
+      session.start(thread);
+      session.waitForQuiescence();
+      for (int i = 1; i <= 1000; i++) {
+        session.resume(thread);
+        session.waitForQuiescence();
+        assertEquals(i, steps.get());
+      }
+      session.join(thread);
+    }
+  }
+
+  @Test
+  void quiescenceFailsWhileThreadMakesProgress() {
+    final AtomicBoolean stopped = new AtomicBoolean();
+    try (ConTesterSession session = new ConTesterSession()) {
+      final Thread busy =
+          session.thread(
+              () -> {
+                while (!stopped.get()) {
+                  Thread.yield();
+                }
+              });
+      session.start(busy);
+      assertThrows(
+          AssertionError.class, () -> session.waitForQuiescence(10, TimeUnit.MILLISECONDS));
+      stopped.set(true);
+      session.join(busy);
+
+      final Thread failing =
+          session.thread(
+              () -> {
+                throw new IllegalStateException();
+              });
+      session.start(failing);
+      assertThrows(AssertionError.class, session::waitForQuiescence);
+    }
+  }
+
+  @Test
+  void leaseExpiresInVirtualTime() {
+    final AtomicInteger renewals = new AtomicInteger();
+    final long realStart = System.nanoTime();
+    try (ConTesterSession session = new ConTesterSession()) {
+      session.enableVirtualClock();
+      final long start = ConTesterTime.nanoTime();
+      final Thread holder =
+          session.thread(
+              () -> {
+                final long expiry = ConTesterTime.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                try {
+                  while (ConTesterTime.nanoTime() - expiry < 0) {
+                    ConTesterTime.sleep("renew", 10, TimeUnit.SECONDS);
+                    renewals.incrementAndGet();
+                  }
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      session.start(holder);
+      session.advanceTime(30, TimeUnit.SECONDS);
+      session.join(holder);
+
+      assertEquals(3, renewals.get());
+      assertEquals(TimeUnit.SECONDS.toNanos(30), ConTesterTime.nanoTime() - start);
+      assertFalse(session.advanceTimeToNextDeadline());
+    }
+    assertTrue(System.nanoTime() - realStart < TimeUnit.SECONDS.toNanos(10));
+  }
+
+  @Test
+  void virtualSleepIsInterruptedAndReleasedOnClose() throws InterruptedException {
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final CountDownLatch woken = new CountDownLatch(1);
+    final ConTesterSession session = new ConTesterSession();
+    try {
+      session.enableVirtualClock();
+      assertThrows(IllegalStateException.class, session::enableVirtualClock);
+      final Thread interruptible =
+          session.thread(
+              () -> {
+                try {
+                  ConTesterTime.sleep("sleep", 1, TimeUnit.HOURS);
+                } catch (InterruptedException e) {
+                  interrupted.countDown();
+                }
+              });
+      final Thread sleeper =
+          session.thread(
+              () -> {
+                try {
+                  ConTesterTime.sleep("sleep", 1, TimeUnit.DAYS);
+                  woken.countDown();
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      session.start(interruptible);
+      session.start(sleeper);
+      session.waitForQuiescence();
+      interruptible.interrupt();
+      assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    } finally {
+      session.close();
+    }
+    assertTrue(woken.await(10, TimeUnit.SECONDS));
+    assertThrows(
+        IllegalStateException.class, () -> session.advanceTime(1, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConTesterSpansTest {
+
+  @AfterEach
+  void tearDown() {
+    ConTesterSpans.disable();
+    ConTesterSpans.removeSpans();
+  }
+
+  @Test
+  void spansAreNotRecordedWhileDisabled() {
+    ConTesterSpans.addSpan("spans-start", "spans-end");
+    visitBreakpoint("spans-start");
+    visitBreakpoint("spans-end");
+    assertEquals(0, ConTesterSpans.getSpan("spans-start", "spans-end").getWallNanos().getCount());
+  }
+
+  @Test
+  void spansAreRecordedBetweenVisits() {
+    ConTesterSpans.addSpan("spans-start", "spans-end");
+    ConTesterSpans.enable();
+    visitBreakpoint("spans-end");
+    for (int i = 0; i < 3; i++) {
+      visitBreakpoint("spans-start");
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      final byte[] allocated = new byte[1 << 20];
+      visitBreakpoint("spans-end");
+      assertEquals(1 << 20, allocated.length);
+    }
+
+    final ConTesterSpans.Span span = ConTesterSpans.getSpan("spans-start", "spans-end");
+    assertEquals(3, span.getWallNanos().getCount());
+    assertTrue(span.getWallNanos().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(1));
+    assertTrue(span.getWallNanos().getMax() >= span.getWallNanos().getValueAtPercentile(100));
+    assertEquals(3, span.getCpuNanos().getCount());
+    assertEquals(3, span.getAllocatedBytes().getCount());
+    assertTrue(span.getAllocatedBytes().getValueAtPercentile(0) >= 1 << 20);
+
+    ConTesterSpans.reset();
+    assertEquals(0, ConTesterSpans.getSpans().get(0).getWallNanos().getCount());
+  }
+
+  @Test
+  void spansOpenedBeforeRemovalAreNotEnded() {
+    ConTesterSpans.addSpan("spans-start", "spans-end");
+    ConTesterSpans.enable();
+    visitBreakpoint("spans-start");
+    ConTesterSpans.removeSpans();
+    ConTesterSpans.addSpan("spans-other-start", "spans-other-end");
+    visitBreakpoint("spans-other-end");
+    assertEquals(
+        0,
+        ConTesterSpans.getSpan("spans-other-start", "spans-other-end").getWallNanos().getCount());
+  }
+
+  @Test
+  void spanCanOnlyBeAddedOnce() {
+    ConTesterSpans.addSpan("spans-start", "spans-end");
+    assertThrows(
+        IllegalArgumentException.class, () -> ConTesterSpans.addSpan("spans-start", "spans-end"));
+  }
+}
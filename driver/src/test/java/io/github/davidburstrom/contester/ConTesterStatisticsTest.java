@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static io.github.davidburstrom.contester.ConTesterDriver.visitBreakpoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConTesterStatisticsTest {
+
+  @AfterEach
+  void tearDown() {
+    ConTesterStatistics.disable();
+    ConTesterStatistics.reset();
+  }
+
+  @Test
+  void visitsAreNotCountedWhileDisabled() {
+    visitBreakpoint("statistics-disabled");
+    assertTrue(ConTesterStatistics.getVisitCounts().isEmpty());
+  }
+
+  @Test
+  void visitsAreCountedPerId() {
+    ConTesterStatistics.enable();
+    visitBreakpoint("statistics-1");
+    visitBreakpoint("statistics-1");
+    visitBreakpoint("statistics-2", () -> false);
+    ConTesterStatistics.disable();
+    visitBreakpoint("statistics-2");
+
+    assertEquals(2L, ConTesterStatistics.getVisitCounts().get("statistics-1"));
+    assertEquals(1L, ConTesterStatistics.getVisitCounts().get("statistics-2"));
+    assertTrue(ConTesterStatistics.getVisitNanos() > 0);
+  }
+
+  @Test
+  void resetDiscardsStatistics() {
+    ConTesterStatistics.enable();
+    visitBreakpoint("statistics-reset");
+    ConTesterStatistics.reset();
+    assertTrue(ConTesterStatistics.getVisitCounts().isEmpty());
+    assertEquals(0L, ConTesterStatistics.getVisitNanos());
+  }
+}
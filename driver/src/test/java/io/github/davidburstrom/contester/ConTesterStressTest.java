@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ConTesterStressTest {
+
+  @Test
+  void outcomesAreAggregated() {
+    final ConTesterDelay delay = ConTesterDelay.jitter(1, TimeUnit.MICROSECONDS);
+    final ConTesterStress.Histogram histogram =
+        ConTesterStress.of(AtomicInteger::new)
+            .actor(
+                counter -> {
+                  ConTesterBreakpoint.defineBreakpoint("stress-increment");
+                  counter.incrementAndGet();
+                })
+            .actor(AtomicInteger::incrementAndGet)
+            .arbiter(AtomicInteger::get)
+            .jitter("stress-increment", delay)
+            .parallelism(2)
+            .run(5000);
+
+    assertEquals(5000, histogram.getTotal());
+    assertEquals(5000, histogram.getCount("2"));
+    assertEquals(1.0, histogram.getFrequency("2"));
+    assertEquals(5000, delay.getCount());
+  }
+
+  @Test
+  void exceptionsAreOutcomes() {
+    final ConTesterStress.Histogram histogram =
+        ConTesterStress.of(AtomicInteger::new)
+            .actor(
+                counter -> {
+                  if (counter.incrementAndGet() % 2 == 0) {
+                    throw new IllegalStateException();
+                  }
+                })
+            .actor(counter -> counter.addAndGet(2))
+            .parallelism(1)
+            .run(10);
+
+    assertEquals(10, histogram.getTotal());
+    assertEquals(
+        histogram.getCount("completed"),
+        10 - histogram.getCount(IllegalStateException.class.getName()));
+    assertTrue(histogram.toString().contains("completed"));
+  }
+
+  @Test
+  void failingArbiterFailsRun() {
+    final ConTesterStress<AtomicInteger> stress =
+        ConTesterStress.of(AtomicInteger::new)
+            .actor(AtomicInteger::incrementAndGet)
+            .actor(AtomicInteger::incrementAndGet)
+            .arbiter(
+                counter -> {
+                  throw new IllegalStateException();
+                });
+
+    assertThrows(AssertionError.class, () -> stress.run(100, 10, TimeUnit.SECONDS));
+  }
+}
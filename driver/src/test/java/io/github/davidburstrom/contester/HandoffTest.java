@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class HandoffTest {
+
+  @Test
+  void resumeWithoutSuspensionHasNoEffect() {
+    final Handoff handoff = new Handoff();
+    assertNull(handoff.resume());
+    assertNull(handoff.getSuspended());
+    assertNull(handoff.awaitSuspended(TimeUnit.MILLISECONDS.toNanos(1)));
+  }
+
+  @Test
+  void suspendedThreadIsResumed() throws InterruptedException {
+    final Handoff handoff = new Handoff();
+    final AtomicBoolean resumed = new AtomicBoolean();
+    final Thread thread =
+        new Thread(
+            () -> {
+              handoff.suspend("id");
+              handoff.awaitResume();
+              resumed.set(true);
+            });
+    thread.start();
+    assertEquals("id", handoff.awaitSuspended(TimeUnit.SECONDS.toNanos(1)));
+    // Give the thread time to park after spinning
+    thread.join(10);
+    assertFalse(resumed.get());
+    assertEquals("id", handoff.resume());
+    assertNull(handoff.resume());
+    thread.join(1000);
+    assertTrue(resumed.get());
+    assertNull(handoff.getSuspended());
+  }
+
+  @Test
+  void interruptedThreadResumesItself() throws Exception {
+    final Handoff handoff = new Handoff();
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    final Thread thread =
+        new Thread(
+            () -> {
+              handoff.suspend("id");
+              try {
+                handoff.awaitResume();
+              } catch (RuntimeException e) {
+                thrown.set(e.getCause());
+              }
+            });
+    thread.start();
+    assertEquals("id", handoff.awaitSuspended(TimeUnit.SECONDS.toNanos(1)));
+    thread.interrupt();
+    thread.join(1000);
+    assertTrue(thrown.get() instanceof InterruptedException);
+    assertNull(handoff.resume());
+  }
+
+  @Test
+  void repeatedHandoffs() throws Exception {
+    final Handoff handoff = new Handoff();
+    final int rounds = 10_000;
+    final CompletableFuture<Void> future =
+        CompletableFuture.runAsync(
+            () -> {
+              for (int i = 0; i < rounds; i++) {
+                handoff.suspend("id");
+                handoff.awaitResume();
+              }
+            });
+    for (int i = 0; i < rounds; i++) {
+      assertEquals("id", handoff.awaitSuspended(TimeUnit.SECONDS.toNanos(1)));
+      assertEquals("id", handoff.resume());
+    }
+    future.get(10, TimeUnit.SECONDS);
+  }
+}
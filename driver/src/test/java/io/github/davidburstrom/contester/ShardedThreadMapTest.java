@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ShardedThreadMapTest {
+
+  @Test
+  void putIfAbsentKeepsFirstValue() {
+    final ShardedThreadMap<String> map = new ShardedThreadMap<>();
+    final Thread thread = new Thread(() -> {});
+    assertNull(map.get(thread));
+    assertNull(map.putIfAbsent(thread, "first"));
+    assertEquals("first", map.putIfAbsent(thread, "second"));
+    assertEquals("first", map.get(thread));
+  }
+
+  @Test
+  void removeRequiresExpectedValue() {
+    final ShardedThreadMap<String> map = new ShardedThreadMap<>();
+    final Thread thread = new Thread(() -> {});
+    map.putIfAbsent(thread, "value");
+    map.remove(thread, "other");
+    assertEquals("value", map.get(thread));
+    map.remove(thread, "value");
+    assertNull(map.get(thread));
+  }
+
+  @Test
+  void manyThreadsCanBeLookedUp() {
+    final ShardedThreadMap<Integer> map = new ShardedThreadMap<>();
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      final Thread thread = new Thread(() -> {});
+      threads.add(thread);
+      map.putIfAbsent(thread, i);
+    }
+    for (int i = 0; i < threads.size(); i++) {
+      assertEquals(i, map.get(threads.get(i)));
+    }
+  }
+}
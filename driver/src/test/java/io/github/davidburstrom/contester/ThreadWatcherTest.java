@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022-2024 David Burström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.davidburstrom.contester;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ThreadWatcherTest {
+
+  @Test
+  void errorFailsOnlyItsOwnWatch() throws Exception {
+    final CompletableFuture<Void> failing = new CompletableFuture<>();
+    final CompletableFuture<String> pending = new CompletableFuture<>();
+    ThreadWatcher.watch(
+        failing,
+        () -> {
+          throw new StackOverflowError("poll");
+        });
+    final ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> failing.get(1, TimeUnit.SECONDS));
+    assertTrue(exception.getCause() instanceof StackOverflowError);
+
+    ThreadWatcher.watch(pending, () -> pending.complete("polled"));
+    assertEquals("polled", pending.get(1, TimeUnit.SECONDS));
+  }
+}
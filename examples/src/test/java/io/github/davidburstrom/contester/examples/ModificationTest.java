@@ -15,12 +15,15 @@
  */
 package io.github.davidburstrom.contester.examples;
 
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.davidburstrom.contester.ConTesterContentionProfile;
 import io.github.davidburstrom.contester.ConTesterDriver;
 import org.junit.jupiter.api.Test;
 
 class ModificationTest {
 
-  private void runTest(Modification obj) {
+  private Thread runTest(Modification obj) {
     Thread resetter = ConTesterDriver.thread(obj::reset);
     Thread printer = ConTesterDriver.thread(obj::print);
 
@@ -30,6 +33,7 @@ class ModificationTest {
         resetter); // without the fix, resetter will run reset() in full
     ConTesterDriver.runUntilBlockedOrTerminated(
         printer); // without the fix, printer will dereference a null member
+    return resetter;
   }
 
   @Test
@@ -45,4 +49,23 @@ class ModificationTest {
   void fixed() {
     runTest(new Modification.Fixed());
   }
+
+  @Test
+  void fixedContendsOnReset() {
+    try {
+      ConTesterDriver.enableContentionProfiling();
+      final Thread resetter = runTest(new Modification.Fixed());
+      ConTesterDriver.join(resetter);
+
+      // The resetter waits for the lock held by the printer after the reset breakpoint
+      boolean contended = false;
+      for (ConTesterContentionProfile.Segment segment :
+          ConTesterDriver.getContentionProfile().getSegments(resetter)) {
+        contended |= segment.getFromId().equals("reset") && segment.getWaitedCount() > 0;
+      }
+      assertTrue(contended, ConTesterDriver.getContentionProfile().toString());
+    } finally {
+      ConTesterDriver.cleanUp();
+    }
+  }
 }
@@ -20,7 +20,15 @@ import static io.github.davidburstrom.contester.ConTesterDriver.resume;
 import static io.github.davidburstrom.contester.ConTesterDriver.runToBreakpoint;
 import static io.github.davidburstrom.contester.ConTesterDriver.runUntilBlockedOrTerminated;
 import static io.github.davidburstrom.contester.ConTesterDriver.thread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import io.github.davidburstrom.contester.ConTesterLinearizability;
+import io.github.davidburstrom.contester.ConTesterStress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 import org.junit.jupiter.api.Test;
 
 class UnderflowTest {
@@ -50,4 +58,40 @@ class UnderflowTest {
   void fixed() {
     runTest(new Underflow.Fixed());
   }
+
+  @Test
+  void fixedUnderStress() {
+    final ConTesterStress.Histogram histogram =
+        ConTesterStress.<Underflow>of(Underflow.Fixed::new)
+            .actor(Underflow::produce)
+            .actor(Underflow::consume)
+            .jitter("produce")
+            .run(10_000);
+
+    assertEquals(10_000L, histogram.getCount("completed"), histogram.toString());
+  }
+
+  private ConTesterLinearizability.Result checkLinearizability(Supplier<Underflow> factory) {
+    return ConTesterLinearizability.<Underflow, List<Object>>of(
+            factory, ArrayList::new, ArrayList::new)
+        .voidOperation("produce", Underflow::produce, model -> model.add("item"))
+        .voidOperation("consume", Underflow::consume, model -> model.remove(0))
+        .actor("produce")
+        .actor("consume")
+        .breakpoint("produce")
+        .explore()
+        .check(100);
+  }
+
+  @Test
+  void brokenIsNotLinearizable() {
+    assertFalse(checkLinearizability(Underflow.Broken::new).isLinearizable());
+  }
+
+  @Test
+  void fixedIsLinearizable() {
+    final ConTesterLinearizability.Result result = checkLinearizability(Underflow.Fixed::new);
+
+    assertTrue(result.isLinearizable(), result.toString());
+  }
 }